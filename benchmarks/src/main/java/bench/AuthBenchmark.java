@@ -0,0 +1,48 @@
+package bench;
+
+import model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import util.HashUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка пароля при входе и хеширование.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthBenchmark {
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() { fixture = new Fixture(0, 1); }
+
+    @TearDown(Level.Trial)
+    public void tearDown() { fixture.close(); }
+
+    @Benchmark
+    public User authenticate() {
+        return fixture.auth.authenticate(Fixture.LOGIN, Fixture.PASSWORD);
+    }
+
+    @Benchmark
+    public String sha256() {
+        return HashUtil.sha256(Fixture.PASSWORD);
+    }
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import cli.CommandProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор строки команды.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CliBenchmark {
+
+    @Param({
+            "show-summary",
+            "add-expense 1250.50 еда \"обед в столовой\"",
+            "transfer petrov 15000 \"за аренду, октябрь\""
+    })
+    public String line;
+
+    @Benchmark
+    public List<String> splitArgs() {
+        return CommandProcessor.splitArgs(line);
+    }
+}
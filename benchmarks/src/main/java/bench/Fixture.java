@@ -0,0 +1,50 @@
+package bench;
+
+import service.AuthService;
+import service.PersistenceService;
+import service.WalletService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+/**
+ * Сервисы поверх временного каталога с одним сгенерированным кошельком.
+ */
+final class Fixture {
+
+    static final String LOGIN = "bench";
+    static final String PASSWORD = "secret";
+
+    final Path dir;
+    final AuthService auth;
+    final PersistenceService persistence;
+    final WalletService wallets;
+
+    Fixture(int transactions, int categories) {
+        try {
+            dir = Files.createTempDirectory("finance-bench");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        auth = new AuthService(dir, false);
+        persistence = new PersistenceService(dir, false);
+        wallets = new WalletService(persistence, auth);
+
+        auth.register(LOGIN, PASSWORD);
+        persistence.saveWallet(LOGIN, WalletGenerator.generate(LOGIN, transactions, categories, 42));
+        wallets.loadWalletForUser(LOGIN);
+    }
+
+    void close() {
+        persistence.close();
+        auth.close();
+        try (var files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
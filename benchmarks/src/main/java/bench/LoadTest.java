@@ -0,0 +1,354 @@
+package bench;
+
+import exception.FinanceAppException;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import model.Money;
+import model.TransactionType;
+import service.AuthService;
+import service.PersistenceService;
+import service.WalletService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Нагрузочный тест: N пользователей, M потоков, смесь входов, доходов, расходов, переводов, сводок и сумм по категориям
+ * поверх настоящего {@link PersistenceService} во временном каталоге. В отличие от бенчмарков JMH меряет работу
+ * под конкуренцией: блокировки полос, журналы, фоновую запись. Результат — JSON: операций в секунду, p50/p99/p999
+ * по каждой операции, рост кучи и байт записи на проводку.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar bench.LoadTest --users 1000 --workers 8 --seconds 30 \
+ *      --mix login=5,income=30,expense=30,transfer=15,summary=10,category=10 --output load.json
+ * </pre>
+ * Регистрация идёт через {@link AuthService#register}, поэтому на тысячах пользователей её стоит ускорить
+ * -Dfinance.kdf.iterations=1000.
+ */
+public final class LoadTest {
+
+    private static final String PASSWORD = "secret";
+    private static final String[] CATEGORIES = {"Еда", "Транспорт", "Дом", "Развлечения", "Здоровье"};
+    private static final List<String> REPORT_CATEGORIES = List.of(CATEGORIES);
+
+    enum Op {
+        LOGIN("login"), INCOME("income"), EXPENSE("expense"), TRANSFER("transfer"), SUMMARY("summary"), CATEGORY("category");
+
+        final String key;
+
+        Op(String key) { this.key = key; }
+
+        static Op of(String key) {
+            for (var op : values()) if (op.key.equals(key)) return op;
+            throw new IllegalArgumentException("Неизвестная операция в --mix: " + key);
+        }
+    }
+
+    /**
+     * Параметры запуска. Длительность задаётся либо числом операций, либо временем.
+     */
+    record Options(int users, int workers, long ops, int seconds, int warmupSeconds, int[] mix,
+                   boolean journaling, long seed, Path output) {
+
+        static Options parse(String[] args) {
+            int users = 1000, workers = Runtime.getRuntime().availableProcessors(), seconds = 30, warmup = 5;
+            long ops = 0, seed = 42;
+            boolean journaling = true;
+            String mix = "login=5,income=30,expense=30,transfer=15,summary=10,category=10";
+            Path output = null;
+            for (int i = 0; i < args.length; i++) {
+                var name = args[i];
+                if (i + 1 >= args.length) throw new IllegalArgumentException("Нет значения для " + name);
+                var value = args[++i];
+                switch (name) {
+                    case "--users" -> users = Integer.parseInt(value);
+                    case "--workers" -> workers = Integer.parseInt(value);
+                    case "--ops" -> ops = Long.parseLong(value);
+                    case "--seconds" -> seconds = Integer.parseInt(value);
+                    case "--warmup" -> warmup = Integer.parseInt(value);
+                    case "--mix" -> mix = value;
+                    case "--journal" -> journaling = Boolean.parseBoolean(value);
+                    case "--seed" -> seed = Long.parseLong(value);
+                    case "--output" -> output = Path.of(value);
+                    default -> throw new IllegalArgumentException("Неизвестный параметр: " + name);
+                }
+            }
+            if (users < 2) throw new IllegalArgumentException("Для переводов нужно хотя бы два пользователя.");
+            if (workers < 1) throw new IllegalArgumentException("Нужен хотя бы один поток.");
+            return new Options(users, workers, ops, seconds, warmup, parseMix(mix), journaling, seed, output);
+        }
+
+        private static int[] parseMix(String spec) {
+            var weights = new int[Op.values().length];
+            for (var part : spec.split(",")) {
+                var kv = part.split("=", 2);
+                if (kv.length != 2) throw new IllegalArgumentException("Ожидалось имя=вес: " + part);
+                int w = Integer.parseInt(kv[1].trim());
+                if (w < 0) throw new IllegalArgumentException("Отрицательный вес: " + part);
+                weights[Op.of(kv[0].trim()).ordinal()] = w;
+            }
+            int total = 0;
+            for (int w : weights) total += w;
+            if (total == 0) throw new IllegalArgumentException("Смесь операций пуста.");
+            return weights;
+        }
+    }
+
+    /**
+     * Счётчики одной операции за измеряемый интервал.
+     */
+    static final class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder failures = new LongAdder();
+    }
+
+    private final Options options;
+    private final Path dir;
+    private final AuthService auth;
+    private final PersistenceService persistence;
+    private final WalletService wallets;
+    private final String[] logins;
+    private final int[] cumulative;
+    private final int totalWeight;
+
+    LoadTest(Options options) {
+        this.options = options;
+        try {
+            dir = Files.createTempDirectory("finance-load");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        auth = new AuthService(dir, options.journaling());
+        persistence = new PersistenceService(dir, options.journaling());
+        wallets = new WalletService(persistence, auth);
+        if (!options.journaling()) persistence.startWriteBehind(auth, wallets);
+
+        logins = new String[options.users()];
+        for (int i = 0; i < logins.length; i++) logins[i] = String.format(Locale.ROOT, "user%06d", i);
+
+        cumulative = new int[options.mix().length];
+        int sum = 0;
+        for (int i = 0; i < cumulative.length; i++) cumulative[i] = sum += options.mix()[i];
+        totalWeight = sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Параметры: --users N --workers M (--ops K | --seconds S) [--warmup S] [--mix login=5,income=30,...]"
+                    + " [--journal true|false] [--seed N] [--output файл]");
+            System.exit(2);
+            return;
+        }
+        var test = new LoadTest(options);
+        try {
+            var json = test.run();
+            if (options.output() != null) {
+                Files.writeString(options.output(), json, StandardCharsets.UTF_8);
+            } else {
+                System.out.println(json);
+            }
+        } finally {
+            test.close();
+        }
+    }
+
+    String run() throws InterruptedException {
+        long setupStart = System.nanoTime();
+        runParallel(options.workers(), (worker, random) -> {
+            for (int i = worker; i < logins.length; i += options.workers()) {
+                auth.register(logins[i], PASSWORD);
+                for (var c : CATEGORIES) wallets.createCategory(logins[i], c);
+                wallets.addTransaction(logins[i], TransactionType.INCOME, Money.ofMinor(1_000_000_00L), "Зарплата", "начальный баланс");
+            }
+        });
+        double setupSeconds = (System.nanoTime() - setupStart) / 1e9;
+
+        if (options.warmupSeconds() > 0 && options.ops() == 0) {
+            drive(newStats(), 0, options.warmupSeconds());
+        }
+
+        long heapBefore = usedHeap();
+        long bytesBefore = bytesWritten();
+        long postingsBefore = Metrics.transactionsAdded();
+
+        var stats = newStats();
+        long start = System.nanoTime();
+        drive(stats, options.ops(), options.ops() > 0 ? 0 : options.seconds());
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        // Снимки и таблица пользователей входят в объём записи так же, как при штатном завершении.
+        persistence.saveAll(auth, wallets);
+        long bytes = bytesWritten() - bytesBefore;
+        long postings = Metrics.transactionsAdded() - postingsBefore;
+        long heapAfter = usedHeap();
+
+        return report(stats, elapsed, setupSeconds, heapBefore, heapAfter, bytes, postings);
+    }
+
+    private Stats[] newStats() {
+        var stats = new Stats[Op.values().length];
+        for (int i = 0; i < stats.length; i++) stats[i] = new Stats();
+        return stats;
+    }
+
+    /**
+     * Гоняет смесь операций из всех потоков: {@code ops} операций на всех или, если 0, {@code seconds} секунд.
+     */
+    private void drive(Stats[] stats, long ops, int seconds) throws InterruptedException {
+        var remaining = new AtomicLong(ops);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        runParallel(options.workers(), (worker, random) -> {
+            while (ops > 0 ? remaining.getAndDecrement() > 0 : System.nanoTime() < deadline) {
+                var op = pick(random);
+                var login = logins[random.nextInt(logins.length)];
+                long t = System.nanoTime();
+                try {
+                    execute(op, login, random);
+                } catch (FinanceAppException e) {
+                    stats[op.ordinal()].failures.increment();
+                }
+                stats[op.ordinal()].latency.record(System.nanoTime() - t);
+            }
+        });
+    }
+
+    private Op pick(SplittableRandom random) {
+        int r = random.nextInt(totalWeight);
+        for (int i = 0; i < cumulative.length; i++) if (r < cumulative[i]) return Op.values()[i];
+        throw new AssertionError();
+    }
+
+    private void execute(Op op, String login, SplittableRandom random) {
+        switch (op) {
+            case LOGIN -> {
+                auth.authenticate(login, PASSWORD);
+                wallets.openSession(login);
+                wallets.closeSession(login);
+            }
+            case INCOME -> wallets.addTransaction(login, TransactionType.INCOME, amount(random), "Зарплата", "нагрузка");
+            case EXPENSE -> wallets.addTransaction(login, TransactionType.EXPENSE, amount(random),
+                    CATEGORIES[random.nextInt(CATEGORIES.length)], "нагрузка");
+            case TRANSFER -> {
+                var to = logins[random.nextInt(logins.length)];
+                if (to.equals(login)) to = logins[(random.nextInt(logins.length - 1) + 1 + indexOf(login)) % logins.length];
+                wallets.transfer(login, to, amount(random), "нагрузка");
+            }
+            case SUMMARY -> wallets.buildSummary(login);
+            case CATEGORY -> wallets.sumByCategories(login, REPORT_CATEGORIES);
+        }
+    }
+
+    private int indexOf(String login) {
+        return Integer.parseInt(login.substring(4));
+    }
+
+    private static Money amount(SplittableRandom random) {
+        return Money.ofMinor(100 + random.nextInt(500_000));
+    }
+
+    @FunctionalInterface
+    private interface Worker {
+        void run(int worker, SplittableRandom random);
+    }
+
+    private void runParallel(int workers, Worker body) throws InterruptedException {
+        var done = new CountDownLatch(workers);
+        var errors = new ArrayList<Throwable>();
+        var root = new SplittableRandom(options.seed());
+        for (int w = 0; w < workers; w++) {
+            int worker = w;
+            var random = root.split();
+            Thread.ofPlatform().name("load-" + w).start(() -> {
+                try {
+                    body.run(worker, random);
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        if (!errors.isEmpty()) throw new IllegalStateException("Поток нагрузки завершился с ошибкой", errors.get(0));
+    }
+
+    /**
+     * Занятая куча после полной сборки мусора: рост между замерами — то, что осталось жить после нагрузки.
+     */
+    private static long usedHeap() {
+        var memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Байты, записанные в журналы, хранилище снимков и архивные сегменты.
+     */
+    private static long bytesWritten() {
+        return Metrics.JOURNAL_APPEND.bytes() + Metrics.WALLET_SAVE.bytes() + Metrics.SEGMENT_WRITE.bytes();
+    }
+
+    private String report(Stats[] stats, double elapsed, double setupSeconds, long heapBefore, long heapAfter,
+                          long bytes, long postings) {
+        long total = 0;
+        for (var s : stats) total += s.latency.count();
+
+        var out = new StringBuilder();
+        out.append("{\n");
+        out.append(String.format(Locale.ROOT, "  \"users\": %d,\n  \"workers\": %d,\n  \"journaling\": %b,\n",
+                options.users(), options.workers(), options.journaling()));
+        out.append(String.format(Locale.ROOT, "  \"setupSeconds\": %.3f,\n  \"seconds\": %.3f,\n", setupSeconds, elapsed));
+        out.append(String.format(Locale.ROOT, "  \"ops\": %d,\n  \"opsPerSecond\": %.1f,\n", total, total / elapsed));
+        out.append("  \"operations\": {\n");
+        var ops = Op.values();
+        boolean first = true;
+        for (var op : ops) {
+            var s = stats[op.ordinal()];
+            long n = s.latency.count();
+            if (n == 0) continue;
+            if (!first) out.append(",\n");
+            first = false;
+            out.append(String.format(Locale.ROOT,
+                    "    \"%s\": {\"count\": %d, \"failures\": %d, \"opsPerSecond\": %.1f, \"meanUs\": %.1f,"
+                            + " \"p50Us\": %.1f, \"p99Us\": %.1f, \"p999Us\": %.1f, \"maxUs\": %.1f}",
+                    op.key, n, s.failures.sum(), n / elapsed, s.latency.mean() / 1e3,
+                    s.latency.percentile(0.50) / 1e3, s.latency.percentile(0.99) / 1e3,
+                    s.latency.percentile(0.999) / 1e3, s.latency.max() / 1e3));
+        }
+        out.append("\n  },\n");
+        out.append(String.format(Locale.ROOT, "  \"heapBeforeBytes\": %d,\n  \"heapAfterBytes\": %d,\n  \"heapGrowthBytes\": %d,\n",
+                heapBefore, heapAfter, heapAfter - heapBefore));
+        out.append(String.format(Locale.ROOT, "  \"bytesWritten\": %d,\n  \"postings\": %d,\n  \"bytesPerPosting\": %.1f\n",
+                bytes, postings, postings == 0 ? 0.0 : (double) bytes / postings));
+        out.append("}");
+        return out.toString();
+    }
+
+    void close() {
+        persistence.saveAll(auth, wallets);
+        persistence.close();
+        auth.close();
+        try (var files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
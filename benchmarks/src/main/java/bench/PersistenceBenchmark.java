@@ -0,0 +1,56 @@
+package bench;
+
+import model.Wallet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сохранение и загрузка файла кошелька.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int transactions;
+
+    private Fixture fixture;
+    private Wallet wallet;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new Fixture(0, 1);
+        wallet = WalletGenerator.generate(Fixture.LOGIN, transactions, 20, 7);
+        fixture.persistence.saveWallet(Fixture.LOGIN, wallet);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() { fixture.close(); }
+
+    @Benchmark
+    public void saveWallet() {
+        fixture.persistence.saveWallet(Fixture.LOGIN, wallet);
+    }
+
+    @Benchmark
+    public Wallet loadWallet() {
+        return fixture.persistence.loadWallet(Fixture.LOGIN);
+    }
+}
@@ -0,0 +1,37 @@
+package bench;
+
+import model.Category;
+import model.Money;
+import model.Transaction;
+import model.TransactionType;
+import model.Wallet;
+
+import java.time.LocalDateTime;
+import java.util.SplittableRandom;
+
+/**
+ * Генератор синтетических кошельков для бенчмарков.
+ * Доходы всегда больше расходов и бюджеты не заданы, чтобы проверки бюджета не публиковали оповещений.
+ */
+public final class WalletGenerator {
+
+    private WalletGenerator() {}
+
+    public static String category(int i) { return "cat" + i; }
+
+    public static Wallet generate(String login, int transactions, int categories, long seed) {
+        var random = new SplittableRandom(seed);
+        var w = new Wallet(login);
+        for (int i = 0; i < categories; i++) w.getCategories().put(category(i), new Category(category(i)));
+
+        var time = LocalDateTime.now().minusMinutes(transactions);
+        for (int i = 0; i < transactions; i++) {
+            boolean income = i % 3 == 0;
+            var type = income ? TransactionType.INCOME : TransactionType.EXPENSE;
+            var amount = Money.ofMinor((income ? 1_000 + random.nextInt(5_000) : 1 + random.nextInt(500)) * 100L);
+            var category = category(random.nextInt(categories));
+            w.addTransaction(new Transaction(type, amount, category, "операция " + (i % 1000), time.plusMinutes(i)));
+        }
+        return w;
+    }
+}
@@ -0,0 +1,75 @@
+package bench;
+
+import model.Money;
+import model.TransactionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проведение транзакции, сводка и суммы по категориям на кошельках разного размера.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalletServiceBenchmark {
+
+    private static final Money ONE = Money.ofMinor(100);
+
+    @Param({"1000", "100000", "1000000"})
+    public int existing;
+
+    @Param({"20"})
+    public int categories;
+
+    private Fixture fixture;
+    private List<String> requested;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new Fixture(existing, categories);
+        requested = List.of(WalletGenerator.category(0), WalletGenerator.category(categories / 2), "нет-такой");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() { fixture.close(); }
+
+    @Benchmark
+    public void addTransaction() {
+        fixture.wallets.addTransaction(Fixture.LOGIN, TransactionType.EXPENSE, ONE, WalletGenerator.category(0), "bench");
+    }
+
+    @Benchmark
+    public String buildSummary() {
+        return fixture.wallets.buildSummary(Fixture.LOGIN);
+    }
+
+    @Benchmark
+    public Object sumByCategories() {
+        return fixture.wallets.sumByCategories(Fixture.LOGIN, requested);
+    }
+
+    /**
+     * Редкое слово («42» — около 0,1% строк с префиксом) вместе с частым («операция» — во всех строках).
+     */
+    @Benchmark
+    public Object search() {
+        return fixture.wallets.search(Fixture.LOGIN, "операция 42", 20);
+    }
+}
@@ -1,7 +1,33 @@
+import cli.BatchRunner;
 import cli.Cli;
+import cli.Server;
+
+import java.io.IOException;
+import java.nio.file.Path;
 
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : Server.DEFAULT_PORT;
+            int maxConnections = args.length > 2 ? Integer.parseInt(args[2]) : Server.DEFAULT_MAX_CONNECTIONS;
+            new Server(port, maxConnections).start();
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--batch")) {
+            Path output = null;
+            int checkpoint = BatchRunner.DEFAULT_CHECKPOINT;
+            for (int i = 2; i + 1 < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--output" -> output = Path.of(args[i + 1]);
+                    case "--checkpoint" -> checkpoint = Integer.parseInt(args[i + 1]);
+                    default -> throw new IllegalArgumentException("Неизвестный параметр: " + args[i]);
+                }
+            }
+            var result = new BatchRunner(Path.of(args[1]), output, checkpoint).run();
+            BatchRunner.printSummary(result);
+            if (result.failed() > 0) System.exit(1);
+            return;
+        }
         new Cli().start();
     }
 }
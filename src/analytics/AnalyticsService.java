@@ -0,0 +1,216 @@
+package analytics;
+
+import model.CategoryTotals;
+import model.DateRange;
+import model.Money;
+import model.TransactionType;
+import model.WalletView;
+import service.AuthService;
+import service.WalletService;
+
+import java.io.Serial;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Отчёты по всем пользователям: итоги по категориям, крупнейшие расходы, превышения бюджетов и переводы.
+ * Пользователи перебираются по номерам записей хранилища на отдельном пуле fork-join: диапазон номеров
+ * делится пополам, пока не станет меньше {@value #LEAF_USERS}, частичные итоги сливаются при возврате.
+ * Кошелёк читается с диска без попадания в кэш и отпускается сразу после подсчёта; одновременно в памяти
+ * не больше {@code maxInFlight} таких кошельков (-Dfinance.analytics.inFlight, по умолчанию число ядер).
+ * Уже загруженные кошельки берутся из памяти под блокировкой чтения.
+ */
+public class AnalyticsService implements AutoCloseable {
+
+    private static final int LEAF_USERS = 32;
+
+    private final AuthService authService;
+    private final WalletService walletService;
+    private final ForkJoinPool pool;
+    private final Semaphore inFlight;
+
+    public AnalyticsService(AuthService authService, WalletService walletService) {
+        this(authService, walletService,
+                Integer.getInteger("finance.analytics.inFlight", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public AnalyticsService(AuthService authService, WalletService walletService, int maxInFlight) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("Число кошельков в обработке должно быть положительным.");
+        this.authService = authService;
+        this.walletService = walletService;
+        this.pool = new ForkJoinPool(Math.min(maxInFlight, Runtime.getRuntime().availableProcessors()));
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * @param top сколько строк оставлять в списках лучших
+     */
+    public GlobalReport report(DateRange range, int top) {
+        long start = System.nanoTime();
+        int users = authService.userCount();
+        var totals = pool.invoke(new Scan(range, top, LocalDate.now(walletService.getClock()), 0, users));
+        return totals.toReport(range, users, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private final class Scan extends RecursiveTask<Partial> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient DateRange range;
+        private final int top;
+        private final LocalDate today;
+        private final int from;
+        private final int to;
+
+        Scan(DateRange range, int top, LocalDate today, int from, int to) {
+            this.range = range;
+            this.top = top;
+            this.today = today;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from > LEAF_USERS) {
+                int mid = (from + to) >>> 1;
+                var left = new Scan(range, top, today, from, mid);
+                left.fork();
+                var right = new Scan(range, top, today, mid, to).compute();
+                return left.join().merge(right);
+            }
+            var partial = new Partial(top);
+            for (int i = from; i < to; i++) {
+                var login = authService.loginAt(i);
+                if (login == null) continue;
+                inFlight.acquireUninterruptibly();
+                try {
+                    walletService.readUncached(login, w -> {
+                        partial.add(login, w, range, today);
+                        return null;
+                    });
+                } finally {
+                    inFlight.release();
+                }
+            }
+            return partial;
+        }
+    }
+
+    /**
+     * Частичные итоги по диапазону пользователей.
+     */
+    private static final class Partial {
+        long wallets;
+        long transactions;
+        long income;
+        long expense;
+        final Map<String, long[]> categories = new HashMap<>();
+        final TopList<GlobalReport.Spender> spenders;
+        long overBudget;
+        final TopList<GlobalReport.OverBudget> overBudgetTop;
+        long transfers;
+        long transferVolume;
+        final TopList<GlobalReport.TransferFlow> flows;
+
+        Partial(int top) {
+            spenders = new TopList<>(top, Comparator.comparing(GlobalReport.Spender::expense));
+            overBudgetTop = new TopList<>(top, Comparator.comparing(GlobalReport.OverBudget::excess));
+            flows = new TopList<>(top, Comparator.comparing(GlobalReport.TransferFlow::volume));
+        }
+
+        void add(String login, WalletView w, DateRange range, LocalDate today) {
+            wallets++;
+            transactions += w.transactionCount(range);
+
+            long in = w.getTotal(TransactionType.INCOME, range).minor();
+            long out = w.getTotal(TransactionType.EXPENSE, range).minor();
+            income += in;
+            expense += out;
+            if (out > 0) spenders.offer(new GlobalReport.Spender(login, Money.ofMinor(out)));
+            addCategories(w.getCategoryTotals(TransactionType.INCOME, range), 0);
+            addCategories(w.getCategoryTotals(TransactionType.EXPENSE, range), 1);
+
+            for (var c : w.getCategories().values()) {
+                if (!c.getBudget().isPositive()) continue;
+                var spent = w.getCategoryTotal(c.getName(), TransactionType.EXPENSE, c.getBudgetPeriod().current(today));
+                if (spent.compareTo(c.getBudget()) > 0) {
+                    overBudget++;
+                    overBudgetTop.offer(new GlobalReport.OverBudget(login, c.getName(), c.getBudgetPeriod(), c.getBudget(), spent));
+                }
+            }
+
+            // Пара отправитель — получатель встречается только в кошельке отправителя, поэтому потоки считаются здесь целиком.
+            if (w.getCategoryTotal(WalletService.TRANSFER_OUT, TransactionType.EXPENSE, range).isPositive()) {
+                Map<String, long[]> byRecipient = new HashMap<>();
+                w.forEachRow(range, (rows, i) -> {
+                    var recipient = WalletService.transferRecipient(rows.type(i), rows.category(i), rows.description(i));
+                    if (recipient == null) return;
+                    var flow = byRecipient.computeIfAbsent(recipient, r -> new long[2]);
+                    flow[0]++;
+                    flow[1] += rows.amountMinor(i);
+                });
+                byRecipient.forEach((to, flow) -> {
+                    transfers += flow[0];
+                    transferVolume += flow[1];
+                    flows.offer(new GlobalReport.TransferFlow(login, to, flow[0], Money.ofMinor(flow[1])));
+                });
+            }
+        }
+
+        private void addCategories(CategoryTotals sums, int column) {
+            for (int i = 0; i < sums.size(); i++) categories.computeIfAbsent(sums.name(i), c -> new long[2])[column] += sums.minor(i);
+        }
+
+        Partial merge(Partial other) {
+            wallets += other.wallets;
+            transactions += other.transactions;
+            income += other.income;
+            expense += other.expense;
+            other.categories.forEach((c, sums) -> {
+                var mine = categories.computeIfAbsent(c, k -> new long[2]);
+                mine[0] += sums[0];
+                mine[1] += sums[1];
+            });
+            spenders.merge(other.spenders);
+            overBudget += other.overBudget;
+            overBudgetTop.merge(other.overBudgetTop);
+            transfers += other.transfers;
+            transferVolume += other.transferVolume;
+            flows.merge(other.flows);
+            return this;
+        }
+
+        GlobalReport toReport(DateRange range, long users, long millis) {
+            return new GlobalReport(range, users, wallets, transactions, Money.ofMinor(income), Money.ofMinor(expense),
+                    column(0), column(1), spenders.sorted(), overBudget, overBudgetTop.sorted(),
+                    transfers, Money.ofMinor(transferVolume), flows.sorted(), millis);
+        }
+
+        private CategoryTotals column(int column) {
+            var names = categories.keySet().toArray(new String[0]);
+            Arrays.sort(names);
+            var sums = new long[names.length];
+            int n = 0;
+            for (var name : names) {
+                long sum = categories.get(name)[column];
+                if (sum > 0) {
+                    names[n] = name;
+                    sums[n++] = sum;
+                }
+            }
+            return new CategoryTotals(names, sums, n);
+        }
+    }
+}
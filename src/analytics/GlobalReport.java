@@ -0,0 +1,34 @@
+package analytics;
+
+import model.BudgetPeriod;
+import model.CategoryTotals;
+import model.DateRange;
+import model.Money;
+
+import java.util.List;
+
+/**
+ * Сводка по всем пользователям за период.
+ *
+ * @param users          пользователей в хранилище
+ * @param wallets        прочитано кошельков
+ * @param transactions   транзакций за период
+ * @param overBudget     категорий, расход по которым в текущем периоде бюджета превысил бюджет
+ * @param topOverBudget  наибольшие превышения бюджета
+ * @param transfers      число переводов между пользователями за период
+ * @param topTransfers   крупнейшие потоки переводов по паре отправитель — получатель
+ * @param millis         время расчёта
+ */
+public record GlobalReport(DateRange range, long users, long wallets, long transactions, Money income, Money expense,
+                           CategoryTotals incomeByCategory, CategoryTotals expenseByCategory,
+                           List<Spender> topSpenders, long overBudget, List<OverBudget> topOverBudget,
+                           long transfers, Money transferVolume, List<TransferFlow> topTransfers, long millis) {
+
+    public record Spender(String login, Money expense) { }
+
+    public record OverBudget(String login, String category, BudgetPeriod period, Money budget, Money spent) {
+        public Money excess() { return spent.minus(budget); }
+    }
+
+    public record TransferFlow(String from, String to, long count, Money volume) { }
+}
@@ -0,0 +1,44 @@
+package analytics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Ограниченный список лучших элементов: в куче хранится не больше {@code limit} элементов, худший — в вершине.
+ */
+final class TopList<T> {
+
+    private final int limit;
+    private final Comparator<T> order;
+    private final PriorityQueue<T> heap;
+
+    TopList(int limit, Comparator<T> order) {
+        this.limit = limit;
+        this.order = order;
+        this.heap = new PriorityQueue<>(Math.max(1, limit), order);
+    }
+
+    void offer(T item) {
+        if (limit <= 0) return;
+        if (heap.size() < limit) heap.add(item);
+        else if (order.compare(item, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(item);
+        }
+    }
+
+    void merge(TopList<T> other) {
+        for (var item : other.heap) offer(item);
+    }
+
+    /**
+     * Элементы от лучшего к худшему.
+     */
+    List<T> sorted() {
+        List<T> out = new ArrayList<>(heap);
+        out.sort(order.reversed());
+        return out;
+    }
+}
@@ -0,0 +1,109 @@
+package budget;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Асинхронная шина оповещений о бюджете. Публикация не блокирует операцию с кошельком: оповещение кладётся
+ * в ограниченную очередь, а подписчикам его раздаёт один фоновый поток. Если очередь переполнена,
+ * оповещение отбрасывается и учитывается в {@link #dropped()}. Пока подписчиков нет, оповещения не ставятся в очередь,
+ * а поток не запускается.
+ */
+public class AlertBus implements AutoCloseable {
+
+    private static final int DEFAULT_CAPACITY = 10_000;
+
+    private final BlockingQueue<BudgetAlert> queue;
+    private final List<AlertSink> sinks = new CopyOnWriteArrayList<>();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private Thread worker;
+    // Поставленные в очередь и ещё не розданные оповещения: нужны для awaitIdle.
+    private final Object idle = new Object();
+    private long pending;
+
+    public AlertBus() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public AlertBus(int capacity) {
+        queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public synchronized void subscribe(AlertSink sink) {
+        sinks.add(sink);
+        if (worker == null) {
+            worker = new Thread(this::run, "finance-alerts");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    public void unsubscribe(AlertSink sink) {
+        sinks.remove(sink);
+    }
+
+    public void publish(BudgetAlert alert) {
+        published.increment();
+        if (sinks.isEmpty()) return;
+        synchronized (idle) { pending++; }
+        if (!queue.offer(alert)) {
+            dropped.increment();
+            delivered();
+        }
+    }
+
+    public long published() { return published.sum(); }
+    public long dropped() { return dropped.sum(); }
+
+    /**
+     * Ждёт, пока все поставленные в очередь оповещения будут розданы. Возвращает false по истечении времени.
+     */
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (idle) {
+            while (pending > 0) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return false;
+                idle.wait(left);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (worker != null) worker.interrupt();
+    }
+
+    private void delivered() {
+        synchronized (idle) {
+            if (--pending == 0) idle.notifyAll();
+        }
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            BudgetAlert alert;
+            try {
+                alert = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                for (var sink : sinks) {
+                    try {
+                        sink.accept(alert);
+                    } catch (RuntimeException e) {
+                        System.out.println("Не удалось доставить оповещение: " + e.getMessage());
+                    }
+                }
+            } finally {
+                delivered();
+            }
+        }
+    }
+}
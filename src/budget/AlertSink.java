@@ -0,0 +1,9 @@
+package budget;
+
+/**
+ * Подписчик {@link AlertBus}. Вызывается из потока шины, по одному оповещению за раз.
+ */
+@FunctionalInterface
+public interface AlertSink {
+    void accept(BudgetAlert alert);
+}
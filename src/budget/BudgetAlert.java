@@ -0,0 +1,34 @@
+package budget;
+
+import model.BudgetPeriod;
+import model.Money;
+
+import java.time.LocalDateTime;
+
+/**
+ * Оповещение о пересечении порога бюджета.
+ *
+ * @param category категория или null, если расходы кошелька в целом превысили доходы
+ * @param percent  сработавший порог в процентах от бюджета (для общего перерасхода — 100)
+ * @param limit    бюджет категории (для общего перерасхода — доход)
+ * @param spent    расход за текущий период бюджета
+ */
+public record BudgetAlert(String login, String category, BudgetPeriod period, int percent, Money limit, Money spent,
+                          LocalDateTime time) {
+
+    public boolean isOverall() { return category == null; }
+
+    public String message() {
+        if (isOverall()) return "Общие расходы превысили доходы. Доход: " + limit + ", Расход: " + spent;
+        var title = period == BudgetPeriod.ALL ? "" : " " + period.getTitle();
+        if (percent >= 100) {
+            return (spent.compareTo(limit) > 0 ? "Превышен" : "Исчерпан") + " бюджет категории '" + category + "'" + title
+                    + (percent > 100 ? " на " + (percent - 100) + "%" : "") + ". Бюджет: " + limit + ", Расход: " + spent;
+        }
+        return "Израсходовано " + percent + "% бюджета категории '" + category + "'" + title
+                + ". Бюджет: " + limit + ", Расход: " + spent;
+    }
+
+    @Override
+    public String toString() { return login + ": " + message(); }
+}
@@ -0,0 +1,209 @@
+package budget;
+
+import model.BudgetPeriod;
+import model.Category;
+import model.DateRange;
+import model.Money;
+import model.Transaction;
+import model.TransactionType;
+import model.Wallet;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Правила бюджета, проверяемые по мере добавления транзакций.
+ * Для каждой категории с бюджетом хранятся расход в текущем периоде и число уже сработавших порогов
+ * ({@link Category#getAlertThresholds()}); новая транзакция увеличивает расход без обращения к истории,
+ * а по индексу кошелька он пересчитывается, только когда сменился период или бюджет.
+ * Каждый порог срабатывает один раз за период; если операция пересекла сразу несколько порогов,
+ * публикуется одно оповещение о старшем. Перерасход кошелька в целом оповещается при переходе в это состояние.
+ * <p>
+ * Методы с кошельком вызываются под его блокировкой записи: состояние одного кошелька не синхронизируется.
+ */
+public class BudgetEngine {
+
+    private final AlertBus bus;
+    private final Clock clock;
+    private final Map<String, WalletRules> wallets = new ConcurrentHashMap<>();
+
+    public BudgetEngine(AlertBus bus, Clock clock) {
+        this.bus = bus;
+        this.clock = clock;
+    }
+
+    /**
+     * Начинает следить за кошельком, если ещё не следит. Вызывается до изменения кошелька:
+     * уже пересечённые к этому моменту пороги повторно не оповещаются.
+     */
+    public void track(String login, Wallet w) {
+        var rules = wallets.get(login);
+        if (rules != null && rules.wallet == w) return;
+        rules = new WalletRules(w);
+        var today = today();
+        for (var c : w.getCategories().values()) {
+            if (!c.getBudget().isPositive()) continue;
+            var state = evaluate(w, c, today);
+            state.fired = state.level();
+            rules.categories.put(c.getName(), state);
+        }
+        rules.overspent = isOverspent(w);
+        wallets.put(login, rules);
+    }
+
+    /**
+     * Забывает кошелёк, выгруженный из памяти.
+     */
+    public void forget(String login) {
+        wallets.remove(login);
+    }
+
+    /**
+     * Учитывает транзакцию, уже добавленную в кошелёк.
+     */
+    public void onPosting(String login, Wallet w, Transaction t) {
+        var rules = rules(login, w);
+        if (rules == null) return;
+        if (t.type() == TransactionType.EXPENSE) {
+            var c = w.getCategories().get(t.category());
+            if (c != null && c.getBudget().isPositive()) {
+                var today = today();
+                var period = c.getBudgetPeriod().current(today);
+                var state = rules.categories.get(c.getName());
+                if (state == null || !state.matches(c, period)) {
+                    // Новый период: расход уже включает эту транзакцию, до неё пороги считаются несработавшими.
+                    state = evaluate(w, c, today);
+                    state.fired = state.level(state.spent - (period.contains(t.time()) ? t.amount().minor() : 0));
+                    rules.categories.put(c.getName(), state);
+                } else if (period.contains(t.time())) {
+                    state.spent += t.amount().minor();
+                }
+                fire(login, c, state);
+            }
+        }
+        checkBalance(login, w, rules);
+    }
+
+    /**
+     * Бюджет или пороги категории изменены: расход пересчитывается, пороги срабатывают заново,
+     * в том числе сразу, если расход их уже превышает.
+     */
+    public void onBudgetChanged(String login, Wallet w, Category c) {
+        var rules = rules(login, w);
+        if (rules == null) return;
+        if (!c.getBudget().isPositive()) {
+            rules.categories.remove(c.getName());
+            return;
+        }
+        var state = evaluate(w, c, today());
+        rules.categories.put(c.getName(), state);
+        fire(login, c, state);
+    }
+
+    /**
+     * Полная проверка после массового изменения кошелька (импорт).
+     */
+    public void reevaluate(String login, Wallet w) {
+        var rules = rules(login, w);
+        if (rules == null) return;
+        var today = today();
+        for (var c : w.getCategories().values()) {
+            if (!c.getBudget().isPositive()) continue;
+            var state = evaluate(w, c, today);
+            var old = rules.categories.get(c.getName());
+            if (old != null && old.matches(c, state.period)) state.fired = old.fired;
+            rules.categories.put(c.getName(), state);
+            fire(login, c, state);
+        }
+        checkBalance(login, w, rules);
+    }
+
+    private WalletRules rules(String login, Wallet w) {
+        var rules = wallets.get(login);
+        if (rules != null && rules.wallet == w) return rules;
+        // Кошелёк не был подготовлен через track: текущее состояние принимается без оповещений.
+        track(login, w);
+        return null;
+    }
+
+    private void fire(String login, Category c, CategoryRules state) {
+        int level = state.level();
+        if (level <= state.fired) return;
+        state.fired = level;
+        bus.publish(new BudgetAlert(login, c.getName(), c.getBudgetPeriod(), state.thresholds[level - 1],
+                Money.ofMinor(state.limit), Money.ofMinor(state.spent), LocalDateTime.now(clock)));
+    }
+
+    private void checkBalance(String login, Wallet w, WalletRules rules) {
+        boolean overspent = isOverspent(w);
+        if (overspent && !rules.overspent) {
+            bus.publish(new BudgetAlert(login, null, BudgetPeriod.ALL, 100, w.getTotal(TransactionType.INCOME),
+                    w.getTotal(TransactionType.EXPENSE), LocalDateTime.now(clock)));
+        }
+        rules.overspent = overspent;
+    }
+
+    private static boolean isOverspent(Wallet w) {
+        return w.getTotal(TransactionType.EXPENSE).compareTo(w.getTotal(TransactionType.INCOME)) > 0;
+    }
+
+    private static CategoryRules evaluate(Wallet w, Category c, LocalDate today) {
+        var period = c.getBudgetPeriod().current(today);
+        var spent = w.getCategoryTotal(c.getName(), TransactionType.EXPENSE, period).minor();
+        return new CategoryRules(period, c.getBudget().minor(), c.getAlertThresholds(), spent);
+    }
+
+    private LocalDate today() {
+        return LocalDate.now(clock);
+    }
+
+    private static final class WalletRules {
+        final Wallet wallet;
+        final Map<String, CategoryRules> categories = new HashMap<>();
+        boolean overspent;
+
+        WalletRules(Wallet wallet) { this.wallet = wallet; }
+    }
+
+    /**
+     * Расход категории в текущем периоде и число сработавших порогов.
+     */
+    private static final class CategoryRules {
+        final DateRange period;
+        final long limit;
+        final int[] thresholds;
+        long spent;
+        int fired;
+
+        CategoryRules(DateRange period, long limit, int[] thresholds, long spent) {
+            this.period = period;
+            this.limit = limit;
+            this.thresholds = thresholds;
+            this.spent = spent;
+        }
+
+        boolean matches(Category c, DateRange current) {
+            return period.equals(current) && limit == c.getBudget().minor() && thresholds == c.getAlertThresholds();
+        }
+
+        int level() { return level(spent); }
+
+        /**
+         * Сколько порогов пересечено при данном расходе.
+         */
+        int level(long spent) {
+            int n = 0;
+            while (n < thresholds.length && spent >= threshold(thresholds[n])) n++;
+            return n;
+        }
+
+        // limit * percent / 100 без переполнения для любых реальных бюджетов.
+        private long threshold(int percent) {
+            return limit / 100 * percent + limit % 100 * percent / 100;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package budget;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Накопитель оповещений для проверок и нагрузочных прогонов.
+ */
+public class CollectingAlertSink implements AlertSink {
+
+    private final List<BudgetAlert> alerts = new ArrayList<>();
+
+    @Override
+    public synchronized void accept(BudgetAlert alert) {
+        alerts.add(alert);
+        notifyAll();
+    }
+
+    public synchronized List<BudgetAlert> alerts() { return List.copyOf(alerts); }
+
+    public synchronized void clear() { alerts.clear(); }
+
+    /**
+     * Ждёт, пока накопится не меньше {@code count} оповещений. Возвращает false по истечении времени.
+     */
+    public synchronized boolean await(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (alerts.size() < count) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,24 @@
+package budget;
+
+import java.io.PrintWriter;
+
+/**
+ * Печатает оповещения одного пользователя (или всех, если логин не задан) в вывод сеанса.
+ */
+public class ConsoleAlertSink implements AlertSink {
+
+    private final PrintWriter out;
+    private final String login;
+
+    public ConsoleAlertSink(PrintWriter out, String login) {
+        this.out = out;
+        this.login = login;
+    }
+
+    @Override
+    public void accept(BudgetAlert alert) {
+        if (login != null && !login.equals(alert.login())) return;
+        out.println("[ВНИМАНИЕ] " + alert.message());
+        out.flush();
+    }
+}
@@ -0,0 +1,51 @@
+package budget;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Дописывает все оповещения в текстовый файл: время, логин и сообщение через табуляцию.
+ */
+public class FileAlertSink implements AlertSink, AutoCloseable {
+
+    private final Path path;
+    private final BufferedWriter writer;
+
+    public FileAlertSink(Path path) throws IOException {
+        this.path = path;
+        this.writer = Files.newBufferedWriter(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Журнал из свойства finance.alerts.file или null, если свойство не задано либо файл не открывается.
+     */
+    public static FileAlertSink fromSystemProperties() {
+        var file = System.getProperty("finance.alerts.file");
+        if (file == null || file.isBlank()) return null;
+        try {
+            return new FileAlertSink(Path.of(file));
+        } catch (IOException e) {
+            System.out.println("Не удалось открыть журнал оповещений " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void accept(BudgetAlert alert) {
+        try {
+            writer.append(alert.time().toString()).append('\t').append(alert.login()).append('\t')
+                    .append(alert.message()).append('\n');
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Не удалось записать оповещение в " + path + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
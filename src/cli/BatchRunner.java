@@ -0,0 +1,139 @@
+package cli;
+
+import service.AuthService;
+import service.PersistenceService;
+import service.WalletService;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Пакетный режим: выполняет файл команд без диалога, по одной команде на строку.
+ * Пустые строки и строки, начинающиеся с #, пропускаются. Ошибка в строке не прерывает выполнение —
+ * номера таких строк выводятся в конце. Вывод буферизуется, а данные пишутся на диск
+ * только в контрольных точках и по завершении, а не после каждой команды.
+ */
+public class BatchRunner {
+
+    public static final int DEFAULT_CHECKPOINT = 100_000;
+
+    private static final int READ_BUFFER = 1 << 20;
+    private static final int WRITE_BUFFER = 1 << 16;
+    private static final int MAX_REPORTED_LINES = 100;
+
+    /**
+     * @param failedLines номера первых строк с ошибками, не больше {@value #MAX_REPORTED_LINES}
+     */
+    public record Result(long commands, long failed, List<Long> failedLines, long millis) {}
+
+    private final Path script;
+    private final Path output;
+    private final int checkpointEvery;
+
+    /**
+     * @param output файл для вывода команд или null, чтобы писать в стандартный вывод
+     * @param checkpointEvery через сколько команд записывать изменения на диск; 0 — только в конце
+     */
+    public BatchRunner(Path script, Path output, int checkpointEvery) {
+        this.script = script;
+        this.output = output;
+        this.checkpointEvery = checkpointEvery;
+    }
+
+    public Result run() throws IOException {
+        // Регистрации не ждут fsync таблицы пользователей: она записывается в контрольных точках вместе с кошельками.
+        var authService = new AuthService(Path.of(""), false);
+        var persistenceService = new PersistenceService();
+        persistenceService.deferWrites();
+        var walletService = new WalletService(persistenceService, authService);
+        authService.loadUsers();
+        var shutdownSave = new Thread(() -> persistenceService.saveAll(authService, walletService));
+        Runtime.getRuntime().addShutdownHook(shutdownSave);
+
+        long start = System.nanoTime();
+        long commands = 0;
+        long failed = 0;
+        List<Long> failedLines = new ArrayList<>();
+
+        try (var in = new BufferedReader(Channels.newReader(FileChannel.open(script), StandardCharsets.UTF_8), READ_BUFFER);
+             var out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(outputStream(), StandardCharsets.UTF_8), WRITE_BUFFER))) {
+            var processor = new CommandProcessor(authService, persistenceService, walletService, out, true);
+            long lineNo = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                boolean more = processor.execute(line);
+                commands++;
+                if (processor.lastCommandFailed()) {
+                    failed++;
+                    if (failedLines.size() < MAX_REPORTED_LINES) failedLines.add(lineNo);
+                }
+                if (!more) break;
+                if (checkpointEvery > 0 && commands % checkpointEvery == 0) {
+                    persistenceService.saveAll(authService, walletService);
+                }
+            }
+            persistenceService.saveAll(authService, walletService);
+            awaitAlerts(walletService);
+            processor.close();
+        } finally {
+            Runtime.getRuntime().removeShutdownHook(shutdownSave);
+        }
+        return new Result(commands, failed, failedLines, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private OutputStream outputStream() throws IOException {
+        // Стандартный вывод открывается напрямую, минуя синхронизированный System.out с автосбросом.
+        if (output == null) {
+            return new FileOutputStream(FileDescriptor.out) {
+                @Override
+                public void close() throws IOException { flush(); }
+            };
+        }
+        return Files.newOutputStream(output);
+    }
+
+    private static void awaitAlerts(WalletService walletService) {
+        try {
+            walletService.alerts().awaitIdle(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void printSummary(Result r) {
+        // Сводка идёт в поток ошибок, чтобы не смешиваться с выводом команд.
+        var err = System.err;
+        long rate = r.millis() > 0 ? r.commands() * 1000 / r.millis() : r.commands();
+        err.println("Выполнено команд: " + r.commands() + ", время: " + r.millis() + " мс, скорость: " + rate + " команд/с");
+        if (r.failed() > 0) {
+            err.println("Команд с ошибками: " + r.failed() + " (строки: " + joinLines(r.failedLines())
+                    + (r.failed() > r.failedLines().size() ? ", ..." : "") + ")");
+        }
+    }
+
+    private static String joinLines(List<Long> lines) {
+        var sb = new StringBuilder();
+        for (var n : lines) {
+            if (!sb.isEmpty()) sb.append(", ");
+            sb.append(n);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,687 @@
+package cli;
+
+import analytics.AnalyticsService;
+import analytics.GlobalReport;
+import budget.AlertSink;
+import budget.ConsoleAlertSink;
+import exception.FinanceAppException;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import metrics.Timer;
+import model.BudgetPeriod;
+import model.CategoryTotals;
+import model.DateRange;
+import model.Money;
+import model.RecurringRule;
+import model.Schedule;
+import model.TransactionType;
+import model.User;
+import report.ReportFormat;
+import service.AuthService;
+import service.ImportService;
+import service.PersistenceService;
+import service.TransferSettlement;
+import service.WalletService;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Обработчик команд одного сеанса. Сервисы общие для всех сеансов, вывод и вошедший пользователь — свои.
+ */
+public class CommandProcessor {
+
+    private static final List<String> COMMANDS = List.of("help", "register", "login", "logout", "create-category",
+            "set-budget", "add-income", "add-expense", "add-recurring", "list-recurring", "remove-recurring", "transfer", "settle", "show-summary", "show-category", "search", "export", "import",
+            "stats", "analytics", "save", "exit");
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    static {
+        Metrics.registerCommands(COMMANDS);
+    }
+
+    private final AuthService authService;
+    private final PersistenceService persistenceService;
+    private final WalletService walletService;
+    private final PrintWriter out;
+    private final boolean localFiles;
+    private final UserSession session;
+    private AlertSink alertSink;
+    private AnalyticsService analytics;
+    private boolean lastFailed;
+    // Команда отклонена без исключения: неверные аргументы, нет входа и т. п.
+    private boolean rejected;
+
+    /**
+     * @param localFiles разрешены ли команды, работающие с файлами на стороне приложения (в сетевом режиме — нет)
+     */
+    public CommandProcessor(AuthService authService, PersistenceService persistenceService, WalletService walletService,
+                            PrintWriter out, boolean localFiles) {
+        this.authService = authService;
+        this.persistenceService = persistenceService;
+        this.walletService = walletService;
+        this.out = out;
+        this.localFiles = localFiles;
+        this.session = new UserSession();
+    }
+
+    /**
+     * Завершает сеанс пользователя, если он вошёл: его кошелёк снова может быть вытеснен из памяти,
+     * а оповещения о бюджете больше не выводятся.
+     */
+    public void close() {
+        if (session.user == null) return;
+        walletService.alerts().unsubscribe(alertSink);
+        alertSink = null;
+        walletService.closeSession(session.getLogin());
+        session.logout();
+    }
+
+    /**
+     * Завершилась ли последняя команда ошибкой, включая неверные аргументы.
+     */
+    public boolean lastCommandFailed() { return lastFailed; }
+
+    public String prompt() {
+        return session.user == null ? "> " : session.getLogin() + "> ";
+    }
+
+    /**
+     * Выполняет одну строку команды. Возвращает false, если сеанс нужно завершить (команда exit).
+     */
+    public boolean execute(String line) {
+        var parts = splitArgs(line);
+        if (parts.isEmpty()) return true;
+        var cmd = parts.get(0).toLowerCase(Locale.ROOT);
+        var timer = Metrics.command(cmd);
+        long start = System.nanoTime();
+        boolean failed = false;
+        rejected = false;
+
+        try {
+            switch (cmd) {
+                case "help" -> printHelp();
+
+                case "register" -> {
+                    if (parts.size() < 3) {
+                        reject("Пример: register <логин> <пароль>");
+                        break;
+                    }
+                    var login = parts.get(1);
+                    var pass = parts.get(2);
+                    authService.register(login, pass);
+                    persistenceService.commit(authService, walletService);
+                    println("Пользователь зарегистрирован: " + login);
+                }
+
+                case "login" -> {
+                    if (parts.size() < 3) {
+                        reject("Использование: login <логин> <пароль>");
+                        break;
+                    }
+                    var login = parts.get(1);
+                    var pass = parts.get(2);
+                    var user = authService.authenticate(login, pass);
+                    walletService.openSession(user.getLogin());
+                    close();
+                    session.login(user);
+                    alertSink = new ConsoleAlertSink(out, user.getLogin());
+                    walletService.alerts().subscribe(alertSink);
+                    println("Вы вошли как: " + login);
+                }
+
+                case "logout" -> {
+                    close();
+                    println("Вы вышли из системы.");
+                }
+
+                case "create-category" -> {
+                    if (!requireLogin()) break;
+                    if (parts.size() < 2) {
+                        reject("Использование: create-category <название>");
+                        break;
+                    }
+                    var cat = parts.get(1);
+                    walletService.createCategory(session.getLogin(), cat);
+                    println("Категория создана: " + cat);
+                }
+
+                case "set-budget" -> {
+                    if (!requireLogin()) break;
+                    var options = new HashMap<String, String>();
+                    var args = splitOptions(parts, options);
+                    if (args.size() < 3) {
+                        reject("Использование: set-budget <категория> <сумма> [--period all|week|month|quarter|year] [--alerts 50,80,100]");
+                        break;
+                    }
+                    var cat = args.get(1);
+                    var amount = parseMoney(args.get(2));
+                    if (amount == null) { reject("Некорректная сумма."); break; }
+                    var period = BudgetPeriod.parse(options.getOrDefault("period", "all"));
+                    if (period == null) { reject("Некорректный период бюджета."); break; }
+                    var thresholds = options.containsKey("alerts") ? parsePercents(options.get("alerts")) : null;
+                    if (options.containsKey("alerts") && thresholds == null) { reject("Некорректные пороги оповещений."); break; }
+                    walletService.setBudget(session.getLogin(), cat, amount, period, thresholds);
+                    println("Бюджет установлен: " + cat + " = " + amount
+                            + (period == BudgetPeriod.ALL ? "" : " " + period.getTitle()));
+                }
+
+                case "add-income" -> {
+                    if (!requireLogin()) break;
+                    if (parts.size() < 3) {
+                        reject("Использование: add-income <сумма> <категория> [описание]");
+                        break;
+                    }
+                    var amount = parseMoney(parts.get(1));
+                    if (amount == null) { reject("Некорректная сумма."); break; }
+                    var cat = parts.get(2);
+                    var desc = parts.size() >= 4 ? parts.get(3) : "";
+                    walletService.addTransaction(session.getLogin(), TransactionType.INCOME, amount, cat, desc);
+                    persistenceService.commit(authService, walletService);
+                    println("Доход добавлен.");
+                }
+
+                case "add-expense" -> {
+                    if (!requireLogin()) break;
+                    if (parts.size() < 3) {
+                        reject("Использование: add-expense <сумма> <категория> [описание]");
+                        break;
+                    }
+                    var amount = parseMoney(parts.get(1));
+                    if (amount == null) { reject("Некорректная сумма."); break; }
+                    var cat = parts.get(2);
+                    var desc = parts.size() >= 4 ? parts.get(3) : "";
+                    walletService.addTransaction(session.getLogin(), TransactionType.EXPENSE, amount, cat, desc);
+                    persistenceService.commit(authService, walletService);
+                    println("Расход добавлен.");
+                }
+
+                case "add-recurring" -> {
+                    if (!requireLogin()) break;
+                    var options = new HashMap<String, String>();
+                    var args = splitOptions(parts, options);
+                    if (args.size() < 5) {
+                        reject("Использование: add-recurring income|expense <сумма> <категория> <расписание> [описание] [--start дата]");
+                        break;
+                    }
+                    var type = switch (args.get(1).toLowerCase(Locale.ROOT)) {
+                        case "income" -> TransactionType.INCOME;
+                        case "expense" -> TransactionType.EXPENSE;
+                        default -> null;
+                    };
+                    if (type == null) { reject("Тип операции: income или expense."); break; }
+                    var amount = parseMoney(args.get(2));
+                    if (amount == null) { reject("Некорректная сумма."); break; }
+                    Schedule schedule;
+                    try {
+                        schedule = Schedule.parse(args.get(4));
+                    } catch (IllegalArgumentException e) {
+                        reject(e.getMessage());
+                        break;
+                    }
+                    var from = options.containsKey("start") ? parseStart(options.get("start")) : null;
+                    var desc = args.size() >= 6 ? args.get(5) : "";
+                    var rule = walletService.addRecurring(session.getLogin(), type, amount, args.get(3), desc, schedule, from);
+                    persistenceService.commit(authService, walletService);
+                    println("Регулярная операция №" + rule.id() + " добавлена, следующая: " + formatDue(rule));
+                }
+
+                case "list-recurring" -> {
+                    if (!requireLogin()) break;
+                    var rules = walletService.recurringRules(session.getLogin());
+                    if (rules.isEmpty()) println("Регулярных операций нет.");
+                    for (var r : rules) {
+                        println("  №" + r.id() + " " + r.type().name() + " " + r.amount() + " (" + r.category() + ") "
+                                + (r.description().isEmpty() ? "" : r.description() + " ") + "[" + r.schedule() + "], следующая: " + formatDue(r));
+                    }
+                }
+
+                case "remove-recurring" -> {
+                    if (!requireLogin()) break;
+                    if (parts.size() < 2) {
+                        reject("Использование: remove-recurring <номер>");
+                        break;
+                    }
+                    long id;
+                    try {
+                        id = Long.parseLong(parts.get(1));
+                    } catch (NumberFormatException e) {
+                        reject("Некорректный номер: " + parts.get(1));
+                        break;
+                    }
+                    if (!walletService.removeRecurring(session.getLogin(), id)) {
+                        reject("Регулярная операция не найдена: " + id);
+                        break;
+                    }
+                    persistenceService.commit(authService, walletService);
+                    println("Регулярная операция №" + id + " удалена.");
+                }
+
+                case "transfer" -> {
+                    if (!requireLogin()) break;
+                    var options = new HashMap<String, String>();
+                    var args = splitOptions(parts, options);
+                    if (args.size() < 3) {
+                        reject("Использование: transfer <кому> <сумма> [описание] [--key ключ]");
+                        break;
+                    }
+                    var to = args.get(1);
+                    var amount = parseMoney(args.get(2));
+                    if (amount == null) { reject("Некорректная сумма."); break; }
+                    var desc = args.size() >= 4 ? args.get(3) : "";
+                    var key = options.get("key");
+                    if (key != null) {
+                        // Перевод с ключом рассчитывается пакетом; пакет фиксирует изменения сам.
+                        var status = walletService.submitTransfer(key, session.getLogin(), to, amount, desc);
+                        println(status == TransferSettlement.Status.DUPLICATE
+                                ? "Перевод с ключом " + key + " уже принят."
+                                : "Перевод пользователю " + to + " принят к расчёту.");
+                        break;
+                    }
+                    walletService.transfer(session.getLogin(), to, amount, desc);
+                    persistenceService.commit(authService, walletService);
+                    println("Перевод выполнен пользователю " + to);
+                }
+
+                case "settle" -> {
+                    if (!requireLogin()) break;
+                    var batches = walletService.settlePending();
+                    persistenceService.commit(authService, walletService);
+                    printSettlement(batches);
+                }
+
+                case "show-summary" -> {
+                    if (!requireLogin()) break;
+                    var options = new HashMap<String, String>();
+                    splitOptions(parts, options);
+                    var range = parseRange(options);
+                    walletService.writeReport(session.getLogin(), range, ReportFormat.TEXT.open(out));
+                    println("");
+                }
+
+                case "show-category" -> {
+                    if (!requireLogin()) break;
+                    var options = new HashMap<String, String>();
+                    var args = splitOptions(parts, options);
+                    if (args.size() < 2) {
+                        reject("Использование: show-category <категория...> [--period период] [--from дата] [--to дата]");
+                        break;
+                    }
+                    var cats = args.subList(1, args.size());
+                    var sums = walletService.sumByCategories(session.getLogin(), cats, parseRange(options));
+                    if (sums.isEmpty()) println("Категории не найдены.");
+                    else {
+                        println("Сводка по категориям:");
+                        for (int i = 0; i < sums.size(); i++) println("  " + sums.name(i) + ": " + Money.format(sums.minor(i)));
+                    }
+                }
+
+                case "search" -> {
+                    if (!requireLogin()) break;
+                    var options = new HashMap<String, String>();
+                    var args = splitOptions(parts, options);
+                    if (args.size() < 2) {
+                        reject("Использование: search <слова...> [--limit N]");
+                        break;
+                    }
+                    int limit;
+                    try {
+                        limit = Integer.parseInt(options.getOrDefault("limit", "20"));
+                    } catch (NumberFormatException e) {
+                        reject("Некорректное число строк: " + options.get("limit"));
+                        break;
+                    }
+                    if (limit < 1) {
+                        reject("Число строк должно быть положительным: " + limit);
+                        break;
+                    }
+                    var result = walletService.search(session.getLogin(), String.join(" ", args.subList(1, args.size())), limit);
+                    println("Найдено: " + result.total() + (result.total() > result.transactions().size()
+                            ? " (показаны последние " + result.transactions().size() + ")" : ""));
+                    for (var t : result.transactions()) {
+                        println("  [" + t.time().format(TIME_FORMAT) + "] " + t.type().name() + " " + t.amount()
+                                + " (" + t.category() + ") " + t.description());
+                    }
+                }
+
+                case "export" -> {
+                    if (!requireLogin()) break;
+                    if (!localFiles) {
+                        reject("Экспорт в файл недоступен в сетевом режиме.");
+                        break;
+                    }
+                    var options = new HashMap<String, String>();
+                    var args = splitOptions(parts, options);
+                    if (args.size() < 2) {
+                        reject("Использование: export <путь_к_файлу> [--format text|csv|json] [--from ГГГГ-ММ-ДД] [--to ГГГГ-ММ-ДД]");
+                        break;
+                    }
+                    var path = args.get(1);
+                    var format = ReportFormat.byName(options.getOrDefault("format", "text"));
+                    var range = parseRange(options);
+                    try (var writer = Files.newBufferedWriter(new File(path).toPath())) {
+                        walletService.writeReport(session.getLogin(), range, format.open(writer));
+                    }
+                    println("Отчёт сохранён в файл: " + path);
+                }
+
+                case "import" -> {
+                    if (!requireLogin()) break;
+                    if (!localFiles) {
+                        reject("Импорт из файла недоступен в сетевом режиме.");
+                        break;
+                    }
+                    if (parts.size() < 2) {
+                        reject("Использование: import <файл.csv>  (строки: дата,тип,сумма,категория[,описание])");
+                        break;
+                    }
+                    var result = new ImportService(walletService, persistenceService)
+                            .importCsv(session.getLogin(), new File(parts.get(1)).toPath(), this::println);
+                    println("Импортировано: " + result.imported() + ", время: " + result.millis() + " мс, скорость: "
+                            + result.rowsPerSecond() + " строк/с");
+                    if (result.malformed() > 0) {
+                        println("Не разобрано строк: " + result.malformed() + " (номера: " + result.malformedLines()
+                                + (result.malformed() > result.malformedLines().size() ? " …" : "") + ")");
+                    }
+                    if (result.unknownCategory() > 0) {
+                        println("Отклонено расходов по несуществующим категориям: " + result.unknownCategory());
+                    }
+                }
+
+                case "stats" -> printStats();
+
+                case "analytics" -> {
+                    if (!requireLogin()) break;
+                    if (!authService.isAdmin(session.getLogin())) {
+                        reject("Сводка по всем пользователям доступна только администратору.");
+                        break;
+                    }
+                    if (!localFiles) {
+                        reject("Сводка по всем пользователям недоступна в сетевом режиме.");
+                        break;
+                    }
+                    var options = new HashMap<String, String>();
+                    splitOptions(parts, options);
+                    int top;
+                    try {
+                        top = Integer.parseInt(options.getOrDefault("top", "10"));
+                    } catch (NumberFormatException e) {
+                        reject("Некорректное число строк: " + options.get("top"));
+                        break;
+                    }
+                    if (analytics == null) analytics = new AnalyticsService(authService, walletService);
+                    printAnalytics(analytics.report(parseRange(options), top));
+                }
+
+                case "save" -> {
+                    persistenceService.saveAll(authService, walletService);
+                    println("Все данные сохранены.");
+                }
+
+                case "exit" -> {
+                    println("Сохранение данных и выход...");
+                    persistenceService.saveAll(authService, walletService);
+                    println("До свидания!");
+                    return false;
+                }
+
+                default -> reject("Неизвестная команда. Введите «help» для списка.");
+            }
+
+        } catch (FinanceAppException e) {
+            failed = true;
+            println("Ошибка: " + e.getMessage());
+        } catch (Exception e) {
+            failed = true;
+            println("Неожиданная ошибка: " + e.getMessage());
+            e.printStackTrace(out);
+        } finally {
+            if (rejected) failed = true;
+            lastFailed = failed;
+            timer.record(start, 0, failed);
+        }
+        return true;
+    }
+
+    private void printStats() {
+        println("=== Статистика ===");
+        println("Команды: число, ошибки, среднее / p50 / p99 / p99.9 / макс, мс");
+        var commands = Metrics.commands();
+        if (commands.isEmpty()) println("  (нет)");
+        for (var t : commands) printTimer(t);
+
+        println("Операции: число, ошибки, среднее / p50 / p99 / p99.9 / макс, мс");
+        for (var t : Metrics.operations()) {
+            printTimer(t);
+            if (t.bytes() > 0) println("    байт: " + t.bytes());
+        }
+
+        var cache = walletService.cacheStats();
+        println("Пользователей: " + authService.userCount());
+        println("Кошельков в памяти: " + cache.wallets() + " (попаданий: " + cache.hits() + ", промахов: " + cache.misses()
+                + ", вытеснено: " + cache.evictions() + ", оценка объёма: " + cache.estimatedBytes() / 1024 + " КБ)");
+        var summaries = walletService.summaryStats();
+        long lookups = summaries.hits() + summaries.misses();
+        println("Кэш разделов сводки: " + summaries.entries() + " (попаданий: " + summaries.hits() + ", промахов: " + summaries.misses()
+                + (lookups == 0 ? "" : String.format(Locale.ROOT, ", доля попаданий: %.1f%%", 100.0 * summaries.hits() / lookups))
+                + ", вытеснено: " + summaries.evictions() + ", оценка объёма: " + summaries.estimatedBytes() / 1024 + " КБ)");
+        println("Транзакций в загруженных кошельках: " + walletService.loadedTransactionCount()
+                + ", добавлено с запуска: " + Metrics.transactionsAdded());
+    }
+
+    private void printAnalytics(GlobalReport r) {
+        println("=== Сводка по всем пользователям ===");
+        if (!r.range().isAll()) println("Период: " + r.range());
+        println("Пользователей: " + r.users() + ", прочитано кошельков: " + r.wallets() + ", транзакций: " + r.transactions()
+                + ", время: " + r.millis() + " мс");
+        println("Общий доход: " + r.income() + ", общий расход: " + r.expense());
+        println("Доходы по категориям:");
+        printTotals(r.incomeByCategory());
+        println("Расходы по категориям:");
+        printTotals(r.expenseByCategory());
+        println("Наибольшие расходы:");
+        if (r.topSpenders().isEmpty()) println("  (нет)");
+        for (var s : r.topSpenders()) println("  " + s.login() + ": " + s.expense());
+        println("Превышений бюджета: " + r.overBudget());
+        for (var b : r.topOverBudget()) {
+            println("  " + b.login() + " / " + b.category() + ": " + b.spent() + " из " + b.budget()
+                    + (b.period() == BudgetPeriod.ALL ? "" : " " + b.period().getTitle()));
+        }
+        println("Переводов: " + r.transfers() + " на сумму " + r.transferVolume());
+        for (var f : r.topTransfers()) println("  " + f.from() + " → " + f.to() + ": " + f.volume() + " (" + f.count() + ")");
+    }
+
+    private void printSettlement(List<TransferSettlement.Batch> batches) {
+        if (batches.isEmpty()) {
+            println("Нет переводов, ожидающих расчёта.");
+            return;
+        }
+        int transfers = 0, pairs = 0, wallets = 0, failed = 0;
+        for (var b : batches) {
+            transfers += b.transfers();
+            pairs += b.netFlows().size();
+            wallets += b.wallets();
+            failed += b.failed().size();
+        }
+        println("Рассчитано переводов: " + transfers + ", пакетов: " + batches.size() + ", кошельков: " + wallets
+                + ", чистых потоков после взаимозачёта: " + pairs + (failed > 0 ? ", отклонено: " + failed : ""));
+        var login = session.user == null ? null : session.getLogin();
+        if (login == null) return;
+        for (var b : batches) {
+            for (var f : b.netFlows()) {
+                if (f.from().equals(login) || f.to().equals(login)) {
+                    println("  " + f.from() + " → " + f.to() + ": " + f.amount() + " (переводов: " + f.transfers() + ")");
+                }
+            }
+            for (var f : b.failed()) {
+                if (f.from().equals(login)) println("  Отклонён перевод " + f.key() + " → " + f.to() + ": " + f.amount() + ". " + f.reason());
+            }
+        }
+    }
+
+    private void printTotals(CategoryTotals sums) {
+        if (sums.isEmpty()) println("  (нет)");
+        for (int i = 0; i < sums.size(); i++) println("  " + sums.name(i) + ": " + Money.format(sums.minor(i)));
+    }
+
+    private void printTimer(Timer t) {
+        LatencyHistogram h = t.latency();
+        println("  " + t.getName() + ": " + h.count() + ", " + t.failures() + ", " + millis(h.mean()) + " / "
+                + millis(h.percentile(0.5)) + " / " + millis(h.percentile(0.99)) + " / " + millis(h.percentile(0.999))
+                + " / " + millis(h.max()));
+    }
+
+    private static String millis(double nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000);
+    }
+
+    private void printHelp() {
+        println("""
+                Команды:
+                  register <логин> <пароль>         — регистрация пользователя
+                  login <логин> <пароль>            — вход в систему
+                  logout                            — выход
+                  create-category <название>         — создать категорию
+                  set-budget <категория> <сумма> [--period week|month|quarter|year] [--alerts 50,80,100]
+                                                    — установить бюджет и пороги оповещений, %
+                  add-income <сумма> <категория> [описание] — добавить доход
+                  add-expense <сумма> <категория> [описание] — добавить расход
+                  add-recurring income|expense <сумма> <категория> <расписание> [описание] [--start дата]
+                                                    — регулярная операция; расписание: daily, weekly, monthly
+                                                      или cron "мин час день месяц день_недели"; дата: ГГГГ-ММ-ДД[ ЧЧ:ММ]
+                  list-recurring                    — показать регулярные операции
+                  remove-recurring <номер>          — удалить регулярную операцию
+                  transfer <логин> <сумма> [описание] [--key ключ] — перевести средства; с ключом — в очередь пакетного расчёта
+                  settle                            — рассчитать принятые переводы сейчас
+                  show-summary [--period период] [--from дата] [--to дата] — показать сводку
+                  show-category <категория...> [--period период] — показать категории
+                  search <слова...> [--limit N]     — найти транзакции по описанию и категории (по началу слов)
+                  Период: week, month, quarter, year, 90d, 2025-Q3, 2025-07, 2025
+                  export <файл> [--format text|csv|json] [--from дата] [--to дата] — экспорт отчёта
+                  import <файл.csv>                 — импорт выписки (дата,тип,сумма,категория[,описание])
+                  stats                             — статистика времени выполнения и объёмов
+                  analytics [--period период] [--top N] — сводка по всем пользователям (администратору, только локально)
+                  save                              — сохранить данные
+                  exit                              — сохранить и выйти
+                  help                              — показать справку
+                """);
+    }
+
+    public static List<String> splitArgs(String line) {
+        List<String> parts = new java.util.ArrayList<>();
+        var sb = new StringBuilder();
+        boolean inQuote = false;
+        
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                inQuote = !inQuote;
+                continue;
+            }
+            if (Character.isWhitespace(c) && !inQuote) {
+                if (!sb.isEmpty()) {
+                    parts.add(sb.toString());
+                    sb.setLength(0);
+                }
+            } else sb.append(c);
+        }
+        if (!sb.isEmpty()) parts.add(sb.toString());
+        return parts;
+    }
+
+    /**
+     * Отделяет параметры вида --имя значение от позиционных аргументов.
+     */
+    static List<String> splitOptions(List<String> parts, Map<String, String> options) {
+        List<String> positional = new java.util.ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            var p = parts.get(i);
+            if (p.startsWith("--") && p.length() > 2 && i + 1 < parts.size()) {
+                options.put(p.substring(2).toLowerCase(Locale.ROOT), parts.get(++i));
+            } else positional.add(p);
+        }
+        return positional;
+    }
+
+    /**
+     * Период из параметров: --period (month, 90d, 2025-Q3, ...) или --from/--to.
+     */
+    private DateRange parseRange(Map<String, String> options) {
+        try {
+            if (options.containsKey("period")) return DateRange.parse(options.get("period"), LocalDate.now(walletService.getClock()));
+            var from = options.containsKey("from") ? LocalDate.parse(options.get("from")) : null;
+            var to = options.containsKey("to") ? LocalDate.parse(options.get("to")) : null;
+            return new DateRange(from, to);
+        } catch (DateTimeParseException e) {
+            throw new FinanceAppException("Некорректная дата, ожидается ГГГГ-ММ-ДД.");
+        } catch (IllegalArgumentException e) {
+            throw new FinanceAppException(e.getMessage());
+        }
+    }
+
+    /**
+     * Начало расписания: ГГГГ-ММ-ДД (с полуночи) или ГГГГ-ММ-ДД ЧЧ:ММ.
+     */
+    private static LocalDateTime parseStart(String s) {
+        try {
+            return s.length() <= 10 ? LocalDate.parse(s).atStartOfDay() : LocalDateTime.parse(s.replace(' ', 'T'));
+        } catch (DateTimeParseException e) {
+            throw new FinanceAppException("Некорректная дата начала, ожидается ГГГГ-ММ-ДД или ГГГГ-ММ-ДД ЧЧ:ММ.");
+        }
+    }
+
+    private static String formatDue(RecurringRule r) {
+        return r.nextDue() == null ? "не будет" : r.nextDue().format(TIME_FORMAT);
+    }
+
+    private Money parseMoney(String s) {
+        try { return Money.parse(s); } catch (NumberFormatException e) { return null; }
+    }
+
+    /**
+     * Пороги вида 50,80,100 или null, если список некорректен.
+     */
+    private static int[] parsePercents(String s) {
+        try {
+            var items = s.split(",");
+            var out = new int[items.length];
+            for (int i = 0; i < items.length; i++) out[i] = Integer.parseInt(items[i].trim().replace("%", ""));
+            return out;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void println(Object o) { out.println(o); }
+
+    private void reject(String message) {
+        rejected = true;
+        println(message);
+    }
+
+    private boolean requireLogin() {
+        if (session.user != null) return true;
+        reject("Сначала войдите в систему (команда: login).");
+        return false;
+    }
+
+    private static class UserSession {
+        private User user;
+
+        void login(User u) { this.user = u; }
+        void logout() { this.user = null; }
+        String getLogin() { return user.getLogin(); }
+    }
+}
+
+
@@ -0,0 +1,114 @@
+package cli;
+
+import budget.FileAlertSink;
+import metrics.Metrics;
+import service.AuthService;
+import service.PersistenceService;
+import service.WalletService;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Сетевой режим: тот же набор команд, что и в консоли, по TCP на локальном порту.
+ * Каждое подключение обслуживается своим виртуальным потоком со своим сеансом; сервисы общие.
+ * Когда открыто {@code maxConnections} подключений, новые не принимаются, пока не освободится место,
+ * и ожидают в очереди ядра.
+ */
+public class Server {
+
+    public static final int DEFAULT_PORT = 7070;
+    public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+
+    private static final int OUTPUT_BUFFER_SIZE = 8 * 1024;
+    private static final int IDLE_TIMEOUT_MS = 10 * 60 * 1000;
+
+    private final int port;
+    private final Semaphore permits;
+    private final AuthService authService = new AuthService();
+    private final PersistenceService persistenceService = new PersistenceService();
+    private final WalletService walletService = new WalletService(persistenceService, authService);
+
+    public Server(int port, int maxConnections) {
+        if (maxConnections <= 0) throw new IllegalArgumentException("Лимит подключений должен быть положительным.");
+        this.port = port;
+        this.permits = new Semaphore(maxConnections);
+        authService.loadUsers();
+        persistenceService.startWriteBehind(authService, walletService);
+        walletService.startSettlement();
+        walletService.startRecurring();
+        Metrics.registerGauges(authService::userCount, () -> walletService.cacheStats().wallets(),
+                walletService::loadedTransactionCount);
+        var alertLog = FileAlertSink.fromSystemProperties();
+        if (alertLog != null) walletService.alerts().subscribe(alertLog);
+    }
+
+    public void start() throws IOException {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> persistenceService.saveAll(authService, walletService)));
+
+        try (var server = new ServerSocket();
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            System.out.println("Сервер запущен на порту " + server.getLocalPort()
+                    + ", лимит подключений: " + permits.availablePermits());
+
+            while (!server.isClosed()) {
+                permits.acquireUninterruptibly();
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (IOException e) {
+                    permits.release();
+                    System.out.println("Ошибка при приёме подключения: " + e.getMessage());
+                    continue;
+                }
+                executor.submit(() -> serve(socket));
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             var out = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE))) {
+            socket.setSoTimeout(IDLE_TIMEOUT_MS);
+            var processor = new CommandProcessor(authService, persistenceService, walletService, out, false);
+            out.println("Приложение для учёта расходов и доходов");
+            out.println("Введите «help», чтобы посмотреть список доступных команд.");
+
+            try {
+                while (true) {
+                    out.print(processor.prompt());
+                    out.flush();
+                    var line = in.readLine();
+                    if (line == null) break;
+                    line = line.trim();
+                    if (line.isEmpty()) continue;
+                    if (!processor.execute(line)) break;
+                }
+                out.flush();
+            } finally {
+                processor.close();
+            }
+        } catch (SocketTimeoutException e) {
+            // клиент долго молчит — соединение закрывается
+        } catch (IOException e) {
+            System.out.println("Ошибка подключения: " + e.getMessage());
+        } finally {
+            permits.release();
+        }
+    }
+}
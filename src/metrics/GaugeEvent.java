@@ -0,0 +1,32 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Периодическое событие JFR с числом пользователей, загруженных кошельков и транзакций.
+ */
+@Name("finance.Gauges")
+@Label("Finance Gauges")
+@Category("Finance")
+@Description("Число пользователей, загруженных кошельков и транзакций")
+@Period("10 s")
+@StackTrace(false)
+public class GaugeEvent extends jdk.jfr.Event {
+
+    @Label("Users")
+    public long users;
+
+    @Label("Loaded Wallets")
+    public long loadedWallets;
+
+    @Label("Loaded Transactions")
+    public long loadedTransactions;
+
+    @Label("Transactions Added")
+    public long transactionsAdded;
+}
@@ -0,0 +1,74 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма задержек в наносекундах с логарифмически-линейными корзинами, как в HdrHistogram:
+ * каждая степень двойки делится на {@value #SUB_BUCKETS} равных корзин, относительная погрешность — не больше 1/16.
+ * Запись — несколько атомарных инкрементов без блокировок и без выделения памяти.
+ * Чтение не атомарно относительно записи: перцентили считаются по мгновенному срезу счётчиков.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 44; // ~4.9 часа; большие значения попадают в последнюю корзину
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        total.increment();
+        sum.add(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) m = max.get();
+    }
+
+    public long count() { return total.sum(); }
+    public long max() { return max.get(); }
+
+    public double mean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Верхняя граница корзины, в которую попадает доля {@code p} (0..1) записанных значений.
+     */
+    public long percentile(double p) {
+        long n = 0;
+        var snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) n += snapshot[i] = counts.get(i);
+        if (n == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(upperBound(i), max());
+        }
+        return max();
+    }
+
+    static int bucket(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long base = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return base + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,89 @@
+package metrics;
+
+import jdk.jfr.FlightRecorder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Метрики приложения: измерители команд, операций с кошельками и записи на диск.
+ * Измерители создаются заранее, поэтому на горячем пути только поиск по имени команды и атомарные счётчики.
+ * Показываются командой stats и публикуются событиями JFR ({@link OperationEvent}, {@link GaugeEvent}),
+ * например: java -XX:StartFlightRecording=filename=finance.jfr Main
+ */
+public final class Metrics {
+    private Metrics() {}
+
+    public static final String COMMAND = "command";
+    public static final String WALLET = "wallet";
+    public static final String PERSISTENCE = "persistence";
+
+    public static final Timer ADD_TRANSACTION = new Timer(WALLET, "addTransaction");
+    public static final Timer TRANSFER = new Timer(WALLET, "transfer");
+    public static final Timer SETTLEMENT = new Timer(WALLET, "settleBatch");
+    public static final Timer RECURRING = new Timer(WALLET, "postRecurring");
+    public static final Timer REPORT = new Timer(WALLET, "buildSummary");
+    public static final Timer SEARCH = new Timer(WALLET, "search");
+    public static final Timer WALLET_SAVE = new Timer(PERSISTENCE, "saveWallet");
+    public static final Timer WALLET_LOAD = new Timer(PERSISTENCE, "loadWallet");
+    public static final Timer JOURNAL_APPEND = new Timer(PERSISTENCE, "journalAppend");
+    public static final Timer SEGMENT_WRITE = new Timer(PERSISTENCE, "archiveSegment");
+    public static final Timer SEGMENT_LOAD = new Timer(PERSISTENCE, "loadSegment");
+
+    private static final List<Timer> OPERATIONS = List.of(ADD_TRANSACTION, TRANSFER, SETTLEMENT, RECURRING, REPORT, SEARCH, WALLET_SAVE, WALLET_LOAD,
+            JOURNAL_APPEND, SEGMENT_WRITE, SEGMENT_LOAD);
+
+    private static final Map<String, Timer> COMMANDS = new ConcurrentHashMap<>();
+    // Неизвестные команды собираются в один измеритель, чтобы случайный ввод не раздувал таблицу.
+    private static final Timer OTHER_COMMAND = new Timer(COMMAND, "(другие)");
+    private static final LongAdder TRANSACTIONS_ADDED = new LongAdder();
+    private static volatile boolean gaugesRegistered;
+
+    public static void registerCommands(Collection<String> names) {
+        for (var name : names) COMMANDS.computeIfAbsent(name, n -> new Timer(COMMAND, n));
+    }
+
+    public static Timer command(String name) {
+        var t = COMMANDS.get(name);
+        return t != null ? t : OTHER_COMMAND;
+    }
+
+    /**
+     * Измерители команд, которые хотя бы раз выполнялись, по имени.
+     */
+    public static List<Timer> commands() {
+        List<Timer> out = new ArrayList<>();
+        for (var t : COMMANDS.values()) if (t.latency().count() > 0) out.add(t);
+        out.sort(Comparator.comparing(Timer::getName));
+        if (OTHER_COMMAND.latency().count() > 0) out.add(OTHER_COMMAND);
+        return out;
+    }
+
+    public static List<Timer> operations() { return OPERATIONS; }
+
+    public static void transactionsAdded(long n) { TRANSACTIONS_ADDED.add(n); }
+    public static long transactionsAdded() { return TRANSACTIONS_ADDED.sum(); }
+
+    /**
+     * Подключает периодическое событие JFR с числом пользователей, загруженных кошельков и транзакций.
+     * Повторные вызовы ничего не делают.
+     */
+    public static synchronized void registerGauges(LongSupplier users, LongSupplier loadedWallets, LongSupplier loadedTransactions) {
+        if (gaugesRegistered) return;
+        gaugesRegistered = true;
+        FlightRecorder.addPeriodicEvent(GaugeEvent.class, () -> {
+            var event = new GaugeEvent();
+            event.users = users.getAsLong();
+            event.loadedWallets = loadedWallets.getAsLong();
+            event.loadedTransactions = loadedTransactions.getAsLong();
+            event.transactionsAdded = transactionsAdded();
+            event.commit();
+        });
+    }
+}
@@ -0,0 +1,39 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Событие JFR для одной измеренной операции: команды, операции с кошельком или записи на диск.
+ * Длительность передаётся полем {@code latency}, потому что событие создаётся уже после измерения
+ * и только если запись JFR включена.
+ */
+@Name("finance.Operation")
+@Label("Finance Operation")
+@Category("Finance")
+@Description("Команда или внутренняя операция приложения учёта финансов")
+@StackTrace(false)
+public class OperationEvent extends jdk.jfr.Event {
+
+    @Label("Group")
+    public String group;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    public long latency;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Failed")
+    public boolean failed;
+}
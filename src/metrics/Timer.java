@@ -0,0 +1,55 @@
+package metrics;
+
+import jdk.jfr.EventType;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Измеритель одной операции: гистограмма задержек, число ошибок и объём данных.
+ * Если запись JFR включена, каждое измерение дополнительно публикуется как {@link OperationEvent};
+ * иначе запись не выделяет памяти.
+ */
+public final class Timer {
+
+    private static final EventType EVENT = EventType.getEventType(OperationEvent.class);
+
+    private final String group;
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    Timer(String group, String name) {
+        this.group = group;
+        this.name = name;
+    }
+
+    public String getName() { return name; }
+    public LatencyHistogram latency() { return latency; }
+    public long failures() { return failures.sum(); }
+    public long bytes() { return bytes.sum(); }
+
+    /**
+     * @param startNanos значение {@link System#nanoTime()} в начале операции
+     */
+    public void record(long startNanos) {
+        record(startNanos, 0, false);
+    }
+
+    public void record(long startNanos, long byteCount, boolean failed) {
+        long nanos = System.nanoTime() - startNanos;
+        latency.record(nanos);
+        if (failed) failures.increment();
+        if (byteCount > 0) bytes.add(byteCount);
+
+        if (EVENT.isEnabled()) {
+            var event = new OperationEvent();
+            event.group = group;
+            event.operation = name;
+            event.latency = nanos;
+            event.bytes = byteCount;
+            event.failed = failed;
+            event.commit();
+        }
+    }
+}
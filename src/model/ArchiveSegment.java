@@ -0,0 +1,215 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Архивный сегмент кошелька: неизменяемая часть старой истории, вынесенная в отдельный сжатый файл.
+ * В памяти всегда есть только сводка сегмента — число строк, границы по времени, итоги по типам и по категориям.
+ * Её хватает для итогов за всё время и за периоды, целиком покрывающие сегмент или не задевающие его.
+ * Сами строки читаются через {@link Loader} при первом запросе, которому они нужны (выгрузка транзакций,
+ * поиск, период, задевающий сегмент частично), и держатся вместе с индексами через {@link SoftReference}:
+ * сборщик мусора освобождает их при нехватке памяти, и следующий такой запрос читает сегмент заново.
+ * Поэтому полная выгрузка или поиск по всей истории не оставляют весь архив в памяти до выгрузки кошелька.
+ * Поиск сначала проверяет {@link WordFilter} из сводки и не читает сегменты, где слов запроса точно нет.
+ */
+public final class ArchiveSegment {
+
+    private static final int TYPES = TransactionType.values().length;
+
+    /**
+     * Читает строки сегмента из файла.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        TransactionStore load(ArchiveSegment segment) throws IOException;
+    }
+
+    private record Rows(TransactionStore store, TransactionIndex index, SearchIndex search) { }
+
+    private final long id;
+    private final int rows;
+    private final long firstMicros;
+    private final long lastMicros;
+    private final long[] totals;
+    private final Map<String, long[]> categoryTotals;
+    private final Loader loader;
+    private volatile SoftReference<Rows> loaded;
+    // Фильтр слов; у сегментов, записанных до его появления, строится при первом чтении строк.
+    private volatile WordFilter words;
+
+    /**
+     * @param totals         итоги в копейках по {@link TransactionType#ordinal()}
+     * @param categoryTotals итоги по категориям, массивы — по {@link TransactionType#ordinal()}
+     * @param words          фильтр слов строк сегмента; {@code null} — неизвестен, сегмент ищется всегда
+     */
+    public ArchiveSegment(long id, int rows, long firstMicros, long lastMicros, long[] totals,
+                          Map<String, long[]> categoryTotals, WordFilter words, Loader loader) {
+        this.id = id;
+        this.rows = rows;
+        this.firstMicros = firstMicros;
+        this.lastMicros = lastMicros;
+        this.totals = totals;
+        this.categoryTotals = categoryTotals;
+        this.words = words;
+        this.loader = loader;
+    }
+
+    /**
+     * Сводка по строкам хранилища: итоги по типам и категориям, границы по времени.
+     */
+    public static ArchiveSegment summarize(long id, TransactionStore store, Loader loader) {
+        var totals = new long[TYPES];
+        Map<String, long[]> byCategory = new HashMap<>();
+        long first = store.size() == 0 ? 0 : store.timeMicros(0);
+        long last = first;
+        var used = new BitSet(store.strings());
+        for (int i = 0; i < store.size(); i++) {
+            used.set(store.categoryId(i));
+            used.set(store.descriptionId(i));
+            int type = store.type(i).ordinal();
+            totals[type] += store.amountMinor(i);
+            byCategory.computeIfAbsent(store.category(i), c -> new long[TYPES])[type] += store.amountMinor(i);
+            last = Math.max(last, store.timeMicros(i));
+        }
+        List<String> texts = new ArrayList<>(used.cardinality());
+        for (int s = used.nextSetBit(0); s >= 0; s = used.nextSetBit(s + 1)) texts.add(store.string(s));
+        return new ArchiveSegment(id, store.size(), first, last, totals, byCategory, WordFilter.of(texts), loader);
+    }
+
+    public long id() { return id; }
+    public int rows() { return rows; }
+    public long firstMicros() { return firstMicros; }
+    public long lastMicros() { return lastMicros; }
+    public long total(TransactionType type) { return totals[type.ordinal()]; }
+    public Map<String, long[]> categoryTotals() { return categoryTotals; }
+    public WordFilter words() { return words; }
+
+    /**
+     * Строки сегмента сейчас в памяти (до первого запроса или после того, как их освободил сборщик мусора, — нет).
+     */
+    public boolean isLoaded() { return rowsInMemory() != null; }
+
+    Set<String> categories() { return categoryTotals.keySet(); }
+
+    long total(TransactionType type, DateRange range) {
+        if (!overlaps(range)) return 0;
+        if (covers(range)) return totals[type.ordinal()];
+        var r = load();
+        return r.index.total(type, r.index.lowerRow(range), r.index.upperRow(range));
+    }
+
+    long categoryTotal(String category, TransactionType type, DateRange range) {
+        if (!overlaps(range)) return 0;
+        if (covers(range)) {
+            var sums = categoryTotals.get(category);
+            return sums == null ? 0 : sums[type.ordinal()];
+        }
+        if (!categoryTotals.containsKey(category)) return 0;
+        var r = load();
+        return r.index.categoryTotal(category, type, r.index.lowerRow(range), r.index.upperRow(range));
+    }
+
+    int count(DateRange range) {
+        if (!overlaps(range)) return 0;
+        if (covers(range)) return rows;
+        var r = load();
+        return r.index.upperRow(range) - r.index.lowerRow(range);
+    }
+
+    void forEachRow(DateRange range, ObjIntConsumer<TransactionStore> action) {
+        if (!overlaps(range)) return;
+        var r = load();
+        for (int i = r.index.lowerRow(range), hi = r.index.upperRow(range); i < hi; i++) action.accept(r.store, i);
+    }
+
+    List<Transaction> transactions(DateRange range) {
+        if (!overlaps(range)) return List.of();
+        var r = load();
+        return r.store.asList().subList(r.index.lowerRow(range), r.index.upperRow(range));
+    }
+
+    /**
+     * Ищет строки сегмента по запросу {@link SearchIndex#search(String)} и добавляет в {@code out} найденные,
+     * начиная с последних, пока в нём меньше {@code limit} транзакций. Сегмент не читается, если фильтр слов
+     * показывает, что совпадений нет.
+     *
+     * @return сколько строк сегмента подходит под запрос
+     */
+    int search(String query, List<Transaction> out, int limit) {
+        var filter = words;
+        if (filter != null && !filter.mightContain(query)) return 0;
+        var r = load();
+        var found = r.search.search(query);
+        for (int i = found.length - 1; i >= 0 && out.size() < limit; i--) out.add(r.store.get(found[i]));
+        return found.length;
+    }
+
+    boolean overlaps(DateRange range) {
+        return (range.from() == null || !range.from().isAfter(day(lastMicros)))
+                && (range.to() == null || !range.to().isBefore(day(firstMicros)));
+    }
+
+    private boolean covers(DateRange range) {
+        return (range.from() == null || !range.from().isAfter(day(firstMicros)))
+                && (range.to() == null || !range.to().isBefore(day(lastMicros)));
+    }
+
+    /**
+     * Память под сводку и фильтр слов. Прочитанные строки не учитываются: их в любой момент может освободить
+     * сборщик мусора, и лимиты кэша кошельков на них не рассчитаны.
+     */
+    public long estimatedBytes() {
+        var filter = words;
+        return 128 + categoryTotals.size() * (64L + 8L * TYPES) + (filter == null ? 0 : filter.estimatedBytes());
+    }
+
+    private Rows rowsInMemory() {
+        var ref = loaded;
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Строки сегмента с индексами; читаются с диска при первом обращении и после того, как их освободил сборщик
+     * мусора. Сегмент неизменяем, поэтому читается под блокировкой чтения кошелька; параллельные читатели ждут
+     * одно чтение. Вызывающий держит результат в локальной переменной, пока работает со строками.
+     */
+    private Rows load() {
+        var r = rowsInMemory();
+        if (r != null) return r;
+        synchronized (this) {
+            r = rowsInMemory();
+            if (r != null) return r;
+            TransactionStore store;
+            try {
+                store = loader.load(this);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось прочитать архив кошелька: " + e.getMessage(), e);
+            }
+            if (store.size() != rows) throw new IllegalStateException("Архивный сегмент " + id + " повреждён.");
+            var index = new TransactionIndex();
+            for (int i = 0; i < store.size(); i++) index.add(store, i);
+            r = new Rows(store, index, SearchIndex.build(store));
+            if (words == null) {
+                List<String> texts = new ArrayList<>(store.strings());
+                for (int i = 0; i < store.strings(); i++) texts.add(store.string(i));
+                words = WordFilter.of(texts);
+            }
+            loaded = new SoftReference<>(r);
+            return r;
+        }
+    }
+
+    private static LocalDate day(long micros) {
+        return TransactionStore.fromEpochMicros(micros).toLocalDate();
+    }
+}
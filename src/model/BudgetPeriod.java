@@ -0,0 +1,51 @@
+package model;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Период, за который считается расход по бюджету категории.
+ */
+public enum BudgetPeriod {
+    ALL("за всё время"),
+    WEEK("за неделю"),
+    MONTH("за месяц"),
+    QUARTER("за квартал"),
+    YEAR("за год");
+
+    private final String title;
+
+    BudgetPeriod(String title) { this.title = title; }
+
+    public String getTitle() { return title; }
+
+    /**
+     * Период по имени (all, week, month, quarter, year) или null, если имя не подходит.
+     */
+    public static BudgetPeriod parse(String name) {
+        for (var p : values()) {
+            if (p.name().equalsIgnoreCase(name)) return p;
+        }
+        return null;
+    }
+
+    /**
+     * Текущий период, в который попадает дата.
+     */
+    public DateRange current(LocalDate today) {
+        return switch (this) {
+            case ALL -> DateRange.ALL;
+            case WEEK -> {
+                var from = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                yield new DateRange(from, from.plusDays(6));
+            }
+            case MONTH -> new DateRange(today.withDayOfMonth(1), today.with(TemporalAdjusters.lastDayOfMonth()));
+            case QUARTER -> {
+                var from = today.withMonth((today.getMonthValue() - 1) / 3 * 3 + 1).withDayOfMonth(1);
+                yield new DateRange(from, from.plusMonths(3).minusDays(1));
+            }
+            case YEAR -> new DateRange(today.withDayOfYear(1), today.with(TemporalAdjusters.lastDayOfYear()));
+        };
+    }
+}
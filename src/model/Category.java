@@ -1,10 +1,21 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 public class Category extends BaseEntity implements Serializable {
-    private final String name;
-    private double budget = 0.0;
+    private static final long serialVersionUID = 5969239352309411279L;
+
+    /** Пороги оповещений по умолчанию: только превышение бюджета. */
+    public static final int[] DEFAULT_ALERT_THRESHOLDS = {100};
+    public static final int MAX_ALERT_THRESHOLD = 1000;
+
+    private String name; // не final только из-за readObject
+    private long budgetMinor;
+    private BudgetPeriod budgetPeriod = BudgetPeriod.ALL;
+    private int[] alertThresholds = DEFAULT_ALERT_THRESHOLDS;
 
     public Category(String name) {
         if (name == null || name.isBlank()) throw new IllegalArgumentException("Название категории не может быть пустым.");
@@ -12,12 +23,56 @@ public class Category extends BaseEntity implements Serializable {
     }
 
     public String getName() { return name; }
-    public double getBudget() { return budget; }
-    public void setBudget(double budget) { this.budget = Math.max(0.0, budget); }
+    public Money getBudget() { return Money.ofMinor(budgetMinor); }
+    public void setBudget(Money budget) { this.budgetMinor = Math.max(0, budget.minor()); }
+    // В файлах старого формата поля нет, после десериализации там null.
+    public BudgetPeriod getBudgetPeriod() { return budgetPeriod == null ? BudgetPeriod.ALL : budgetPeriod; }
+    public void setBudgetPeriod(BudgetPeriod budgetPeriod) { this.budgetPeriod = budgetPeriod; }
+
+    /**
+     * Пороги оповещений в процентах от бюджета, по возрастанию. Массив не изменять.
+     */
+    public int[] getAlertThresholds() { return alertThresholds == null ? DEFAULT_ALERT_THRESHOLDS : alertThresholds; }
+
+    /**
+     * Пороги в процентах (1..{@value #MAX_ALERT_THRESHOLD}); повторы убираются, порядок не важен.
+     */
+    public void setAlertThresholds(int[] thresholds) {
+        if (thresholds == null || thresholds.length == 0) {
+            alertThresholds = DEFAULT_ALERT_THRESHOLDS;
+            return;
+        }
+        var sorted = Arrays.stream(thresholds).distinct().sorted().toArray();
+        if (sorted[0] < 1 || sorted[sorted.length - 1] > MAX_ALERT_THRESHOLD) {
+            throw new IllegalArgumentException("Порог оповещения должен быть от 1 до " + MAX_ALERT_THRESHOLD + "%.");
+        }
+        alertThresholds = sorted;
+    }
+
+    /**
+     * Копия с теми же бюджетом, периодом и порогами для неизменяемого среза кошелька ({@link WalletView}).
+     */
+    Category copy() {
+        var c = new Category(name);
+        c.budgetMinor = budgetMinor;
+        c.budgetPeriod = getBudgetPeriod();
+        c.alertThresholds = getAlertThresholds();
+        return c;
+    }
+
+    // До перехода на копейки бюджет хранился в поле budget типа double.
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        var fields = in.readFields();
+        budgetPeriod = (BudgetPeriod) fields.get("budgetPeriod", null);
+        alertThresholds = (int[]) fields.get("alertThresholds", null);
+        budgetMinor = fields.defaulted("budgetMinor")
+                ? Money.ofDouble(fields.get("budget", 0.0)).minor()
+                : fields.get("budgetMinor", 0L);
+        name = (String) fields.get("name", null);
+    }
 
     @Override
     public String toString() {
-        return name + " (бюджет=" + budget + ")";
+        return name + " (бюджет=" + getBudget() + ")";
     }
 }
-
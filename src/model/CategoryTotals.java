@@ -0,0 +1,63 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Суммы по категориям без упаковки в Double: имена и суммы в копейках в параллельных массивах.
+ */
+public final class CategoryTotals {
+
+    public static final CategoryTotals EMPTY = new CategoryTotals(new String[0], new long[0], 0);
+
+    private final String[] names;
+    private final long[] sums;
+    private final int size;
+
+    /**
+     * Массивы не копируются: вызывающий код не должен менять их после передачи.
+     */
+    public CategoryTotals(String[] names, long[] sums, int size) {
+        this.names = names;
+        this.sums = sums;
+        this.size = size;
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public String name(int i) { return names[i]; }
+    public long minor(int i) { return sums[i]; }
+    public Money amount(int i) { return Money.ofMinor(sums[i]); }
+
+    public long total() {
+        long total = 0;
+        for (int i = 0; i < size; i++) total += sums[i];
+        return total;
+    }
+
+    /**
+     * Сумма по категории в копейках или 0, если категории нет.
+     */
+    public long minor(String name) {
+        for (int i = 0; i < size; i++) if (names[i].equals(name)) return sums[i];
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(names[i]).append('=').append(Money.format(sums[i]));
+        }
+        return sb.append('}').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CategoryTotals c && size == c.size
+                && Arrays.equals(names, 0, size, c.names, 0, size) && Arrays.equals(sums, 0, size, c.sums, 0, size);
+    }
+
+    @Override
+    public int hashCode() { return 31 * Arrays.hashCode(Arrays.copyOf(names, size)) + Arrays.hashCode(Arrays.copyOf(sums, size)); }
+}
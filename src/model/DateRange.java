@@ -0,0 +1,63 @@
+package model;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Диапазон дат включительно. Пустая граница означает отсутствие ограничения с этой стороны.
+ */
+public record DateRange(LocalDate from, LocalDate to) {
+
+    public static final DateRange ALL = new DateRange(null, null);
+
+    public DateRange {
+        if (from != null && to != null && from.isAfter(to)) throw new IllegalArgumentException("Начало периода позже конца.");
+    }
+
+    /**
+     * Разбирает обозначение периода относительно текущей даты:
+     * week, month, quarter, year — текущие; 90d — последние 90 дней; 2025-Q3, 2025-07, 2025 — календарные.
+     */
+    public static DateRange parse(String spec, LocalDate today) {
+        var s = spec.trim().toLowerCase(Locale.ROOT);
+        var current = BudgetPeriod.parse(s);
+        if (current != null) return current.current(today);
+        try {
+            if (s.endsWith("d")) {
+                int days = Integer.parseInt(s.substring(0, s.length() - 1));
+                if (days <= 0) throw new IllegalArgumentException("Число дней должно быть положительным.");
+                return new DateRange(today.minusDays(days - 1L), today);
+            }
+            if (s.matches("\\d{4}-q[1-4]")) {
+                var from = LocalDate.of(Integer.parseInt(s.substring(0, 4)), (s.charAt(6) - '1') * 3 + 1, 1);
+                return new DateRange(from, from.plusMonths(3).minusDays(1));
+            }
+            if (s.matches("\\d{4}-\\d{2}")) {
+                var month = YearMonth.parse(s);
+                return new DateRange(month.atDay(1), month.atEndOfMonth());
+            }
+            if (s.matches("\\d{4}")) {
+                int year = Integer.parseInt(s);
+                return new DateRange(LocalDate.of(year, 1, 1), LocalDate.of(year, 12, 31));
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            // ниже — общее сообщение об ошибке
+        }
+        throw new IllegalArgumentException("Неизвестный период: " + spec);
+    }
+
+    public boolean isAll() { return from == null && to == null; }
+
+    public boolean contains(LocalDateTime time) {
+        var d = time.toLocalDate();
+        return (from == null || !d.isBefore(from)) && (to == null || !d.isAfter(to));
+    }
+
+    @Override
+    public String toString() {
+        return (from == null ? "…" : from.toString()) + " — " + (to == null ? "…" : to.toString());
+    }
+}
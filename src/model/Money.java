@@ -0,0 +1,96 @@
+package model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Денежная сумма в копейках. Сложение и сравнение точные и без округлений;
+ * для сумм по множеству транзакций используйте {@link #minor()} и складывайте long.
+ */
+public record Money(long minor) implements Comparable<Money>, Serializable {
+
+    public static final Money ZERO = new Money(0);
+
+    /** Наибольшее число цифр в целой части, при котором сумма гарантированно помещается в long. */
+    private static final int MAX_MAJOR_DIGITS = 15;
+
+    public static Money ofMinor(long minor) { return minor == 0 ? ZERO : new Money(minor); }
+
+    /**
+     * Сумма из double, округлённая до копеек: только для данных старых форматов.
+     */
+    public static Money ofDouble(double amount) {
+        if (!Double.isFinite(amount)) throw new NumberFormatException("Некорректная сумма: " + amount);
+        return ofMinor(BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_EVEN).unscaledValue().longValueExact());
+    }
+
+    /**
+     * Разбирает сумму вида 123, -5, 10.5 или 10,50. Больше двух знаков после запятой допускается,
+     * только если остальные — нули.
+     *
+     * @throws NumberFormatException если строка не сумма
+     */
+    public static Money parse(String s) {
+        int n = s.length(), i = 0;
+        boolean negative = false;
+        if (n > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            negative = s.charAt(0) == '-';
+            i++;
+        }
+        long major = 0;
+        int majorDigits = 0;
+        for (; i < n && isDigit(s.charAt(i)); i++) {
+            if (++majorDigits > MAX_MAJOR_DIGITS) throw new NumberFormatException("Слишком большая сумма: " + s);
+            major = major * 10 + (s.charAt(i) - '0');
+        }
+        long cents = 0;
+        int fractionDigits = 0;
+        if (i < n && (s.charAt(i) == '.' || s.charAt(i) == ',')) {
+            for (i++; i < n && isDigit(s.charAt(i)); i++, fractionDigits++) {
+                int d = s.charAt(i) - '0';
+                if (fractionDigits < 2) cents = cents * 10 + d;
+                else if (d != 0) throw new NumberFormatException("Больше двух знаков после запятой: " + s);
+            }
+        }
+        if (i != n || majorDigits + fractionDigits == 0) throw new NumberFormatException("Некорректная сумма: " + s);
+        if (fractionDigits == 1) cents *= 10;
+        long minor = major * 100 + cents;
+        return ofMinor(negative ? -minor : minor);
+    }
+
+    public Money plus(Money other) { return ofMinor(Math.addExact(minor, other.minor)); }
+    public Money minus(Money other) { return ofMinor(Math.subtractExact(minor, other.minor)); }
+
+    public boolean isPositive() { return minor > 0; }
+    public boolean isNegative() { return minor < 0; }
+
+    @Override
+    public int compareTo(Money other) { return Long.compare(minor, other.minor); }
+
+    /**
+     * Сумма для человека: «1234,56».
+     */
+    @Override
+    public String toString() { return format(minor); }
+
+    /**
+     * Сумма для машиночитаемых форматов: «1234.56».
+     */
+    public String toPlainString() { return formatPlain(minor); }
+
+    public static String format(long minor) { return format(minor, ','); }
+    public static String formatPlain(long minor) { return format(minor, '.'); }
+
+    private static String format(long minor, char separator) {
+        var sb = new StringBuilder(24);
+        if (minor < 0) sb.append('-');
+        long major = Math.abs(minor / 100);
+        int cents = (int) Math.abs(minor % 100);
+        sb.append(major).append(separator);
+        if (cents < 10) sb.append('0');
+        return sb.append(cents).toString();
+    }
+
+    private static boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+}
@@ -0,0 +1,44 @@
+package model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Правило регулярной операции кошелька: доход или расход, проводимый по расписанию.
+ * Неизменяемо: после проведения очередной операции правило заменяется следующим ({@link #advance()}).
+ *
+ * @param start   начало расписания
+ * @param nextDue время следующей операции или null, если расписание больше не срабатывает
+ */
+public record RecurringRule(long id, TransactionType type, Money amount, String category, String description,
+                            Schedule schedule, LocalDateTime start, LocalDateTime nextDue) {
+
+    /**
+     * Новое правило: первая операция — в первое срабатывание расписания не раньше начала.
+     */
+    public static RecurringRule create(long id, TransactionType type, Money amount, String category, String description,
+                                       Schedule schedule, LocalDateTime start) {
+        return new RecurringRule(id, type, amount, category, description, schedule, start, schedule.first(start));
+    }
+
+    public boolean isDue(LocalDateTime now) {
+        return nextDue != null && !nextDue.isAfter(now);
+    }
+
+    /**
+     * Операция, которую правило проводит в {@link #nextDue()}.
+     */
+    public Transaction posting() {
+        return new Transaction(type, amount, category, description, nextDue);
+    }
+
+    /**
+     * То же правило после проведения операции {@link #nextDue()}.
+     */
+    public RecurringRule advance() {
+        return new RecurringRule(id, type, amount, category, description, schedule, start, schedule.next(start, nextDue));
+    }
+
+    public RecurringRule withNextDue(LocalDateTime due) {
+        return new RecurringRule(id, type, amount, category, description, schedule, start, due);
+    }
+}
@@ -0,0 +1,172 @@
+package model;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
+/**
+ * Расписание регулярной операции с точностью до минуты.
+ * daily, weekly, monthly — каждый день, неделю или месяц от времени начала (в коротком месяце — последний день);
+ * иначе пять полей cron: минута, час, день месяца, месяц, день недели (0 или 7 — воскресенье).
+ * Поле — «*», число, диапазон a-b, шаг {@code *}/n или a-b/n, либо их список через запятую. Если заданы и день месяца,
+ * и день недели, подходит любой из них, как в cron.
+ */
+public final class Schedule {
+
+    private enum Kind { DAILY, WEEKLY, MONTHLY, CRON }
+
+    // Ближайшее срабатывание ищется не дальше этого числа лет: расписание вроде 30 февраля не срабатывает никогда.
+    private static final int SEARCH_YEARS = 5;
+
+    private final Kind kind;
+    private final String spec;
+    private final long minutes;
+    private final long hours;
+    private final long days;
+    private final long months;
+    private final long weekdays;
+    private final boolean anyDay;
+    private final boolean anyWeekday;
+
+    private Schedule(Kind kind, String spec, long minutes, long hours, long days, long months, long weekdays,
+                     boolean anyDay, boolean anyWeekday) {
+        this.kind = kind;
+        this.spec = spec;
+        this.minutes = minutes;
+        this.hours = hours;
+        this.days = days;
+        this.months = months;
+        this.weekdays = weekdays;
+        this.anyDay = anyDay;
+        this.anyWeekday = anyWeekday;
+    }
+
+    /**
+     * Разбирает расписание; бросает {@link IllegalArgumentException}, если оно некорректно.
+     */
+    public static Schedule parse(String spec) {
+        var s = spec.trim().toLowerCase(Locale.ROOT);
+        var simple = switch (s) {
+            case "daily" -> Kind.DAILY;
+            case "weekly" -> Kind.WEEKLY;
+            case "monthly" -> Kind.MONTHLY;
+            default -> null;
+        };
+        if (simple != null) return new Schedule(simple, s, 0, 0, 0, 0, 0, true, true);
+
+        var fields = s.split("\\s+");
+        if (fields.length != 5) throw new IllegalArgumentException("Неизвестное расписание: " + spec);
+        long weekdays = field(fields[4], 0, 7);
+        if ((weekdays & (1L << 7)) != 0) weekdays = (weekdays | 1) & ~(1L << 7);
+        return new Schedule(Kind.CRON, String.join(" ", fields), field(fields[0], 0, 59), field(fields[1], 0, 23),
+                field(fields[2], 1, 31), field(fields[3], 1, 12), weekdays, fields[2].equals("*"), fields[4].equals("*"));
+    }
+
+    public String spec() { return spec; }
+
+    /**
+     * Первое срабатывание не раньше {@code start} или null, если расписание не срабатывает.
+     */
+    public LocalDateTime first(LocalDateTime start) {
+        var t = start.truncatedTo(ChronoUnit.MINUTES);
+        if (kind != Kind.CRON) return t;
+        return match(t.isBefore(start) ? t.plusMinutes(1) : t);
+    }
+
+    /**
+     * Срабатывание после {@code previous} или null, если больше не срабатывает.
+     *
+     * @param start начало расписания: от него отсчитываются месяцы, чтобы 31-е число не сдвигалось после февраля
+     */
+    public LocalDateTime next(LocalDateTime start, LocalDateTime previous) {
+        return switch (kind) {
+            case DAILY -> previous.plusDays(1);
+            case WEEKLY -> previous.plusWeeks(1);
+            case MONTHLY -> {
+                var anchor = first(start);
+                long passed = (previous.getYear() * 12L + previous.getMonthValue()) - (anchor.getYear() * 12L + anchor.getMonthValue());
+                yield anchor.plusMonths(passed + 1);
+            }
+            case CRON -> match(previous.plusMinutes(1));
+        };
+    }
+
+    /**
+     * Ближайшая подходящая минута не раньше {@code t}: несовпадающий месяц, день или час пропускается целиком.
+     */
+    private LocalDateTime match(LocalDateTime t) {
+        var limit = t.plusYears(SEARCH_YEARS);
+        while (t.isBefore(limit)) {
+            if (!has(months, t.getMonthValue())) {
+                t = t.toLocalDate().withDayOfMonth(1).plusMonths(1).atStartOfDay();
+            } else if (!dayMatches(t)) {
+                t = t.toLocalDate().plusDays(1).atStartOfDay();
+            } else if (!has(hours, t.getHour())) {
+                t = t.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!has(minutes, t.getMinute())) {
+                t = t.plusMinutes(1);
+            } else {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private boolean dayMatches(LocalDateTime t) {
+        boolean day = has(days, t.getDayOfMonth());
+        boolean weekday = has(weekdays, t.getDayOfWeek().getValue() % 7);
+        if (anyDay) return weekday;
+        if (anyWeekday) return day;
+        return day || weekday;
+    }
+
+    private static boolean has(long bits, int value) {
+        return (bits & (1L << value)) != 0;
+    }
+
+    private static long field(String spec, int min, int max) {
+        long bits = 0;
+        for (var item : spec.split(",")) {
+            int step = 1;
+            var range = item;
+            int slash = item.indexOf('/');
+            if (slash >= 0) {
+                step = number(item.substring(slash + 1), 1, max);
+                range = item.substring(0, slash);
+            }
+            int from, to;
+            if (range.equals("*")) {
+                from = min;
+                to = max;
+            } else {
+                int dash = range.indexOf('-');
+                from = number(dash < 0 ? range : range.substring(0, dash), min, max);
+                to = dash < 0 ? (slash >= 0 ? max : from) : number(range.substring(dash + 1), min, max);
+                if (to < from) throw new IllegalArgumentException("Некорректный диапазон в расписании: " + item);
+            }
+            for (int v = from; v <= to; v += step) bits |= 1L << v;
+        }
+        return bits;
+    }
+
+    private static int number(String s, int min, int max) {
+        try {
+            int v = Integer.parseInt(s);
+            if (v >= min && v <= max) return v;
+        } catch (NumberFormatException e) {
+            // ниже — общее сообщение
+        }
+        throw new IllegalArgumentException("Некорректное значение в расписании: " + s);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Schedule other && spec.equals(other.spec);
+    }
+
+    @Override
+    public int hashCode() { return spec.hashCode(); }
+
+    @Override
+    public String toString() { return spec; }
+}
@@ -0,0 +1,259 @@
+package model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Обратный индекс слов в описаниях и категориях транзакций кошелька: слово → возрастающий список номеров строк.
+ * Слова приводятся к нижнему регистру по правилам русского языка, «ё» считается «е»; словом считается
+ * последовательность букв и цифр. Поиск — по началу слова, все слова запроса должны встретиться в строке.
+ * Индекс дополняется при каждой новой транзакции и сохраняется вместе со снимком кошелька.
+ */
+public final class SearchIndex {
+
+    private static final Locale RU = Locale.forLanguageTag("ru");
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    // Отсортированные слова для поиска по префиксу; пересобираются, только когда появились новые слова.
+    // Поиск идёт под блокировкой чтения кошелька, поэтому сборка синхронизирована.
+    private volatile Sorted sorted = new Sorted(new String[0], new Postings[0]);
+    private int size;
+
+    /**
+     * Добавляет строку с номером, равным текущему размеру индекса.
+     */
+    void add(Transaction t) {
+        add(size, tokens(t.category()));
+        add(size, tokens(t.description()));
+        size++;
+    }
+
+    private void add(int row, List<String> words) {
+        for (var word : words) postings.computeIfAbsent(word, w -> new Postings()).add(row);
+    }
+
+    /**
+     * Индекс по строкам хранилища; каждая строка словаря разбирается на слова один раз.
+     */
+    static SearchIndex build(TransactionStore rows) {
+        var index = new SearchIndex();
+        List<List<String>> cache = new ArrayList<>(Collections.nCopies(rows.strings(), null));
+        for (int i = 0; i < rows.size(); i++) {
+            index.add(index.size, tokens(cache, rows, rows.categoryId(i)));
+            index.add(index.size, tokens(cache, rows, rows.descriptionId(i)));
+            index.size++;
+        }
+        return index;
+    }
+
+    private static List<String> tokens(List<List<String>> cache, TransactionStore rows, int id) {
+        var words = cache.get(id);
+        if (words == null) cache.set(id, words = tokens(rows.string(id)));
+        return words;
+    }
+
+    /**
+     * Число проиндексированных строк.
+     */
+    public int size() { return size; }
+
+    public int words() { return postings.size(); }
+
+    public long estimatedBytes() {
+        long bytes = 64L * postings.size();
+        for (var p : postings.values()) bytes += 4L * p.rows.length;
+        return bytes;
+    }
+
+    /**
+     * Слова текста в нормализованном виде, без повторов.
+     */
+    public static List<String> tokens(String text) {
+        List<String> out = new ArrayList<>(4);
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i > start) {
+                var word = text.substring(start, i).toLowerCase(RU).replace('ё', 'е');
+                if (!out.contains(word)) out.add(word);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Номера строк, содержащих все слова запроса (каждое — как начало слова), по возрастанию.
+     */
+    public int[] search(String query) {
+        var terms = tokens(query);
+        if (terms.isEmpty()) return new int[0];
+        var view = sorted();
+
+        List<Postings[]> matches = new ArrayList<>(terms.size());
+        for (var term : terms) {
+            var m = view.prefixMatches(term);
+            if (m.length == 0) return new int[0];
+            matches.add(m);
+        }
+        // Начинаем с самого редкого слова и отсеиваем его строки остальными.
+        matches.sort((a, b) -> Long.compare(total(a), total(b)));
+        var candidates = union(matches.get(0));
+        int n = candidates.length;
+        for (int k = 1; k < matches.size() && n > 0; k++) n = retain(candidates, n, matches.get(k));
+        return n == candidates.length ? candidates : Arrays.copyOf(candidates, n);
+    }
+
+    private static long total(Postings[] lists) {
+        long n = 0;
+        for (var p : lists) n += p.size;
+        return n;
+    }
+
+    private static int[] union(Postings[] lists) {
+        if (lists.length == 1) return Arrays.copyOf(lists[0].rows, lists[0].size);
+        var all = new int[(int) total(lists)];
+        int n = 0;
+        for (var p : lists) {
+            System.arraycopy(p.rows, 0, all, n, p.size);
+            n += p.size;
+        }
+        Arrays.sort(all);
+        int unique = 0;
+        for (int i = 0; i < n; i++) if (unique == 0 || all[unique - 1] != all[i]) all[unique++] = all[i];
+        return unique == n ? all : Arrays.copyOf(all, unique);
+    }
+
+    /**
+     * Оставляет в начале candidates строки, которые есть хотя бы в одном из списков. Возвращает их число.
+     */
+    private int retain(int[] candidates, int n, Postings[] lists) {
+        if (lists.length == 1) return intersect(candidates, n, lists[0]);
+        if ((long) n * lists.length > total(lists)) {
+            // Кандидатов много: дешевле один раз отметить строки слова в битовой карте.
+            var bits = new long[(size >>> 6) + 1];
+            for (var p : lists) for (int i = 0; i < p.size; i++) bits[p.rows[i] >>> 6] |= 1L << p.rows[i];
+            int kept = 0;
+            for (int i = 0; i < n; i++) if ((bits[candidates[i] >>> 6] & (1L << candidates[i])) != 0) candidates[kept++] = candidates[i];
+            return kept;
+        }
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            for (var p : lists) {
+                if (Arrays.binarySearch(p.rows, 0, p.size, candidates[i]) >= 0) {
+                    candidates[kept++] = candidates[i];
+                    break;
+                }
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Пересечение двух возрастающих списков. Если кандидатов намного меньше, позиция во втором ищется
+     * экспоненциальным шагом от предыдущей: O(n log(m/n)) вместо O(n log m).
+     */
+    private static int intersect(int[] candidates, int n, Postings list) {
+        int kept = 0, pos = 0;
+        if (list.size / 8 < n) {
+            // Списки сопоставимой длины: обычное слияние дешевле поиска.
+            for (int i = 0; i < n && pos < list.size; i++) {
+                int target = candidates[i];
+                while (pos < list.size && list.rows[pos] < target) pos++;
+                if (pos < list.size && list.rows[pos] == target) candidates[kept++] = target;
+            }
+            return kept;
+        }
+        for (int i = 0; i < n && pos < list.size; i++) {
+            int target = candidates[i];
+            int step = 1, hi = pos;
+            while (hi < list.size && list.rows[hi] < target) {
+                pos = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            int at = Arrays.binarySearch(list.rows, pos, Math.min(hi + 1, list.size), target);
+            if (at >= 0) {
+                candidates[kept++] = target;
+                pos = at + 1;
+            } else pos = -at - 1;
+        }
+        return kept;
+    }
+
+    private Sorted sorted() {
+        var view = sorted;
+        if (view.words.length == postings.size()) return view;
+        synchronized (this) {
+            view = sorted;
+            if (view.words.length == postings.size()) return view;
+            var words = postings.keySet().toArray(new String[0]);
+            Arrays.sort(words);
+            var lists = new Postings[words.length];
+            for (int i = 0; i < words.length; i++) lists[i] = postings.get(words[i]);
+            sorted = view = new Sorted(words, lists);
+            return view;
+        }
+    }
+
+    private record Sorted(String[] words, Postings[] postings) {
+        Postings[] prefixMatches(String prefix) {
+            int from = Arrays.binarySearch(words, prefix);
+            if (from < 0) from = -from - 1;
+            int to = from;
+            while (to < words.length && words[to].startsWith(prefix)) to++;
+            return Arrays.copyOfRange(postings, from, to);
+        }
+    }
+
+    /**
+     * Передаёт содержимое индекса для сохранения: слово и его строки (используются первые count элементов).
+     */
+    public void forEach(Entry consumer) throws IOException {
+        for (var e : postings.entrySet()) consumer.accept(e.getKey(), e.getValue().rows, e.getValue().size);
+    }
+
+    @FunctionalInterface
+    public interface Entry {
+        void accept(String word, int[] rows, int count) throws IOException;
+    }
+
+    /**
+     * Индекс, прочитанный из файла. Списки строк должны быть возрастающими и меньше {@code size}.
+     */
+    public static SearchIndex restore(int size, String[] words, int[][] rows) {
+        var index = new SearchIndex();
+        index.size = size;
+        for (int i = 0; i < words.length; i++) {
+            var p = new Postings(rows[i]);
+            index.postings.put(words[i], p);
+        }
+        return index;
+    }
+
+    private static final class Postings {
+        int[] rows;
+        int size;
+
+        Postings() { rows = new int[2]; }
+
+        Postings(int[] rows) {
+            this.rows = rows;
+            this.size = rows.length;
+        }
+
+        void add(int row) {
+            if (size > 0 && rows[size - 1] == row) return; // слово встретилось в строке повторно
+            if (size == rows.length) rows = Arrays.copyOf(rows, Math.max(2, size * 2));
+            rows[size++] = row;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package model;
+
+import java.util.List;
+
+/**
+ * Результат поиска: сколько транзакций найдено всего и последние из них, от новых к старым.
+ */
+public record SearchResult(int total, List<Transaction> transactions) { }
@@ -0,0 +1,166 @@
+package model;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Индекс транзакций кошелька по времени с префиксными суммами в копейках.
+ * Сумма за любой период — два бинарных поиска и разность префиксов; по категории — ещё один бинарный поиск.
+ * Время в индексе неубывающее: если часы ушли назад, строка получает время предыдущей.
+ * <p>
+ * Индекс только дописывается, поэтому {@link #freeze()} за O(1) отдаёт срез на текущее число строк, который можно
+ * читать без блокировки, пока в индекс добавляются строки.
+ */
+final class TransactionIndex {
+
+    private static final int TYPES = TransactionType.values().length;
+
+    private long[] times;
+    private final long[][] prefix;
+    // Общая для индекса и его срезов: срез спрашивает категории, пока индекс добавляет новые.
+    private final Map<String, CategoryColumn> categories;
+    private int size;
+    private final boolean frozen;
+
+    TransactionIndex() {
+        times = new long[16];
+        prefix = new long[TYPES][17];
+        categories = new ConcurrentHashMap<>();
+        frozen = false;
+    }
+
+    private TransactionIndex(TransactionIndex live) {
+        times = live.times;
+        prefix = live.prefix.clone();
+        categories = live.categories;
+        size = live.size;
+        frozen = true;
+    }
+
+    /**
+     * Срез индекса на текущее число строк. Массивы общие: индекс пишет только за пределами среза,
+     * а при росте заменяет массивы копиями. Категория, появившаяся после среза, в нём пуста.
+     */
+    TransactionIndex freeze() {
+        return frozen ? this : new TransactionIndex(this);
+    }
+
+    void add(Transaction t) {
+        add(toEpochSecond(t.time()), t.type().ordinal(), t.amount().minor(), t.category());
+    }
+
+    /**
+     * Добавляет строку хранилища, не создавая {@link Transaction}.
+     */
+    void add(TransactionStore rows, int row) {
+        add(Math.floorDiv(rows.timeMicros(row), 1_000_000L), rows.type(row).ordinal(), rows.amountMinor(row), rows.category(row));
+    }
+
+    private void add(long time, int type, long amount, String category) {
+        if (frozen) throw new IllegalStateException("Срез индекса не изменяется.");
+        if (size == times.length) grow();
+        times[size] = size > 0 ? Math.max(time, times[size - 1]) : time;
+
+        for (int k = 0; k < TYPES; k++) prefix[k][size + 1] = prefix[k][size] + (k == type ? amount : 0);
+
+        categories.computeIfAbsent(category, c -> new CategoryColumn()).add(size, type, amount);
+        size++;
+    }
+
+    int size() { return size; }
+
+    /**
+     * Первая строка периода (включительно).
+     */
+    int lowerRow(DateRange range) {
+        return range.from() == null ? 0 : lowerBound(startOf(range.from()));
+    }
+
+    /**
+     * Строка сразу после конца периода (не включительно).
+     */
+    int upperRow(DateRange range) {
+        return range.to() == null ? size : lowerBound(startOf(range.to().plusDays(1)));
+    }
+
+    long total(TransactionType type, int lo, int hi) {
+        return prefix[type.ordinal()][hi] - prefix[type.ordinal()][lo];
+    }
+
+    long categoryTotal(String category, TransactionType type, int lo, int hi) {
+        var column = categories.get(category);
+        return column == null ? 0 : column.sum(type.ordinal(), lo, hi);
+    }
+
+    /**
+     * Категории индекса; у среза — и добавленные после него (с нулевыми суммами в срезе).
+     */
+    Set<String> categories() { return categories.keySet(); }
+
+    private int lowerBound(long time) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private void grow() {
+        times = Arrays.copyOf(times, times.length * 2);
+        for (int k = 0; k < TYPES; k++) prefix[k] = Arrays.copyOf(prefix[k], times.length + 1);
+    }
+
+    private static long startOf(LocalDate date) {
+        return date.atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static long toEpochSecond(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Массивы колонки категории. Поля final: читатель, увидевший новые массивы без блокировки, видит и скопированные в них строки.
+     */
+    private record Columns(int[] rows, long[][] prefix) { }
+
+    /**
+     * Строки одной категории и префиксные суммы по типам внутри неё. Колонку, общую со срезами индекса, читают
+     * без блокировки: число строк публикуется после самих строк, а номера строк растут, поэтому строки за пределами
+     * среза не попадают в его суммы.
+     */
+    private static final class CategoryColumn {
+        private Columns data = new Columns(new int[4], new long[TYPES][5]);
+        private volatile int size;
+
+        void add(int row, int type, long amount) {
+            int n = size;
+            var d = data;
+            if (n == d.rows().length) {
+                var prefix = new long[TYPES][];
+                for (int k = 0; k < TYPES; k++) prefix[k] = Arrays.copyOf(d.prefix()[k], n * 2 + 1);
+                data = d = new Columns(Arrays.copyOf(d.rows(), n * 2), prefix);
+            }
+            d.rows()[n] = row;
+            for (int k = 0; k < TYPES; k++) d.prefix()[k][n + 1] = d.prefix()[k][n] + (k == type ? amount : 0);
+            size = n + 1;
+        }
+
+        long sum(int type, int lo, int hi) {
+            int n = size;
+            var d = data;
+            return d.prefix()[type][position(d.rows(), n, hi)] - d.prefix()[type][position(d.rows(), n, lo)];
+        }
+
+        private static int position(int[] rows, int n, int row) {
+            int i = Arrays.binarySearch(rows, 0, n, row);
+            return i >= 0 ? i : -i - 1;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Транзакции кошелька в колонках примитивов: тип byte, сумма в копейках long, время long (микросекунды эпохи, UTC),
+ * категория и описание — int-номера в словаре строк кошелька, поэтому повторяющиеся категории и описания
+ * («Перевод: логин») хранятся один раз. Строка занимает 25 байт против полутора сотен у {@link Transaction}.
+ * Колонки растут блоками по {@value #CHUNK} строк без копирования прежних; первый блок растёт удвоением,
+ * чтобы маленькие кошельки не занимали целый блок. Объекты {@link Transaction} создаются только при чтении строк.
+ * <p>
+ * Записанные строки и строки словаря не меняются, а массивы при росте заменяются копиями, поэтому {@link #freeze()}
+ * за O(1) отдаёт неизменяемый срез: он делит массивы с хранилищем и видит только строки, бывшие в нём на момент среза.
+ */
+public final class TransactionStore {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int MASK = CHUNK - 1;
+    private static final int FIRST_CHUNK = 8;
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private byte[][] types = new byte[0][];
+    private long[][] amounts = new long[0][];
+    private long[][] times = new long[0][];
+    private int[][] categories = new int[0][];
+    private int[][] descriptions = new int[0][];
+    private int size;
+    private int capacity;
+
+    // null у среза: срез не добавляет строк в словарь.
+    private final Map<String, Integer> ids;
+    private String[] strings = new String[16];
+    private int stringCount;
+    private long stringBytes;
+
+    private final List<Transaction> view = new Rows();
+
+    public TransactionStore() {
+        ids = new HashMap<>();
+    }
+
+    private TransactionStore(TransactionStore live) {
+        types = live.types;
+        amounts = live.amounts;
+        times = live.times;
+        categories = live.categories;
+        descriptions = live.descriptions;
+        size = live.size;
+        capacity = live.size;
+        ids = null;
+        strings = live.strings;
+        stringCount = live.stringCount;
+        stringBytes = live.stringBytes;
+    }
+
+    /**
+     * Неизменяемый срез текущих строк без копирования. Читается без блокировок кошелька, пока хранилище пополняется;
+     * сам срез должен быть получен под блокировкой, под которой хранилище изменяют.
+     */
+    public TransactionStore freeze() {
+        return ids == null ? this : new TransactionStore(this);
+    }
+
+    public int size() { return size; }
+
+    public void add(Transaction t) {
+        add(t.type(), t.amount().minor(), toEpochMicros(t.time()), intern(t.category()), intern(t.description()));
+    }
+
+    /**
+     * Добавляет строку с уже полученными номерами строк словаря ({@link #intern}).
+     */
+    public void add(TransactionType type, long amountMinor, long epochMicros, int categoryId, int descriptionId) {
+        if (ids == null) throw new IllegalStateException("Срез хранилища не изменяется.");
+        if (size == capacity) grow();
+        int c = size >>> CHUNK_BITS, i = size & MASK;
+        types[c][i] = (byte) type.ordinal();
+        amounts[c][i] = amountMinor;
+        times[c][i] = epochMicros;
+        categories[c][i] = categoryId;
+        descriptions[c][i] = descriptionId;
+        size++;
+    }
+
+    /**
+     * Добавляет строку другого хранилища, перенося её строки в свой словарь.
+     */
+    void addFrom(TransactionStore other, int row) {
+        add(other.type(row), other.amountMinor(row), other.timeMicros(row),
+                intern(other.category(row)), intern(other.description(row)));
+    }
+
+    /**
+     * Номер строки в словаре; новая строка добавляется в конец.
+     */
+    public int intern(String s) {
+        if (ids == null) throw new IllegalStateException("Срез хранилища не изменяется.");
+        var id = ids.get(s);
+        if (id != null) return id;
+        if (stringCount == strings.length) strings = Arrays.copyOf(strings, stringCount * 2);
+        strings[stringCount] = s;
+        ids.put(s, stringCount);
+        stringBytes += 40 + 2L * s.length();
+        return stringCount++;
+    }
+
+    public TransactionType type(int row) { return TYPES[types[row >>> CHUNK_BITS][row & MASK]]; }
+    public long amountMinor(int row) { return amounts[row >>> CHUNK_BITS][row & MASK]; }
+    public long timeMicros(int row) { return times[row >>> CHUNK_BITS][row & MASK]; }
+    public int categoryId(int row) { return categories[row >>> CHUNK_BITS][row & MASK]; }
+    public int descriptionId(int row) { return descriptions[row >>> CHUNK_BITS][row & MASK]; }
+    public String category(int row) { return strings[categoryId(row)]; }
+    public String description(int row) { return strings[descriptionId(row)]; }
+
+    /**
+     * Словарь строк: номера от 0 до {@link #strings()} - 1.
+     */
+    public int strings() { return stringCount; }
+    public String string(int id) { return strings[id]; }
+
+    public Transaction get(int row) {
+        return new Transaction(type(row), Money.ofMinor(amountMinor(row)), category(row), description(row),
+                fromEpochMicros(timeMicros(row)));
+    }
+
+    /**
+     * Строки как неизменяемый список; транзакции создаются при каждом обращении к элементу.
+     */
+    public List<Transaction> asList() { return view; }
+
+    public long estimatedBytes() {
+        return 128 + capacity * 25L + stringCount * 48L + stringBytes;
+    }
+
+    /**
+     * Слияние по времени строк хранилища и упорядоченного по времени пакета; при равном времени прежние строки идут первыми.
+     */
+    static TransactionStore merge(TransactionStore rows, List<Transaction> sorted) {
+        var out = new TransactionStore();
+        int i = 0, j = 0;
+        while (i < rows.size || j < sorted.size()) {
+            if (j == sorted.size() || (i < rows.size && toEpochMicros(sorted.get(j).time()) >= rows.timeMicros(i))) {
+                out.addFrom(rows, i++);
+            } else out.add(sorted.get(j++));
+        }
+        return out;
+    }
+
+    public static long toEpochMicros(LocalDateTime time) {
+        return Math.addExact(Math.multiplyExact(time.toEpochSecond(ZoneOffset.UTC), 1_000_000L), time.getNano() / 1000);
+    }
+
+    public static LocalDateTime fromEpochMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1000, ZoneOffset.UTC);
+    }
+
+    private void grow() {
+        int chunks = types.length;
+        if (chunks == 1 && capacity < CHUNK) {
+            // Внешние массивы тоже новые: срезы держат прежние и не должны увидеть замену блока.
+            capacity *= 2;
+            types = new byte[][] {Arrays.copyOf(types[0], capacity)};
+            amounts = new long[][] {Arrays.copyOf(amounts[0], capacity)};
+            times = new long[][] {Arrays.copyOf(times[0], capacity)};
+            categories = new int[][] {Arrays.copyOf(categories[0], capacity)};
+            descriptions = new int[][] {Arrays.copyOf(descriptions[0], capacity)};
+            return;
+        }
+        int n = chunks == 0 ? FIRST_CHUNK : CHUNK;
+        types = Arrays.copyOf(types, chunks + 1);
+        amounts = Arrays.copyOf(amounts, chunks + 1);
+        times = Arrays.copyOf(times, chunks + 1);
+        categories = Arrays.copyOf(categories, chunks + 1);
+        descriptions = Arrays.copyOf(descriptions, chunks + 1);
+        types[chunks] = new byte[n];
+        amounts[chunks] = new long[n];
+        times[chunks] = new long[n];
+        categories[chunks] = new int[n];
+        descriptions[chunks] = new int[n];
+        capacity += n;
+    }
+
+    private final class Rows extends AbstractList<Transaction> implements RandomAccess {
+        @Override
+        public Transaction get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+            return TransactionStore.this.get(index);
+        }
+
+        @Override
+        public int size() { return size; }
+    }
+}
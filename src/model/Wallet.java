@@ -1,20 +1,344 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
 
 public class Wallet extends BaseEntity implements Serializable {
-    private final String ownerLogin;
-    private final List<Transaction> transactions = new ArrayList<>();
-    private final Map<String, Category> categories = new HashMap<>();
+    private static final long serialVersionUID = 1617196877568813724L;
 
-    public Wallet(String ownerLogin) { this.ownerLogin = ownerLogin; }
+    // Форма сериализации старых файлов кошелька: транзакции там хранятся списком.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("ownerLogin", String.class),
+            new ObjectStreamField("transactions", List.class),
+            new ObjectStreamField("categories", Map.class),
+            new ObjectStreamField("journalSeq", long.class)
+    };
+
+    private String ownerLogin; // не final только из-за readObject
+    private transient TransactionStore transactions = new TransactionStore();
+    private Map<String, Category> categories = new HashMap<>();
+    private long journalSeq;
+
+    // Правила регулярных операций по номеру. Сохраняются в снимке и журнале, в старом формате сериализации их нет.
+    private transient TreeMap<Long, RecurringRule> recurring = new TreeMap<>();
+
+    // Архивные сегменты старой истории, от старых к новым; строки в transactions — оперативная часть после них.
+    private transient List<ArchiveSegment> segments = List.of();
+    // Индекс по времени с префиксными суммами. Не сериализуется, строится заново при загрузке.
+    private transient TransactionIndex index;
+    // Обратный индекс слов для поиска. Сохраняется вместе со снимком, при загрузке перестраивается, только если его нет.
+    private transient SearchIndex search;
+
+    // Номер изменения в памяти и номер, на котором кошелёк последний раз сохранён снимком.
+    private transient long version;
+    private transient long savedVersion;
+    // Версии частей кошелька для кэша сводок: транзакции каждого типа, категории и бюджеты, порядок строк.
+    private transient long[] typeVersions = new long[TransactionType.values().length];
+    private transient long categoriesVersion;
+    private transient long layoutVersion;
+
+    // Последний срез для чтения. Срез неизменяем и публикуется одной volatile-записью: его строят под блокировкой
+    // чтения, то есть несколько потоков сразу, и каждый получает целый срез. Копия категорий в нём переиспользуется,
+    // пока категории не менялись.
+    private transient volatile WalletView view;
+
+    public Wallet(String ownerLogin) {
+        this.ownerLogin = ownerLogin;
+        rebuildIndexes();
+    }
 
     public String getOwnerLogin() { return ownerLogin; }
-    public List<Transaction> getTransactions() { return transactions; }
+    /**
+     * Транзакции в порядке добавления. Объекты {@link Transaction} создаются при обращении к элементам списка.
+     */
+    public List<Transaction> getTransactions() { return getTransactions(DateRange.ALL); }
+
+    /**
+     * Колоночное хранилище оперативной части транзакций (без архива): для обхода строк без создания объектов. Не изменять.
+     */
+    public TransactionStore getTransactionStore() { return transactions; }
+
+    public List<ArchiveSegment> getSegments() { return segments; }
+
+    /**
+     * Число транзакций вместе с архивом; архивные сегменты при этом не читаются.
+     */
+    public long transactionCount() {
+        long n = transactions.size();
+        for (var s : segments) n += s.rows();
+        return n;
+    }
+
+    public long transactionCount(DateRange range) { return WalletView.transactionCount(index, segments, range); }
+
     public Map<String, Category> getCategories() { return categories; }
-}
 
+    /**
+     * Правила регулярных операций в порядке номеров. Не изменять: правила меняются через {@link #putRecurringRule}.
+     */
+    public Collection<RecurringRule> getRecurringRules() { return Collections.unmodifiableCollection(recurring.values()); }
+
+    public RecurringRule getRecurringRule(long id) { return recurring.get(id); }
+
+    public long nextRecurringId() { return recurring.isEmpty() ? 1 : recurring.lastKey() + 1; }
+
+    /**
+     * Добавляет правило или заменяет правило с тем же номером.
+     */
+    public void putRecurringRule(RecurringRule rule) {
+        recurring.put(rule.id(), rule);
+        version++;
+    }
+
+    public RecurringRule removeRecurringRule(long id) {
+        var removed = recurring.remove(id);
+        if (removed != null) version++;
+        return removed;
+    }
+
+    /**
+     * Номер последней записи журнала, уже отражённой в этом кошельке.
+     */
+    public long getJournalSeq() { return journalSeq; }
+    public void setJournalSeq(long journalSeq) { this.journalSeq = journalSeq; }
+
+    /**
+     * Отмечает изменение кошелька, сделанное в обход его методов (категории, бюджеты).
+     */
+    public void markModified() {
+        version++;
+        categoriesVersion++;
+    }
+
+    public long getVersion() { return version; }
+
+    /**
+     * Меняется при добавлении транзакции этого типа.
+     */
+    public long getVersion(TransactionType type) { return typeVersions[type.ordinal()]; }
+
+    /**
+     * Меняется при изменении категорий и бюджетов через {@link #markModified()}.
+     * Категории, созданные вместе с транзакцией, видны по числу категорий.
+     */
+    public long getCategoriesVersion() { return categoriesVersion; }
+
+    /**
+     * Меняется, когда строки переставляются, а не только дописываются в конец: прежние номера строк больше не верны.
+     */
+    public long getLayoutVersion() { return layoutVersion; }
+    public boolean isDirty() { return version != savedVersion; }
+
+    /**
+     * Отмечает, что снимок со всеми изменениями до {@code version} включительно записан на диск.
+     */
+    public void markSaved(long version) { this.savedVersion = version; }
+
+    /**
+     * Приблизительный объём кошелька в куче вместе с индексом, в байтах.
+     */
+    public long estimatedBytes() {
+        long bytes = 256 + categories.size() * 128L + recurring.size() * 160L + transactions.estimatedBytes() + search.estimatedBytes();
+        for (var s : segments) bytes += s.estimatedBytes();
+        return bytes;
+    }
+
+    public void addTransaction(Transaction t) {
+        transactions.add(t);
+        index.add(t);
+        search.add(t);
+        version++;
+        typeVersions[t.type().ordinal()]++;
+    }
+
+    /**
+     * Добавляет пакет транзакций, упорядоченный по времени. Если пакет начинается раньше последней транзакции
+     * кошелька, история сливается по времени и индекс перестраивается.
+     */
+    public void addTransactions(List<Transaction> sorted) {
+        if (sorted.isEmpty()) return;
+        version++;
+        for (var t : sorted) typeVersions[t.type().ordinal()]++;
+        int n = transactions.size();
+        if (n == 0 || TransactionStore.toEpochMicros(sorted.get(0).time()) >= transactions.timeMicros(n - 1)) {
+            for (var t : sorted) {
+                transactions.add(t);
+                index.add(t);
+                search.add(t);
+            }
+            return;
+        }
+
+        transactions = TransactionStore.merge(transactions, sorted);
+        rebuildIndexes();
+    }
+
+    /**
+     * Неизменяемый срез кошелька: транзакции, категории и бюджеты на текущий момент, см. {@link WalletView}.
+     * Берётся за O(1) под блокировкой кошелька (достаточно блокировки чтения); пока кошелёк не меняется, возвращается
+     * тот же срез, а категории копируются только после их изменения ({@link #markModified()} или новая категория).
+     * Итоги и строки самого кошелька срез не создают: их считают по живому индексу под блокировкой кошелька.
+     */
+    public WalletView view() {
+        var v = view;
+        if (v != null && v.getVersion() == version && v.getLayoutVersion() == layoutVersion
+                && v.getCategories().size() == categories.size()) return v;
+        var copy = v == null ? null : v.getCategories();
+        if (copy == null || v.getCategoriesVersion() != categoriesVersion || copy.size() != categories.size()) {
+            Map<String, Category> c = new HashMap<>(categories.size() * 2);
+            for (var e : categories.entrySet()) c.put(e.getKey(), e.getValue().copy());
+            copy = Collections.unmodifiableMap(c);
+        }
+        view = v = new WalletView(ownerLogin, transactions.freeze(), index.freeze(), segments, copy,
+                version, typeVersions.clone(), categoriesVersion, layoutVersion);
+        return v;
+    }
+
+    public Money getTotal(TransactionType type) { return getTotal(type, DateRange.ALL); }
+
+    public Money getTotal(TransactionType type, DateRange range) { return WalletView.total(index, segments, type, range); }
+
+    public Money getCategoryTotal(String category, TransactionType type) { return getCategoryTotal(category, type, DateRange.ALL); }
+
+    public Money getCategoryTotal(String category, TransactionType type, DateRange range) {
+        return WalletView.categoryTotal(index, segments, category, type, range);
+    }
+
+    public CategoryTotals getCategoryTotals(TransactionType type) { return getCategoryTotals(type, DateRange.ALL); }
+
+    /**
+     * Суммы по категориям за период, см. {@link WalletView#getCategoryTotals(TransactionType, DateRange)}.
+     */
+    public CategoryTotals getCategoryTotals(TransactionType type, DateRange range) {
+        return WalletView.categoryTotals(index, segments, type, range);
+    }
+
+    /**
+     * Первая строка периода (включительно) и строка сразу после его конца в оперативной части.
+     */
+    public int lowerRow(DateRange range) { return index.lowerRow(range); }
+    public int upperRow(DateRange range) { return index.upperRow(range); }
+
+    /**
+     * Транзакции периода на текущий момент, см. {@link WalletView#getTransactions(DateRange)}.
+     */
+    public List<Transaction> getTransactions(DateRange range) {
+        return WalletView.transactions(transactions, index, segments, range);
+    }
+
+    public void forEachRow(DateRange range, ObjIntConsumer<TransactionStore> action) {
+        WalletView.forEachRow(transactions, index, segments, range, action);
+    }
+
+    /**
+     * Транзакции, содержащие все слова запроса (по началу слова), начиная с последних.
+     *
+     * @param limit сколько транзакций вернуть; общее число найденных — в {@link SearchResult#total()}
+     */
+    public SearchResult search(String query, int limit) {
+        var rows = search.search(query);
+        int n = Math.min(limit, rows.length);
+        List<Transaction> out = new ArrayList<>(n);
+        for (int i = rows.length - 1; i >= rows.length - n; i--) out.add(transactions.get(rows[i]));
+        int total = rows.length;
+        // Архив ищется от новых сегментов к старым; сегменты без слов запроса по фильтру не читаются.
+        for (int k = segments.size() - 1; k >= 0; k--) total += segments.get(k).search(query, out, limit);
+        return new SearchResult(total, out);
+    }
+
+    public SearchIndex getSearchIndex() { return search; }
+
+    /**
+     * Заполняет пустой кошелёк транзакциями из снимка. Сохранённый поисковый индекс используется,
+     * если он покрывает ровно эти строки, иначе строится заново.
+     */
+    public void restoreTransactions(TransactionStore rows, SearchIndex savedSearch) {
+        if (transactions.size() != 0) throw new IllegalStateException("Кошелёк уже содержит транзакции.");
+        transactions = rows;
+        layoutVersion++;
+        index = new TransactionIndex();
+        for (int i = 0; i < rows.size(); i++) index.add(rows, i);
+        search = savedSearch != null && savedSearch.size() == rows.size() ? savedSearch : SearchIndex.build(rows);
+    }
+
+    /**
+     * Подключает архивные сегменты, прочитанные вместе со снимком.
+     */
+    public void restoreSegments(List<ArchiveSegment> saved) {
+        segments = List.copyOf(saved);
+        layoutVersion++;
+    }
+
+    /**
+     * Число первых строк оперативной части, которые старше указанного дня.
+     */
+    public int rowsBefore(LocalDate day) {
+        return index.lowerRow(new DateRange(day, null));
+    }
+
+    /**
+     * Первые {@code rows} строк оперативной части, скопированные для записи в архив.
+     */
+    public TransactionStore copyRows(int rows) {
+        var out = new TransactionStore();
+        for (int i = 0; i < rows; i++) out.addFrom(transactions, i);
+        return out;
+    }
+
+    /**
+     * Заменяет первые {@code rows} строк оперативной части архивным сегментом, уже записанным на диск.
+     * Кошелёк становится изменённым: снимок нужно записать заново, уже без этих строк.
+     */
+    public void archive(ArchiveSegment segment, int rows) {
+        if (segment.rows() != rows) throw new IllegalArgumentException("Сегмент не совпадает с архивируемыми строками.");
+        var rest = new TransactionStore();
+        for (int i = rows; i < transactions.size(); i++) rest.addFrom(transactions, i);
+        transactions = rest;
+        var all = new ArrayList<>(segments);
+        all.add(segment);
+        segments = List.copyOf(all);
+        version++;
+        rebuildIndexes();
+    }
+
+    /**
+     * Полный пересчёт индексов по списку транзакций. Вызывается один раз после загрузки кошелька.
+     */
+    public void rebuildTotals() {
+        rebuildIndexes();
+    }
+
+    // Закрытая, чтобы конструктор не вызывал переопределяемый метод.
+    private void rebuildIndexes() {
+        if (typeVersions == null) typeVersions = new long[TransactionType.values().length]; // после десериализации
+        if (segments == null) segments = List.of();
+        if (recurring == null) recurring = new TreeMap<>();
+        layoutVersion++;
+        index = new TransactionIndex();
+        for (int i = 0; i < transactions.size(); i++) index.add(transactions, i);
+        search = SearchIndex.build(transactions);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        var fields = in.readFields();
+        ownerLogin = (String) fields.get("ownerLogin", null);
+        categories = (Map<String, Category>) fields.get("categories", null);
+        if (categories == null) categories = new HashMap<>();
+        journalSeq = fields.get("journalSeq", 0L);
+        transactions = new TransactionStore();
+        var rows = (List<Transaction>) fields.get("transactions", null);
+        if (rows != null) for (var t : rows) transactions.add(t);
+    }
+}
@@ -0,0 +1,225 @@
+package model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Неизменяемый срез кошелька на момент {@link Wallet#view()}: транзакции с итогами, архивные сегменты, категории
+ * и бюджеты. Строки и индекс делятся с кошельком без копирования, поэтому срез берётся за O(1), а читать его можно
+ * без блокировки кошелька сколько угодно долго: операции, добавленные позже, в срезе не видны. Срез берётся
+ * под блокировкой кошелька, поэтому изменение, сделанное под одной блокировкой записи (перевод, пакет операций),
+ * видно в нём целиком или не видно вовсе.
+ */
+public final class WalletView {
+
+    private final String ownerLogin;
+    private final TransactionStore transactions;
+    private final TransactionIndex index;
+    private final List<ArchiveSegment> segments;
+    private final Map<String, Category> categories;
+    private final long version;
+    private final long[] typeVersions;
+    private final long categoriesVersion;
+    private final long layoutVersion;
+
+    WalletView(String ownerLogin, TransactionStore transactions, TransactionIndex index, List<ArchiveSegment> segments,
+               Map<String, Category> categories, long version, long[] typeVersions, long categoriesVersion, long layoutVersion) {
+        this.ownerLogin = ownerLogin;
+        this.transactions = transactions;
+        this.index = index;
+        this.segments = segments;
+        this.categories = categories;
+        this.version = version;
+        this.typeVersions = typeVersions;
+        this.categoriesVersion = categoriesVersion;
+        this.layoutVersion = layoutVersion;
+    }
+
+    public String getOwnerLogin() { return ownerLogin; }
+
+    /**
+     * Копии категорий с бюджетами на момент среза. Не изменять.
+     */
+    public Map<String, Category> getCategories() { return categories; }
+
+    /**
+     * Колоночное хранилище оперативной части транзакций (без архива) на момент среза.
+     */
+    public TransactionStore getTransactionStore() { return transactions; }
+
+    public List<ArchiveSegment> getSegments() { return segments; }
+
+    /**
+     * Версии кошелька на момент среза, см. {@link Wallet#getVersion()}.
+     */
+    public long getVersion() { return version; }
+    public long getVersion(TransactionType type) { return typeVersions[type.ordinal()]; }
+    public long getCategoriesVersion() { return categoriesVersion; }
+    public long getLayoutVersion() { return layoutVersion; }
+
+    /**
+     * Число транзакций вместе с архивом; архивные сегменты при этом не читаются.
+     */
+    public long transactionCount() {
+        long n = transactions.size();
+        for (var s : segments) n += s.rows();
+        return n;
+    }
+
+    public long transactionCount(DateRange range) { return transactionCount(index, segments, range); }
+
+    public Money getTotal(TransactionType type) {
+        return getTotal(type, DateRange.ALL);
+    }
+
+    /**
+     * Итог за период: префиксные суммы оперативной части плюс сводки архивных сегментов.
+     */
+    public Money getTotal(TransactionType type, DateRange range) { return total(index, segments, type, range); }
+
+    public Money getCategoryTotal(String category, TransactionType type) {
+        return getCategoryTotal(category, type, DateRange.ALL);
+    }
+
+    public Money getCategoryTotal(String category, TransactionType type, DateRange range) {
+        return categoryTotal(index, segments, category, type, range);
+    }
+
+    public CategoryTotals getCategoryTotals(TransactionType type) {
+        return getCategoryTotals(type, DateRange.ALL);
+    }
+
+    /**
+     * Суммы по категориям за период, отсортированные по названию. Категории без операций этого типа не включаются.
+     */
+    public CategoryTotals getCategoryTotals(TransactionType type, DateRange range) {
+        return categoryTotals(index, segments, type, range);
+    }
+
+    /**
+     * Первая строка периода (включительно) и строка сразу после его конца в оперативной части.
+     */
+    public int lowerRow(DateRange range) { return index.lowerRow(range); }
+    public int upperRow(DateRange range) { return index.upperRow(range); }
+
+    public List<Transaction> getTransactions() { return getTransactions(DateRange.ALL); }
+
+    /**
+     * Транзакции периода в порядке добавления: сначала архивные, затем оперативные.
+     * Архивные сегменты, задевающие период, при этом читаются с диска.
+     */
+    public List<Transaction> getTransactions(DateRange range) { return transactions(transactions, index, segments, range); }
+
+    /**
+     * Обходит строки периода вместе с архивом, не создавая {@link Transaction}: действию передаются хранилище и номер строки в нём.
+     */
+    public void forEachRow(DateRange range, ObjIntConsumer<TransactionStore> action) {
+        forEachRow(transactions, index, segments, range, action);
+    }
+
+    // Расчёты над строками, индексом и архивом. Общие для среза и кошелька: кошелёк считает по живому индексу
+    // под своей блокировкой, не создавая срез.
+
+    static long transactionCount(TransactionIndex index, List<ArchiveSegment> segments, DateRange range) {
+        long n = index.upperRow(range) - index.lowerRow(range);
+        for (var s : segments) n += s.count(range);
+        return n;
+    }
+
+    static Money total(TransactionIndex index, List<ArchiveSegment> segments, TransactionType type, DateRange range) {
+        long sum = index.total(type, index.lowerRow(range), index.upperRow(range));
+        for (var s : segments) sum += s.total(type, range);
+        return Money.ofMinor(sum);
+    }
+
+    static Money categoryTotal(TransactionIndex index, List<ArchiveSegment> segments, String category, TransactionType type,
+                               DateRange range) {
+        return Money.ofMinor(categoryTotal(index, segments, category, type, index.lowerRow(range), index.upperRow(range), range));
+    }
+
+    private static long categoryTotal(TransactionIndex index, List<ArchiveSegment> segments, String category, TransactionType type,
+                                      int lo, int hi, DateRange range) {
+        long sum = index.categoryTotal(category, type, lo, hi);
+        for (var s : segments) sum += s.categoryTotal(category, type, range);
+        return sum;
+    }
+
+    static CategoryTotals categoryTotals(TransactionIndex index, List<ArchiveSegment> segments, TransactionType type, DateRange range) {
+        int lo = index.lowerRow(range);
+        int hi = index.upperRow(range);
+        String[] names;
+        if (segments.isEmpty()) {
+            names = index.categories().toArray(new String[0]);
+        } else {
+            Set<String> all = new HashSet<>(index.categories());
+            for (var s : segments) all.addAll(s.categories());
+            names = all.toArray(new String[0]);
+        }
+        Arrays.sort(names);
+        var sums = new long[names.length];
+        int n = 0;
+        for (var c : names) {
+            long sum = categoryTotal(index, segments, c, type, lo, hi, range);
+            if (sum > 0) {
+                names[n] = c;
+                sums[n++] = sum;
+            }
+        }
+        return n == 0 ? CategoryTotals.EMPTY : new CategoryTotals(names, sums, n);
+    }
+
+    static List<Transaction> transactions(TransactionStore transactions, TransactionIndex index, List<ArchiveSegment> segments,
+                                          DateRange range) {
+        var hot = transactions.asList().subList(index.lowerRow(range), index.upperRow(range));
+        if (segments.isEmpty()) return hot;
+        List<List<Transaction>> parts = new ArrayList<>(segments.size() + 1);
+        for (var s : segments) {
+            var part = s.transactions(range);
+            if (!part.isEmpty()) parts.add(part);
+        }
+        if (parts.isEmpty()) return hot;
+        parts.add(hot);
+        return new Joined(parts);
+    }
+
+    static void forEachRow(TransactionStore transactions, TransactionIndex index, List<ArchiveSegment> segments, DateRange range,
+                           ObjIntConsumer<TransactionStore> action) {
+        for (var s : segments) s.forEachRow(range, action);
+        for (int i = index.lowerRow(range), hi = index.upperRow(range); i < hi; i++) action.accept(transactions, i);
+    }
+
+    /**
+     * Несколько списков строк как один, без копирования.
+     */
+    private static final class Joined extends AbstractList<Transaction> implements RandomAccess {
+        private final List<List<Transaction>> parts;
+        private final int size;
+
+        Joined(List<List<Transaction>> parts) {
+            this.parts = parts;
+            int n = 0;
+            for (var p : parts) n += p.size();
+            this.size = n;
+        }
+
+        @Override
+        public Transaction get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+            for (var p : parts) {
+                if (index < p.size()) return p.get(index);
+                index -= p.size();
+            }
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        @Override
+        public int size() { return size; }
+    }
+}
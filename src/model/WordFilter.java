@@ -0,0 +1,86 @@
+package model;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Фильтр Блума по началам слов архивного сегмента: по нему поиск пропускает сегменты, в которых слов запроса
+ * точно нет, не читая их с диска. В фильтр попадают начала длиной до {@link #PREFIX} символов каждого слова
+ * из {@link SearchIndex#tokens(String)}; слово запроса длиннее проверяется по своим первым {@link #PREFIX} символам.
+ * Ответ «возможно есть» бывает ложным примерно в 1% случаев — тогда сегмент просто читается и ищется.
+ */
+public final class WordFilter {
+
+    static final int PREFIX = 4;
+    private static final int BITS_PER_PREFIX = 10;
+    private static final int HASHES = 7;
+
+    private final long[] bits;
+
+    private WordFilter(long[] bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * Фильтр по словам текстов; пустой, если текстов нет.
+     */
+    static WordFilter of(Iterable<String> texts) {
+        Set<String> prefixes = new HashSet<>();
+        for (var text : texts) {
+            for (var word : SearchIndex.tokens(text)) {
+                for (int len = 1; len <= Math.min(PREFIX, word.length()); len++) prefixes.add(word.substring(0, len));
+            }
+        }
+        var filter = new WordFilter(new long[Math.max(1, (prefixes.size() * BITS_PER_PREFIX + 63) / 64)]);
+        for (var p : prefixes) filter.add(p);
+        return filter;
+    }
+
+    /**
+     * Фильтр, прочитанный из файла.
+     */
+    public static WordFilter restore(long[] bits) {
+        if (bits.length == 0) throw new IllegalArgumentException("Пустой фильтр слов.");
+        return new WordFilter(bits);
+    }
+
+    public long[] bits() { return bits; }
+
+    public long estimatedBytes() { return 16 + 8L * bits.length; }
+
+    /**
+     * {@code false}, если хотя бы одного слова запроса (как начала слова) в сегменте точно нет.
+     */
+    boolean mightContain(String query) {
+        for (var term : SearchIndex.tokens(query)) {
+            if (!contains(term.length() > PREFIX ? term.substring(0, PREFIX) : term)) return false;
+        }
+        return true;
+    }
+
+    private void add(String prefix) {
+        long m = 64L * bits.length;
+        int h1 = prefix.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % m;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean contains(String prefix) {
+        long m = 64L * bits.length;
+        int h1 = prefix.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % m;
+            if ((bits[(int) (bit >>> 6)] & 1L << bit) == 0) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return (h ^ h >>> 16) | 1;
+    }
+}
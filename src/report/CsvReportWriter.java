@@ -0,0 +1,76 @@
+package report;
+
+import model.CategoryTotals;
+import model.DateRange;
+import model.Money;
+import model.Transaction;
+import model.TransactionType;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Отчёт в CSV: одна таблица, в колонке record указан вид строки (total, category, budget, transaction).
+ */
+public class CsvReportWriter implements ReportWriter {
+
+    private final Writer out;
+
+    public CsvReportWriter(Writer out) { this.out = out; }
+
+    @Override
+    public void header(String login, DateRange range) throws IOException {
+        out.append("record,time,type,category,amount,budget,period,remaining,description\n");
+    }
+
+    @Override
+    public void totals(Money income, Money expense) throws IOException {
+        row("total", "", TransactionType.INCOME.name(), "", amount(income), "", "", "", "");
+        row("total", "", TransactionType.EXPENSE.name(), "", amount(expense), "", "", "", "");
+    }
+
+    @Override
+    public void categoryTotals(TransactionType type, CategoryTotals sums) throws IOException {
+        for (int i = 0; i < sums.size(); i++) {
+            row("category", "", type.name(), sums.name(i), Money.formatPlain(sums.minor(i)), "", "", "", "");
+        }
+    }
+
+    @Override
+    public void budgets(List<BudgetLine> budgets) throws IOException {
+        for (var b : budgets) row("budget", "", "", b.category(), "", amount(b.budget()), b.period().name(), amount(b.remaining()), "");
+    }
+
+    @Override
+    public void transaction(Transaction t) throws IOException {
+        row("transaction", t.time().toString(), t.type().name(), t.category(), amount(t.amount()), "", "", "", t.description());
+    }
+
+    @Override
+    public void finish() throws IOException { out.flush(); }
+
+    static String amount(Money m) { return m.toPlainString(); }
+
+    private void row(String... cells) throws IOException {
+        for (int i = 0; i < cells.length; i++) {
+            if (i > 0) out.append(',');
+            cell(cells[i]);
+        }
+        out.append('\n');
+    }
+
+    private void cell(String s) throws IOException {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            out.append(s);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') out.append('"');
+            out.append(c);
+        }
+        out.append('"');
+    }
+}
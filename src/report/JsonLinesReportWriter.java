@@ -0,0 +1,90 @@
+package report;
+
+import model.CategoryTotals;
+import model.DateRange;
+import model.Money;
+import model.Transaction;
+import model.TransactionType;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Отчёт в формате JSON Lines: каждая строка — отдельный объект с полем record.
+ */
+public class JsonLinesReportWriter implements ReportWriter {
+
+    private final Writer out;
+
+    public JsonLinesReportWriter(Writer out) { this.out = out; }
+
+    @Override
+    public void header(String login, DateRange range) throws IOException {
+        out.append("{\"record\":\"header\",\"login\":");
+        string(login);
+        if (range.from() != null) out.append(",\"from\":\"").append(range.from().toString()).append('"');
+        if (range.to() != null) out.append(",\"to\":\"").append(range.to().toString()).append('"');
+        out.append("}\n");
+    }
+
+    @Override
+    public void totals(Money income, Money expense) throws IOException {
+        out.append("{\"record\":\"total\",\"income\":").append(CsvReportWriter.amount(income))
+                .append(",\"expense\":").append(CsvReportWriter.amount(expense)).append("}\n");
+    }
+
+    @Override
+    public void categoryTotals(TransactionType type, CategoryTotals sums) throws IOException {
+        for (int i = 0; i < sums.size(); i++) {
+            out.append("{\"record\":\"category\",\"type\":\"").append(type.name()).append("\",\"category\":");
+            string(sums.name(i));
+            out.append(",\"amount\":").append(Money.formatPlain(sums.minor(i))).append("}\n");
+        }
+    }
+
+    @Override
+    public void budgets(List<BudgetLine> budgets) throws IOException {
+        for (var b : budgets) {
+            out.append("{\"record\":\"budget\",\"category\":");
+            string(b.category());
+            out.append(",\"budget\":").append(CsvReportWriter.amount(b.budget()))
+                    .append(",\"period\":\"").append(b.period().name()).append('"')
+                    .append(",\"remaining\":").append(CsvReportWriter.amount(b.remaining())).append("}\n");
+        }
+    }
+
+    @Override
+    public void transaction(Transaction t) throws IOException {
+        out.append("{\"record\":\"transaction\",\"time\":\"").append(t.time().toString())
+                .append("\",\"type\":\"").append(t.type().name())
+                .append("\",\"amount\":").append(CsvReportWriter.amount(t.amount()))
+                .append(",\"category\":");
+        string(t.category());
+        out.append(",\"description\":");
+        string(t.description());
+        out.append("}\n");
+    }
+
+    @Override
+    public void finish() throws IOException { out.flush(); }
+
+    private void string(String s) throws IOException {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+                    else out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+}
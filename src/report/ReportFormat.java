@@ -0,0 +1,27 @@
+package report;
+
+import exception.FinanceAppException;
+
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Формат отчёта: создаёт {@link ReportWriter} поверх {@link Writer}.
+ */
+public interface ReportFormat {
+
+    ReportFormat TEXT = TextReportWriter::new;
+    ReportFormat CSV = CsvReportWriter::new;
+    ReportFormat JSON = JsonLinesReportWriter::new;
+
+    ReportWriter open(Writer out);
+
+    static ReportFormat byName(String name) {
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "text", "txt" -> TEXT;
+            case "csv" -> CSV;
+            case "json", "jsonl" -> JSON;
+            default -> throw new FinanceAppException("Неизвестный формат отчёта: " + name + " (text, csv, json)");
+        };
+    }
+}
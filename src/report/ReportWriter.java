@@ -0,0 +1,33 @@
+package report;
+
+import model.BudgetPeriod;
+import model.CategoryTotals;
+import model.DateRange;
+import model.Money;
+import model.Transaction;
+import model.TransactionType;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Потоковый приёмник отчёта. Разделы передаются по порядку: заголовок, итоги, суммы по категориям,
+ * бюджеты, затем транзакции по одной и {@link #finish()}. Реализация пишет каждый раздел сразу,
+ * не накапливая отчёт целиком.
+ */
+public interface ReportWriter {
+
+    void header(String login, DateRange range) throws IOException;
+
+    void totals(Money income, Money expense) throws IOException;
+
+    void categoryTotals(TransactionType type, CategoryTotals sums) throws IOException;
+
+    void budgets(List<BudgetLine> budgets) throws IOException;
+
+    void transaction(Transaction t) throws IOException;
+
+    void finish() throws IOException;
+
+    record BudgetLine(String category, Money budget, BudgetPeriod period, Money remaining) { }
+}
@@ -0,0 +1,73 @@
+package report;
+
+import model.BudgetPeriod;
+import model.CategoryTotals;
+import model.DateRange;
+import model.Money;
+import model.Transaction;
+import model.TransactionType;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Текстовый отчёт в том виде, в каком его показывает show-summary.
+ */
+public class TextReportWriter implements ReportWriter {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final Writer out;
+    private long rows;
+
+    public TextReportWriter(Writer out) { this.out = out; }
+
+    @Override
+    public void header(String login, DateRange range) throws IOException {
+        out.append("=== Сводка пользователя: ").append(login).append(" ===\n");
+        if (!range.isAll()) out.append("Период: ").append(range.toString()).append("\n");
+    }
+
+    @Override
+    public void totals(Money income, Money expense) throws IOException {
+        out.append("Общий доход: ").append(income.toString()).append("\n");
+        out.append("Общий расход: ").append(expense.toString()).append("\n");
+    }
+
+    @Override
+    public void categoryTotals(TransactionType type, CategoryTotals sums) throws IOException {
+        out.append(type == TransactionType.INCOME ? "\nДоходы по категориям:\n" : "\nРасходы по категориям:\n");
+        if (sums.isEmpty()) out.append("  (нет)\n");
+        for (int i = 0; i < sums.size(); i++) {
+            out.append("  ").append(sums.name(i)).append(": ").append(Money.format(sums.minor(i))).append("\n");
+        }
+    }
+
+    @Override
+    public void budgets(List<BudgetLine> budgets) throws IOException {
+        out.append("\nБюджеты:\n");
+        if (budgets.isEmpty()) out.append("  (нет)\n");
+        for (var b : budgets) {
+            out.append("  ").append(b.category()).append(": ").append(b.budget().toString());
+            if (b.period() != BudgetPeriod.ALL) out.append(" ").append(b.period().getTitle());
+            out.append(", Остаток: ").append(b.remaining().toString()).append("\n");
+        }
+        out.append("\nТранзакции:\n");
+    }
+
+    @Override
+    public void transaction(Transaction t) throws IOException {
+        rows++;
+        out.append("  [").append(t.time().format(TIME_FORMAT)).append("] ")
+                .append(t.type().name()).append(" ").append(t.amount().toString())
+                .append(" (").append(t.category()).append(") ").append(t.description()).append("\n");
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (rows == 0) out.append("  (нет)\n");
+        out.flush();
+    }
+}
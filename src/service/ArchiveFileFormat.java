@@ -0,0 +1,164 @@
+package service;
+
+import model.ArchiveSegment;
+import model.TransactionStore;
+import model.TransactionType;
+import model.WordFilter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Формат файла архивного сегмента кошелька.
+ * <pre>
+ * magic "FSEG", версия (short), номер сегмента (long)
+ * сводка: строк int, первое и последнее время long (микросекунды эпохи), итоги по типам long[типов],
+ *   категорий int, затем (название, итоги по типам long[типов]),
+ *   фильтр слов {@link model.WordFilter} (с версии 2): длина int, биты long[длина]; 0 — фильтра нет
+ * далее всё сжато Deflater: словарь строк (количество, строки), затем колонки как в снимке кошелька —
+ *   типы byte[n], суммы long[n], время long[n], категории int[n], описания int[n]
+ * </pre>
+ * Сводка не сжата и та же, что хранится в снимке кошелька ({@link WalletFileFormat}), поэтому при входе
+ * файлы сегментов не открываются. Сегмент неизменяем: после записи файл только читается.
+ */
+final class ArchiveFileFormat {
+
+    static final int MAGIC = 0x46534547; // "FSEG"
+    static final short VERSION = 2;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TYPES = TransactionType.values().length;
+
+    private ArchiveFileFormat() {}
+
+    /**
+     * Записывает сегмент через временный файл и возвращает размер файла в байтах.
+     */
+    static long write(Path path, ArchiveSegment segment, TransactionStore rows) throws IOException {
+        var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var file = Files.newOutputStream(tmp)) {
+            var header = new DataOutputStream(new BufferedOutputStream(file, BUFFER_SIZE));
+            header.writeInt(MAGIC);
+            header.writeShort(VERSION);
+            header.writeLong(segment.id());
+            writeSummary(header, segment);
+            header.flush();
+
+            var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try {
+                var out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(file, deflater, BUFFER_SIZE), BUFFER_SIZE));
+                int n = rows.size();
+                out.writeInt(rows.strings());
+                for (int i = 0; i < rows.strings(); i++) JournalFile.writeString(out, rows.string(i));
+                for (int i = 0; i < n; i++) out.writeByte(rows.type(i).ordinal());
+                for (int i = 0; i < n; i++) out.writeLong(rows.amountMinor(i));
+                for (int i = 0; i < n; i++) out.writeLong(rows.timeMicros(i));
+                for (int i = 0; i < n; i++) out.writeInt(rows.categoryId(i));
+                for (int i = 0; i < n; i++) out.writeInt(rows.descriptionId(i));
+                out.close();
+            } finally {
+                deflater.end();
+            }
+        }
+        try (var ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(path);
+    }
+
+    /**
+     * Читает и распаковывает строки сегмента.
+     */
+    static TransactionStore read(Path path, long id) throws IOException {
+        try (var file = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+            var header = new DataInputStream(file);
+            if (header.readInt() != MAGIC) throw new IOException("Неизвестный формат файла архива");
+            short version = header.readShort();
+            if (version < 1 || version > VERSION) throw new IOException("Неподдерживаемая версия файла архива: " + version);
+            if (header.readLong() != id) throw new IOException("Файл архива относится к другому сегменту");
+            int n = readSummary(header, id, null, version >= 2).rows();
+
+            var inflater = new Inflater();
+            try {
+                var in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(file, inflater, BUFFER_SIZE), BUFFER_SIZE));
+                var rows = new TransactionStore();
+                var ids = new int[in.readInt()];
+                for (int i = 0; i < ids.length; i++) ids[i] = rows.intern(JournalFile.readString(in));
+
+                var types = new byte[n];
+                var amounts = new long[n];
+                var times = new long[n];
+                var cats = new int[n];
+                in.readFully(types);
+                for (int i = 0; i < n; i++) amounts[i] = in.readLong();
+                for (int i = 0; i < n; i++) times[i] = in.readLong();
+                for (int i = 0; i < n; i++) cats[i] = ids[in.readInt()];
+
+                var typeValues = TransactionType.values();
+                for (int i = 0; i < n; i++) rows.add(typeValues[types[i]], amounts[i], times[i], cats[i], ids[in.readInt()]);
+                return rows;
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    static void writeSummary(DataOutput out, ArchiveSegment s) throws IOException {
+        out.writeInt(s.rows());
+        out.writeLong(s.firstMicros());
+        out.writeLong(s.lastMicros());
+        for (var type : TransactionType.values()) out.writeLong(s.total(type));
+        out.writeInt(s.categoryTotals().size());
+        for (var e : s.categoryTotals().entrySet()) {
+            JournalFile.writeString(out, e.getKey());
+            for (long v : e.getValue()) out.writeLong(v);
+        }
+        var words = s.words();
+        long[] bits = words == null ? new long[0] : words.bits();
+        out.writeInt(bits.length);
+        for (long v : bits) out.writeLong(v);
+    }
+
+    /**
+     * @param withWords сводка записана с фильтром слов (версия 2 файла сегмента, версия 7 снимка кошелька)
+     */
+    static ArchiveSegment readSummary(DataInput in, long id, ArchiveSegment.Loader loader, boolean withWords) throws IOException {
+        int rows = in.readInt();
+        long first = in.readLong();
+        long last = in.readLong();
+        var totals = new long[TYPES];
+        for (int k = 0; k < TYPES; k++) totals[k] = in.readLong();
+        int categories = in.readInt();
+        Map<String, long[]> byCategory = new HashMap<>(categories * 2);
+        for (int i = 0; i < categories; i++) {
+            var name = JournalFile.readString(in);
+            var sums = new long[TYPES];
+            for (int k = 0; k < TYPES; k++) sums[k] = in.readLong();
+            byCategory.put(name, sums);
+        }
+        WordFilter words = null;
+        if (withWords) {
+            var bits = new long[in.readInt()];
+            for (int i = 0; i < bits.length; i++) bits[i] = in.readLong();
+            if (bits.length > 0) words = WordFilter.restore(bits);
+        }
+        return new ArchiveSegment(id, rows, first, last, totals, byCategory, words, loader);
+    }
+}
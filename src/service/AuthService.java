@@ -3,78 +3,234 @@ package service;
 
 import exception.FinanceAppException;
 import model.User;
-import util.HashUtil;
 
-import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Сервис авторизации
+ * Сервис авторизации.
+ * Учётные записи хранятся в {@link UserStore} (users.db и индекс users.idx): регистрация дописывает одну запись,
+ * вход и проверка существования читают одну запись по индексу. Пароли хешируются PBKDF2 с солью
+ * на пуле {@link CredentialService}; старые хеши SHA-256 заменяются при следующем входе.
+ * Прежние users.dat и users.log однократно переносятся в хранилище при первом запуске и дальше не используются.
+ * Без режима журнала новая запись сбрасывается на диск при сохранении или фоновой записью, в режиме журнала — сразу.
  */
-public class AuthService {
+public class AuthService implements AutoCloseable {
 
-    private final Map<String, String> users = new HashMap<>();
     private static final String USERS_FILE = "users.dat";
+    private static final String USERS_JOURNAL = "users.log";
+    private static final String USERS_STORE = "users.db";
+    private static final String USERS_INDEX = "users.idx";
+
+    private final Path dataDir;
+    private final boolean journaling;
+    private final CredentialService credentials;
+    private final AtomicBoolean unsynced = new AtomicBoolean();
+    private final Set<String> admins = parseAdmins(System.getProperty("finance.admins", ""));
+    private volatile UserStore store;
+
+    public AuthService() { this(Path.of(""), PersistenceService.journalingEnabled()); }
+
+    /**
+     * @param dataDir каталог, в котором лежат файлы пользователей
+     */
+    public AuthService(Path dataDir, boolean journaling) {
+        this(dataDir, journaling, CredentialService.fromSystemProperties());
+    }
+
+    public AuthService(Path dataDir, boolean journaling, CredentialService credentials) {
+        this.dataDir = dataDir;
+        this.journaling = journaling;
+        this.credentials = credentials;
+    }
 
     public void register(String login, String password) {
         validateLoginAndPassword(login, password);
-        if (users.containsKey(login)) throw new FinanceAppException("Пользователь с таким логином уже существует.");
-        users.put(login, HashUtil.sha256(password));
-        saveUsers();
+        if (userExists(login)) throw new FinanceAppException("Пользователь с таким логином уже существует.");
+
+        var hash = credentials.hash(password);
+        try {
+            if (!store().add(login, hash, journaling)) throw new FinanceAppException("Пользователь с таким логином уже существует.");
+        } catch (IOException e) {
+            throw new FinanceAppException("Не удалось сохранить пользователя: " + e.getMessage());
+        }
+        if (!journaling) unsynced.set(true);
     }
 
     public User authenticate(String login, String password) {
         validateLoginAndPassword(login, password);
 
-        var stored = users.get(login);
+        var stored = read(() -> store().find(login));
 
         if (stored == null) throw new FinanceAppException("Пользователь не найден.");
-        if (!stored.equals(HashUtil.sha256(password))) throw new FinanceAppException("Неверный пароль.");
+        if (!credentials.verify(password, stored)) throw new FinanceAppException("Неверный пароль.");
+        if (credentials.needsRehash(stored)) rehash(login, password);
 
         return new User(login);
     }
 
+    /**
+     * Переводит хеш пароля на текущий алгоритм и стоимость; пароль известен только в момент входа.
+     */
+    private void rehash(String login, String password) {
+        try {
+            store().update(login, credentials.hash(password));
+        } catch (IOException e) {
+            System.out.println("Не удалось обновить хеш пароля пользователя " + login + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Администраторы — логины из свойства -Dfinance.admins через запятую; по умолчанию администраторов нет.
+     */
+    public boolean isAdmin(String login) {
+        return login != null && admins.contains(login);
+    }
+
+    private static Set<String> parseAdmins(String list) {
+        Set<String> out = new HashSet<>();
+        for (var login : list.split(",")) if (!login.isBlank()) out.add(login.trim());
+        return Set.copyOf(out);
+    }
+
     public boolean userExists(String login) {
-        return users.containsKey(login);
+        return read(() -> store().contains(login));
     }
 
-    public java.util.Set<String> knownUsers() {
-        return java.util.Set.copyOf(users.keySet());
+    public int userCount() {
+        return read(() -> store().size());
     }
 
+    /**
+     * Логин пользователя по порядковому номеру (0..userCount()-1) или null, если запись повреждена.
+     * Номера не меняются: пользователи только добавляются.
+     */
+    public String loginAt(int index) {
+        return read(() -> store().login(index));
+    }
+
+    /**
+     * Открывает хранилище пользователей; при первом запуске переносит в него users.dat и users.log.
+     */
     public void loadUsers() {
-        var f = new File(USERS_FILE);
-        if (!f.exists()) return;
-
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
-            Object o = ois.readObject();
-            if (o instanceof Map<?, ?> m) {
-                users.clear();
-                m.forEach((k, v) -> users.put(String.valueOf(k), String.valueOf(v)));
-            }
-        } catch (Exception e) {
+        try {
+            store();
+        } catch (IOException e) {
             System.out.println("Не удалось загрузить пользователей: " + e.getMessage());
         }
     }
 
-    public void saveUsers() {
-        var f = new File(USERS_FILE);
+    private UserStore store() throws IOException {
+        var s = store;
+        return s != null ? s : openStore();
+    }
+
+    private synchronized UserStore openStore() throws IOException {
+        if (store != null) return store;
+
+        var storePath = dataDir.resolve(USERS_STORE);
+        if (!Files.exists(storePath) && (Files.exists(dataDir.resolve(USERS_FILE)) || Files.exists(dataDir.resolve(USERS_JOURNAL)))) {
+            migrateLegacy(storePath);
+        }
+        var s = new UserStore(storePath, dataDir.resolve(USERS_INDEX));
+        s.open();
+        store = s;
+        return s;
+    }
+
+    /**
+     * Переносит старую таблицу пользователей во временное хранилище и одним переименованием делает его основным,
+     * поэтому прерванный перенос при следующем запуске просто начинается заново.
+     */
+    private void migrateLegacy(Path storePath) throws IOException {
+        Map<String, String> users = new HashMap<>();
+        var f = dataDir.resolve(USERS_FILE).toFile();
+        if (f.exists()) {
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
+                Object o = ois.readObject();
+                if (o instanceof Map<?, ?> m) m.forEach((k, v) -> users.put(String.valueOf(k), String.valueOf(v)));
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+        var journal = new JournalFile(dataDir.resolve(USERS_JOURNAL));
+        try (journal) {
+            journal.replay(in -> users.put(JournalFile.readString(in), JournalFile.readString(in)));
+        }
+
+        var tmpStore = dataDir.resolve(USERS_STORE + ".tmp");
+        var tmpIndex = dataDir.resolve(USERS_INDEX + ".tmp-migration");
+        Files.deleteIfExists(tmpStore);
+        Files.deleteIfExists(tmpIndex);
+        try (var s = new UserStore(tmpStore, tmpIndex)) {
+            s.open();
+            for (var e : users.entrySet()) {
+                if (e.getKey().getBytes(StandardCharsets.UTF_8).length > UserStore.MAX_LOGIN_BYTES) {
+                    System.out.println("Пользователь не перенесён, слишком длинный логин: " + e.getKey());
+                    continue;
+                }
+                s.add(e.getKey(), e.getValue(), false);
+            }
+        }
+        Files.move(tmpIndex, dataDir.resolve(USERS_INDEX), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmpStore, storePath, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Есть ли зарегистрированные пользователи, ещё не сброшенные на диск.
+     */
+    public boolean hasUnsavedChanges() {
+        return unsynced.get();
+    }
 
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f))) {
-            oos.writeObject(users);
-        } catch (Exception e) {
+    public void saveUsers() {
+        if (!unsynced.getAndSet(false)) return;
+        try {
+            store().force();
+        } catch (IOException e) {
+            unsynced.set(true);
             System.out.println("Не удалось сохранить пользователей: " + e.getMessage());
         }
     }
 
+    @Override
+    public synchronized void close() {
+        credentials.close();
+        if (store == null) return;
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.out.println("Не удалось закрыть хранилище пользователей: " + e.getMessage());
+        }
+    }
+
+    private interface StoreRead<T> {
+        T read() throws IOException;
+    }
+
+    private static <T> T read(StoreRead<T> action) {
+        try {
+            return action.read();
+        } catch (IOException e) {
+            throw new FinanceAppException("Не удалось прочитать пользователей: " + e.getMessage());
+        }
+    }
+
     private void validateLoginAndPassword(String login, String password) {
         if (login == null || login.isBlank()) throw new FinanceAppException("Логин не может быть пустым.");
         if (password == null || password.isBlank()) throw new FinanceAppException("Пароль не может быть пустым.");
-        if (login.contains(File.separator) || login.contains("..")) throw new FinanceAppException("Неверный логин.");
+        // Имена файлов кошелька строятся по хешу логина, поэтому запрещены только управляющие символы.
+        if (login.chars().anyMatch(Character::isISOControl)) throw new FinanceAppException("Неверный логин.");
+        if (login.getBytes(StandardCharsets.UTF_8).length > UserStore.MAX_LOGIN_BYTES) throw new FinanceAppException("Логин слишком длинный.");
     }
 }
@@ -0,0 +1,77 @@
+package service;
+
+import exception.FinanceAppException;
+import util.PasswordHasher;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Хеширование и проверка паролей на отдельном ограниченном пуле потоков.
+ * PBKDF2 намеренно дорог, поэтому наплыв входов занимает только потоки пула и не отнимает процессор
+ * у операций с кошельками. Если очередь пула заполнена, вход отклоняется сразу, а не копится.
+ */
+public class CredentialService implements AutoCloseable {
+
+    private final PasswordHasher hasher;
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * @param threads число потоков проверки
+     * @param queue   сколько запросов может ждать в очереди сверх занятых потоков
+     */
+    public CredentialService(int iterations, int threads, int queue) {
+        this.hasher = new PasswordHasher(iterations);
+        var counter = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue), r -> {
+            var t = new Thread(r, "finance-auth-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Параметры из свойств -Dfinance.kdf.iterations (по умолчанию 100000), -Dfinance.auth.threads
+     * (по умолчанию половина ядер) и -Dfinance.auth.queue (по умолчанию 1000).
+     */
+    public static CredentialService fromSystemProperties() {
+        return new CredentialService(Integer.getInteger("finance.kdf.iterations", 100_000),
+                Integer.getInteger("finance.auth.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                Integer.getInteger("finance.auth.queue", 1000));
+    }
+
+    public String hash(String password) {
+        return run(() -> hasher.hash(password));
+    }
+
+    public boolean verify(String password, String stored) {
+        return run(() -> hasher.verify(password, stored));
+    }
+
+    public boolean needsRehash(String stored) {
+        return hasher.needsRehash(stored);
+    }
+
+    private <T> T run(Callable<T> task) {
+        try {
+            return pool.submit(task).get();
+        } catch (RejectedExecutionException e) {
+            throw new FinanceAppException("Слишком много одновременных входов, попробуйте позже.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FinanceAppException("Проверка пароля прервана.");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Не удалось проверить пароль", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
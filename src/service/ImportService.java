@@ -0,0 +1,224 @@
+package service;
+
+import exception.FinanceAppException;
+import model.Money;
+import model.Transaction;
+import model.TransactionType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Массовый импорт банковских выписок в CSV.
+ * Строки читаются блоками, каждый блок разбирается параллельно, пока читается следующий.
+ * Затем транзакции упорядочиваются по времени и добавляются в кошелёк пакетами через {@link WalletService#importTransactions};
+ * бюджеты проверяются один раз в конце, кошелёк сохраняется один раз.
+ * <p>
+ * Формат строки: дата, тип, сумма, категория[, описание]. Разделитель — запятая или точка с запятой, один на весь файл:
+ * определяется по первой непустой строке (точка с запятой, если она есть в строке вне кавычек).
+ * Дата: ГГГГ-ММ-ДД, ГГГГ-ММ-ДД ЧЧ:ММ или ДД.ММ.ГГГГ. Тип: INCOME/EXPENSE или доход/расход.
+ * Пустые строки пропускаются; заголовком может быть только первая непустая строка, остальные неразобранные строки — ошибки.
+ */
+public class ImportService {
+
+    private static final int CHUNK_SIZE = 50_000;
+    private static final int MAX_REPORTED_ERRORS = 10;
+    private static final DateTimeFormatter RU_DATE = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+    private static final DateTimeFormatter ISO_MINUTES = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    // Маркер пустой строки, которую нужно пропустить.
+    private static final Transaction SKIP = new Transaction(TransactionType.INCOME, Money.ZERO, "", "", LocalDateTime.MIN);
+
+    private final WalletService walletService;
+    private final PersistenceService persistence;
+
+    public ImportService(WalletService walletService, PersistenceService persistence) {
+        this.walletService = walletService;
+        this.persistence = persistence;
+    }
+
+    /**
+     * @param malformed     строки, которые не удалось разобрать; первые из них — в {@code malformedLines}
+     * @param unknownCategory расходы по несуществующим категориям (как и в add-expense, такие не принимаются)
+     */
+    public record ImportResult(long imported, long malformed, List<Long> malformedLines, long unknownCategory, long millis) {
+        public long rowsPerSecond() {
+            long rows = imported + malformed + unknownCategory;
+            return millis == 0 ? rows : rows * 1000 / millis;
+        }
+    }
+
+    public ImportResult importCsv(String login, Path file, Consumer<String> progress) throws IOException {
+        if (!Files.isRegularFile(file)) throw new FinanceAppException("Файл не найден: " + file);
+        long start = System.nanoTime();
+
+        List<Transaction> rows = new ArrayList<>();
+        List<Long> errors = new ArrayList<>();
+        long malformed = 0;
+        long lineNo = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            CompletableFuture<Transaction[]> pending = null;
+            long pendingFirstLine = 0;
+            char sep = 0;
+
+            while (true) {
+                var chunk = new ArrayList<String>(CHUNK_SIZE);
+                String line;
+                while (chunk.size() < CHUNK_SIZE && (line = reader.readLine()) != null) chunk.add(line);
+
+                if (sep == 0) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        if (chunk.get(i).isBlank()) continue;
+                        sep = detectSeparator(chunk.get(i));
+                        if (isHeader(chunk.get(i), sep)) chunk.set(i, ""); // номер строки сохраняется для отчёта об ошибках
+                        break;
+                    }
+                }
+
+                // Разбор очередного блока идёт параллельно, пока читается следующий.
+                var next = chunk.isEmpty() ? null : parseAsync(chunk, sep == 0 ? ',' : sep);
+                if (pending != null) malformed += collect(pending.join(), pendingFirstLine, rows, errors);
+                if (next == null) break;
+
+                pending = next;
+                pendingFirstLine = lineNo + 1;
+                lineNo += chunk.size();
+                progress.accept("Прочитано строк: " + lineNo);
+            }
+        }
+
+        var sorted = rows.toArray(new Transaction[0]);
+        rows = null;
+        Arrays.parallelSort(sorted, Comparator.comparing(Transaction::time));
+        progress.accept("Добавление в кошелёк: " + sorted.length);
+
+        int unknown = walletService.importTransactions(login, Arrays.asList(sorted));
+        walletService.withLoadedWallet(login, w -> persistence.saveWallet(login, w));
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        return new ImportResult(sorted.length - unknown, malformed, errors, unknown, millis);
+    }
+
+    private CompletableFuture<Transaction[]> parseAsync(List<String> chunk, char sep) {
+        return CompletableFuture.supplyAsync(() -> {
+            var parsed = new Transaction[chunk.size()];
+            IntStream.range(0, chunk.size()).parallel().forEach(i -> parsed[i] = parseLine(chunk.get(i), sep));
+            return parsed;
+        });
+    }
+
+    private static long collect(Transaction[] parsed, long firstLine, List<Transaction> rows, List<Long> errors) {
+        long rejected = 0;
+        for (int i = 0; i < parsed.length; i++) {
+            var t = parsed[i];
+            if (t == SKIP) continue;
+            if (t == null) {
+                rejected++;
+                if (errors.size() < MAX_REPORTED_ERRORS) errors.add(firstLine + i);
+            } else rows.add(t);
+        }
+        return rejected;
+    }
+
+    static Transaction parseLine(String line, char sep) {
+        if (line.isBlank()) return SKIP;
+        var cells = splitCsv(line, sep);
+        if (cells.size() < 4) return null;
+
+        var time = parseTime(cells.get(0).trim());
+        if (time == null) return null;
+
+        var type = parseType(cells.get(1).trim());
+        var amount = parseAmount(cells.get(2).trim());
+        var category = cells.get(3).trim();
+        if (type == null || amount == null || !amount.isPositive() || category.isEmpty()) return null;
+
+        var description = cells.size() > 4 ? cells.get(4).trim() : "";
+        return new Transaction(type, amount, category, description, time);
+    }
+
+    /**
+     * Точка с запятой, если она встречается в строке вне кавычек, иначе запятая: в выписках с точкой с запятой
+     * запятая бывает десятичным разделителем суммы.
+     */
+    static char detectSeparator(String line) {
+        boolean inQuote = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') inQuote = !inQuote;
+            else if (c == ';' && !inQuote) return ';';
+        }
+        return ',';
+    }
+
+    /**
+     * Заголовок: ни дата, ни сумма не разбираются.
+     */
+    static boolean isHeader(String line, char sep) {
+        var cells = splitCsv(line, sep);
+        return parseTime(cells.get(0).trim()) == null && (cells.size() < 3 || parseAmount(cells.get(2).trim()) == null);
+    }
+
+    private static LocalDateTime parseTime(String s) {
+        try {
+            if (s.length() == 10 && s.charAt(2) == '.') return LocalDate.parse(s, RU_DATE).atStartOfDay();
+            if (s.length() == 10) return LocalDate.parse(s).atStartOfDay();
+            if (s.length() == 16) return LocalDateTime.parse(s.replace('T', ' '), ISO_MINUTES);
+            return LocalDateTime.parse(s);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static TransactionType parseType(String s) {
+        return switch (s.toLowerCase(Locale.ROOT)) {
+            case "income", "доход" -> TransactionType.INCOME;
+            case "expense", "расход" -> TransactionType.EXPENSE;
+            default -> null;
+        };
+    }
+
+    private static Money parseAmount(String s) {
+        try {
+            return Money.parse(s.replace(" ", "").replace("\u00A0", "").replace("\u202F", ""));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static List<String> splitCsv(String line, char sep) {
+        List<String> cells = new ArrayList<>(6);
+        var sb = new StringBuilder();
+        boolean inQuote = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (inQuote && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    sb.append('"');
+                    i++;
+                } else inQuote = !inQuote;
+            } else if (c == sep && !inQuote) {
+                cells.add(sb.toString());
+                sb.setLength(0);
+            } else sb.append(c);
+        }
+        cells.add(sb.toString());
+        return cells;
+    }
+}
@@ -0,0 +1,180 @@
+package service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал изменений с дозаписью в конец файла.
+ * Каждая запись хранится как [длина][crc32][данные]; оборванный хвост при чтении отбрасывается.
+ * Методы синхронизированы: журнал пользователей пишут параллельные регистрации.
+ */
+final class JournalFile implements Closeable {
+
+    private static final int HEADER_SIZE = 8;
+
+    private final Path path;
+    private FileChannel channel;
+    private int records;
+
+    interface RecordReader {
+        void read(DataInput in) throws IOException;
+    }
+
+    interface RecordWriter {
+        void write(DataOutput out) throws IOException;
+    }
+
+    JournalFile(Path path) { this.path = path; }
+
+    /**
+     * Читает все целые записи. Если последняя запись оборвана или повреждена, файл обрезается до последней целой.
+     */
+    synchronized int replay(RecordReader reader) throws IOException {
+        if (!Files.exists(path)) return 0;
+        open();
+
+        long size = channel.size();
+        var result = scan(channel, size, reader);
+        if (result.end() < size) {
+            System.out.println("Журнал " + path.getFileName() + ": отброшена незавершённая запись.");
+            channel.truncate(result.end());
+        }
+        channel.position(result.end());
+        records = result.count();
+        return result.count();
+    }
+
+    /**
+     * Читает целые записи файла журнала, не открывая его на запись и не обрезая оборванный хвост:
+     * для чтения кошелька в обход кэша, пока журнал может дописываться.
+     */
+    static int read(Path path, RecordReader reader) throws IOException {
+        if (!Files.exists(path)) return 0;
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            return scan(ch, ch.size(), reader).count();
+        }
+    }
+
+    private record ScanResult(long end, int count) { }
+
+    private static ScanResult scan(FileChannel ch, long size, RecordReader reader) throws IOException {
+        long pos = 0;
+        int count = 0;
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+
+        while (pos + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(ch, header, pos);
+            int length = header.getInt(0);
+            int crc = header.getInt(4);
+            if (length < 0 || pos + HEADER_SIZE + length > size) break;
+
+            var body = ByteBuffer.allocate(length);
+            readFully(ch, body, pos + HEADER_SIZE);
+            if (crc != checksum(body.array())) break;
+
+            reader.read(new DataInputStream(new ByteArrayInputStream(body.array())));
+            pos += HEADER_SIZE + length;
+            count++;
+        }
+        return new ScanResult(pos, count);
+    }
+
+    /**
+     * Дописывает запись и дожидается её записи на диск. Возвращает размер записи в байтах.
+     */
+    synchronized int append(RecordWriter writer) throws IOException {
+        return append(List.of(writer));
+    }
+
+    /**
+     * Дописывает несколько записей одной операцией записи и одной синхронизацией с диском.
+     * Каждая запись проверяется отдельно, поэтому при сбое сохраняются целые записи до оборванной.
+     */
+    synchronized int append(List<RecordWriter> writers) throws IOException {
+        var bytes = new ByteArrayOutputStream(64 * writers.size());
+        var out = new DataOutputStream(bytes);
+        var body = new ByteArrayOutputStream(64);
+        for (var writer : writers) {
+            body.reset();
+            writer.write(new DataOutputStream(body));
+            var record = body.toByteArray();
+            out.writeInt(record.length);
+            out.writeInt(checksum(record));
+            out.write(record);
+        }
+        var buf = ByteBuffer.wrap(bytes.toByteArray());
+
+        open();
+        while (buf.hasRemaining()) channel.write(buf);
+        channel.force(false);
+        records += writers.size();
+        return buf.capacity();
+    }
+
+    /**
+     * Количество записей с момента последнего снимка.
+     */
+    synchronized int records() { return records; }
+
+    /**
+     * Очищает журнал после того, как его содержимое попало в снимок.
+     */
+    synchronized void reset() throws IOException {
+        open();
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+        records = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) channel.close();
+        channel = null;
+    }
+
+    static void writeString(DataOutput out, String s) throws IOException {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void open() throws IOException {
+        if (channel != null) return;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) throw new IOException("Неожиданный конец журнала");
+        }
+    }
+
+    private static int checksum(byte[] body) {
+        var crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+}
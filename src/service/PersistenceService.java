@@ -1,56 +1,728 @@
 package service;
 
+import exception.FinanceAppException;
+import metrics.Metrics;
+import model.ArchiveSegment;
+import model.BudgetPeriod;
+import model.Category;
+import model.Money;
+import model.RecurringRule;
+import model.Transaction;
+import model.TransactionStore;
+import model.TransactionType;
 import model.Wallet;
+import util.HashUtil;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Сервис для сохранения и получения данных
+ * Сервис для сохранения и получения данных.
+ * Снимки всех кошельков хранятся в бинарном колоночном формате ({@link WalletFileFormat}) в общем хранилище
+ * {@link WalletStore}: несколько больших файлов и индекс логин → запись вместо файла на пользователя.
+ * Отдельные файлы wallet_&lt;логин&gt;.dat прежних версий (и старого формата сериализации Java) переносятся
+ * в хранилище при первой загрузке и удаляются.
+ * В режиме журнала каждое изменение дописывается в журнал кошелька, а полный снимок
+ * кошелька записывается только раз в {@link #SNAPSHOT_INTERVAL} записей или по команде save.
+ * Имена файлов журнала и архива строятся по хешу логина ({@link #fileKey}), поэтому логин может содержать
+ * любые символы, допустимые для учётной записи.
+ * <p>
+ * После {@link #startWriteBehind} снимки пишет фоновый поток ({@link WriteBehindFlusher}): изменения только
+ * отмечаются, а записываются пакетом: снимки пакета дописываются в хранилище одной записью в канал и одной
+ * синхронизацией с диском, а между пакетами хранилище уплотняется. Без режима журнала изменённый кошелёк попадает в пакет сразу,
+ * в режиме журнала — когда его журнал дорос до порога снимка.
+ * <p>
+ * История старше -Dfinance.archive.afterDays дней переносится при загрузке кошелька в неизменяемые сжатые
+ * сегменты wallet_&lt;ключ&gt;.&lt;номер&gt;.seg ({@link ArchiveFileFormat}); в снимке остаются оперативная часть
+ * и сводки сегментов, а строки сегмента читаются, только когда они нужны запросу.
  */
 public class PersistenceService {
 
     private static final String PREFIX = "wallet_";
     private static final String SUFFIX = ".dat";
+    private static final String JOURNAL_SUFFIX = ".log";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    static final int SNAPSHOT_INTERVAL = 1000;
 
-    public String walletFileName(String login) {
-        return PREFIX + login + SUFFIX;
+    private static final byte OP_TRANSACTION = 1;
+    private static final byte OP_CATEGORY = 2;
+    private static final byte OP_BUDGET = 3;
+    private static final byte OP_PERIOD_BUDGET = 4;
+    // Суммы в копейках; записи 1, 3 и 4 с суммами в double читаются для старых журналов.
+    private static final byte OP_MONEY_TRANSACTION = 5;
+    private static final byte OP_ALERT_BUDGET = 6;
+    private static final byte OP_RECURRING_RULE = 7;
+    private static final byte OP_RECURRING_REMOVE = 8;
+    // Проведённые регулярные операции вместе с новыми сроками правил — одна запись, чтобы после сбоя
+    // не остаться с операциями без сдвинутого срока (повтор) или со сдвинутым сроком без операций (пропуск).
+    private static final byte OP_RECURRING_POSTING = 9;
+
+    private final Path dataDir;
+    private final boolean journaling;
+    private final Clock clock;
+    private final int archiveAfterDays = Integer.getInteger("finance.archive.afterDays", 365);
+    private final int archiveMinRows = Integer.getInteger("finance.archive.minRows", 1000);
+    private final Map<String, JournalFile> journals = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final long storeSegmentBytes = Long.getLong("finance.store.segmentBytes", 64L << 20);
+    private WalletStore store;
+    private volatile WriteBehindFlusher flusher;
+    private volatile boolean deferred;
+
+    public PersistenceService() { this(Path.of(""), journalingEnabled()); }
+
+    /**
+     * @param dataDir каталог с файлами кошельков и журналов
+     */
+    public PersistenceService(Path dataDir, boolean journaling) {
+        this(dataDir, journaling, Clock.systemDefaultZone());
     }
 
-    public void saveWallet(String login, Wallet wallet) {
-        var f = new File(walletFileName(login));
+    /**
+     * @param clock часы, по которым отсчитывается возраст архивируемых строк
+     */
+    public PersistenceService(Path dataDir, boolean journaling, Clock clock) {
+        this.dataDir = dataDir;
+        this.journaling = journaling;
+        this.clock = clock;
+    }
 
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f))) {
-            oos.writeObject(wallet);
-        } catch (Exception e) {
-            System.out.println("Не удалось сохранить кошелёк пользователя " + login + ": " + e.getMessage());
+    /**
+     * Режим журнала включён по умолчанию, отключается свойством -Dfinance.journal=false.
+     */
+    static boolean journalingEnabled() {
+        return !"false".equalsIgnoreCase(System.getProperty("finance.journal"));
+    }
+
+    public boolean isJournaling() { return journaling; }
+
+    Clock getClock() { return clock; }
+
+    /**
+     * Запускает фоновую запись изменений. Интервал и порог задаются свойствами
+     * -Dfinance.flush.intervalMs (по умолчанию 1000) и -Dfinance.flush.maxDirty (по умолчанию 1000 кошельков).
+     */
+    public synchronized void startWriteBehind(AuthService authService, WalletService walletService) {
+        if (flusher != null) return;
+        var f = new WriteBehindFlusher(this, authService, walletService,
+                Long.getLong("finance.flush.intervalMs", 1000), Integer.getInteger("finance.flush.maxDirty", 1000));
+        var thread = new Thread(f, "finance-flusher");
+        thread.setDaemon(true);
+        thread.start();
+        flusher = f;
+    }
+
+    /**
+     * Пакетный режим: журнал не пишется, изменения остаются в памяти до явного {@link #saveAll}.
+     * Записанное до сбоя теряется с последней контрольной точки — режим для повторяемых сценариев.
+     */
+    public void deferWrites() { deferred = true; }
+
+    /**
+     * Ключ файлов кошелька: начало SHA-256 логина в hex. Не зависит от символов логина и его длины.
+     */
+    static String fileKey(String login) {
+        return HashUtil.sha256(login).substring(0, 32);
+    }
+
+    public String journalFileName(String login) {
+        return PREFIX + fileKey(login) + JOURNAL_SUFFIX;
+    }
+
+    public Path segmentPath(String login, long id) {
+        return dataDir.resolve(PREFIX + fileKey(login) + "." + id + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Файл прежних версий, названный по самому логину, или null, если такой логин не мог быть именем файла.
+     */
+    private Path legacyPath(String login, String suffix) {
+        if (login.contains(File.separator) || login.contains("/") || login.contains("..")) return null;
+        var path = dataDir.resolve(PREFIX + login + suffix);
+        return Files.exists(path) ? path : null;
+    }
+
+    /**
+     * Журнал кошелька; журнал прежних версий переименовывается, если {@code migrate}, иначе читается на месте.
+     */
+    private Path journalPath(String login, boolean migrate) throws IOException {
+        var path = dataDir.resolve(journalFileName(login));
+        if (Files.exists(path)) return path;
+        var legacy = legacyPath(login, JOURNAL_SUFFIX);
+        if (legacy == null) return path;
+        if (!migrate) return legacy;
+        Files.move(legacy, path, StandardCopyOption.ATOMIC_MOVE);
+        return path;
+    }
+
+    /**
+     * Хранилище снимков; открывается при первом обращении.
+     */
+    private synchronized WalletStore store() throws IOException {
+        if (store == null) {
+            var s = new WalletStore(dataDir, storeSegmentBytes);
+            s.open();
+            store = s;
         }
+        return store;
     }
 
-    public Wallet loadWallet(String login) {
-        var f = new File(walletFileName(login));
+    private ArchiveSegment.Loader archiveLoader(String login) {
+        return segment -> {
+            long start = System.nanoTime();
+            var path = segmentPath(login, segment.id());
+            if (!Files.exists(path)) {
+                var legacy = legacyPath(login, "." + segment.id() + SEGMENT_SUFFIX);
+                if (legacy != null) path = legacy;
+            }
+            boolean failed = true;
+            try {
+                var rows = ArchiveFileFormat.read(path, segment.id());
+                failed = false;
+                return rows;
+            } finally {
+                Metrics.SEGMENT_LOAD.record(start, failed ? 0 : Files.size(path), failed);
+            }
+        };
+    }
 
-        if (!f.exists()) return new Wallet(login);
+    /**
+     * Записывает снимок кошелька. Возвращает false, если сохранить не удалось (сообщение уже выведено).
+     */
+    public boolean saveWallet(String login, Wallet wallet) {
+        // Кошелёк сохраняется под блокировкой чтения, поэтому два сохранения одного кошелька упорядочиваются здесь.
+        synchronized (wallet) {
+            long version = wallet.getVersion();
+            long start = System.nanoTime();
+            long bytes = 0;
+            try {
+                var s = store();
+                bytes = s.putAll(List.of(new WalletStore.Put(login, s.nextTicket(), WalletFileFormat.encode(wallet))));
+                if (journaling) journal(login).reset();
+                wallet.markSaved(version);
+                Metrics.WALLET_SAVE.record(start, bytes, false);
+                return true;
+            } catch (Exception e) {
+                Metrics.WALLET_SAVE.record(start, bytes, true);
+                System.out.println("Не удалось сохранить кошелёк пользователя " + login + ": " + e.getMessage());
+                return false;
+            }
+        }
+    }
 
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
-            Object o = ois.readObject();
-            if (o instanceof Wallet w) return w;
+    /**
+     * Готовит кошелёк к выгрузке из памяти: изменения, не вошедшие в снимок, записываются, журнал закрывается.
+     * Возвращает false, если снимок записать не удалось — такой кошелёк выгружать нельзя.
+     */
+    public boolean release(String login, Wallet wallet) {
+        if (wallet.isDirty() && !saveWallet(login, wallet)) return false;
+        var journal = journals.remove(login);
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.out.println("Не удалось закрыть журнал пользователя " + login + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Загружает кошелёк со снимка и журнала. Если снимок, старый файл или журнал прочитать не удалось, бросает
+     * {@link FinanceAppException}, а не подставляет пустой кошелёк: тот записался бы поверх целой записи при первой
+     * же операции, а уплотнение удалило бы её. Запись остаётся на месте, и кошелёк не загружается, пока её не восстановят.
+     */
+    public Wallet loadWallet(String login) {
+        Path legacy = null;
+        Wallet w = null;
+        long start = System.nanoTime();
+        long bytes = 0;
+
+        try {
+            var snapshot = store().get(login);
+            if (snapshot != null) {
+                bytes = snapshot.remaining();
+                w = WalletFileFormat.read(snapshot, archiveLoader(login));
+            } else if ((legacy = legacyPath(login, SUFFIX)) != null) {
+                bytes = Files.size(legacy);
+                w = readLegacyFile(login, legacy);
+            }
+            if (w == null) w = new Wallet(login);
+            else w.markSaved(w.getVersion());
+            if (journaling) replay(login, w);
         } catch (Exception e) {
+            Metrics.WALLET_LOAD.record(start, bytes, true);
             System.out.println("Не удалось загрузить кошелёк пользователя " + login + ": " + e.getMessage());
+            throw new FinanceAppException("Кошелёк пользователя " + login + " не загружен: его запись не читается ("
+                    + e.getMessage() + "). Данные не изменены.");
+        }
+        Metrics.WALLET_LOAD.record(start, bytes, false);
+        boolean archived = archiveOld(login, w);
+        // Однократная миграция: отдельный файл прежних версий переносится в хранилище и удаляется.
+        if ((legacy != null || archived) && saveWallet(login, w) && legacy != null) {
+            try {
+                Files.deleteIfExists(legacy);
+            } catch (IOException e) {
+                System.out.println("Не удалось удалить старый файл кошелька " + legacy + ": " + e.getMessage());
+            }
+        }
+        return w;
+    }
+
+    private Wallet readLegacyFile(String login, Path f) throws IOException, ClassNotFoundException {
+        return WalletFileFormat.isBinary(f) ? WalletFileFormat.read(f, archiveLoader(login)) : loadLegacy(f);
+    }
+
+    /**
+     * Переносит в новый архивный сегмент строки старше -Dfinance.archive.afterDays дней (по умолчанию 365; 0 — не архивировать),
+     * если их набралось не меньше -Dfinance.archive.minRows (по умолчанию 1000). Вызывается при загрузке, пока кошелёк
+     * ещё не виден другим потокам. Сегмент записывается раньше снимка: если снимок записать не удалось, строки остаются
+     * в снимке, а сегмент с тем же номером перезапишется при следующей загрузке.
+     */
+    private boolean archiveOld(String login, Wallet w) {
+        if (archiveAfterDays <= 0) return false;
+        int rows = w.rowsBefore(LocalDate.now(clock).minusDays(archiveAfterDays));
+        if (rows < archiveMinRows) return false;
+
+        var segments = w.getSegments();
+        long id = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).id() + 1;
+        var store = w.copyRows(rows);
+        var segment = ArchiveSegment.summarize(id, store, archiveLoader(login));
+        long start = System.nanoTime();
+        try {
+            long bytes = ArchiveFileFormat.write(segmentPath(login, id), segment, store);
+            Metrics.SEGMENT_WRITE.record(start, bytes, false);
+        } catch (IOException e) {
+            Metrics.SEGMENT_WRITE.record(start, 0, true);
+            System.out.println("Не удалось записать архив пользователя " + login + ": " + e.getMessage());
+            return false;
+        }
+        w.archive(segment, rows);
+        return true;
+    }
+
+    /**
+     * Читает кошелёк только для чтения: снимок и журнал, без открытия журнала на запись, миграции старого формата
+     * и починки файлов. Для обхода кошельков, которые не нужно держать в памяти.
+     */
+    public Wallet readWallet(String login) {
+        Wallet w = null;
+        long start = System.nanoTime();
+        long bytes = 0;
+        boolean failed = false;
+        try {
+            var snapshot = store().get(login);
+            Path legacy;
+            if (snapshot != null) {
+                bytes = snapshot.remaining();
+                w = WalletFileFormat.read(snapshot, archiveLoader(login));
+            } else if ((legacy = legacyPath(login, SUFFIX)) != null) {
+                bytes = Files.size(legacy);
+                w = readLegacyFile(login, legacy);
+            }
+            if (w == null) w = new Wallet(login);
+            if (journaling) {
+                var wallet = w;
+                JournalFile.read(journalPath(login, false), in -> {
+                    long seq = in.readLong();
+                    if (seq <= wallet.getJournalSeq()) return;
+                    apply(wallet, in.readByte(), in);
+                    wallet.setJournalSeq(seq);
+                });
+            }
+        } catch (Exception e) {
+            failed = true;
+            System.out.println("Не удалось прочитать кошелёк пользователя " + login + ": " + e.getMessage());
+            if (w == null) w = new Wallet(login);
+        }
+        Metrics.WALLET_LOAD.record(start, bytes, failed);
+        return w;
+    }
+
+    private void replay(String login, Wallet w) throws IOException {
+        journal(login).replay(in -> {
+            long seq = in.readLong();
+            if (seq <= w.getJournalSeq()) return; // уже содержится в снимке
+            apply(w, in.readByte(), in);
+            w.setJournalSeq(seq);
+        });
+    }
+
+    private Wallet loadLegacy(Path f) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new LegacyObjectInputStream(Files.newInputStream(f))) {
+            Object o = ois.readObject();
+            if (o instanceof Wallet w) {
+                w.rebuildTotals();
+                return w;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Поток старых сериализованных кошельков: в них сумма транзакции — double,
+     * поэтому транзакции читаются как {@link LegacyTransaction} и заменяются на {@link Transaction}.
+     */
+    private static final class LegacyObjectInputStream extends ObjectInputStream {
+        LegacyObjectInputStream(InputStream in) throws IOException { super(in); }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            var desc = super.readClassDescriptor();
+            return desc.getName().equals(Transaction.class.getName()) ? ObjectStreamClass.lookup(LegacyTransaction.class) : desc;
+        }
+    }
+
+    private record LegacyTransaction(TransactionType type, double amount, String category, String description,
+                                     LocalDateTime time) implements Serializable {
+        private Object readResolve() {
+            return new Transaction(type, Money.ofDouble(amount), category, description, time);
         }
+    }
+
+    public void journalTransaction(Wallet w, Transaction t) {
+        append(w, OP_MONEY_TRANSACTION, List.of(transactionRecord(t)));
+    }
+
+    /**
+     * Журналирует несколько транзакций кошелька одной дозаписью: одна синхронизация с диском на весь набор.
+     */
+    public void journalTransactions(Wallet w, List<Transaction> transactions) {
+        List<JournalFile.RecordWriter> bodies = new ArrayList<>(transactions.size());
+        for (var t : transactions) bodies.add(transactionRecord(t));
+        append(w, OP_MONEY_TRANSACTION, bodies);
+    }
+
+    private static JournalFile.RecordWriter transactionRecord(Transaction t) {
+        return out -> {
+            out.writeByte(t.type().ordinal());
+            out.writeLong(t.amount().minor());
+            JournalFile.writeString(out, t.category());
+            JournalFile.writeString(out, t.description());
+            out.writeLong(t.time().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(t.time().getNano());
+        };
+    }
+
+    public void journalCategory(Wallet w, String category) {
+        append(w, OP_CATEGORY, List.of(out -> JournalFile.writeString(out, category)));
+    }
+
+    public void journalBudget(Wallet w, Category c) {
+        append(w, OP_ALERT_BUDGET, List.of(out -> {
+            JournalFile.writeString(out, c.getName());
+            out.writeLong(c.getBudget().minor());
+            out.writeByte(c.getBudgetPeriod().ordinal());
+            var thresholds = c.getAlertThresholds();
+            out.writeByte(thresholds.length);
+            for (int p : thresholds) out.writeShort(p);
+        }));
+    }
+
+    public void journalRecurringRule(Wallet w, RecurringRule rule) {
+        append(w, OP_RECURRING_RULE, List.of(out -> writeRule(out, rule)));
+    }
+
+    public void journalRecurringRemoval(Wallet w, long ruleId) {
+        append(w, OP_RECURRING_REMOVE, List.of(out -> out.writeLong(ruleId)));
+    }
+
+    /**
+     * Журналирует проведённые регулярные операции и новые сроки их правил одной записью.
+     */
+    public void journalRecurringPosting(Wallet w, List<RecurringRule> advanced, List<Transaction> postings) {
+        append(w, OP_RECURRING_POSTING, List.of(out -> {
+            out.writeInt(advanced.size());
+            for (var r : advanced) {
+                out.writeLong(r.id());
+                out.writeLong(r.nextDue() == null ? Long.MIN_VALUE : TransactionStore.toEpochMicros(r.nextDue()));
+            }
+            out.writeInt(postings.size());
+            for (var t : postings) transactionRecord(t).write(out);
+        }));
+    }
+
+    private static void writeRule(DataOutput out, RecurringRule r) throws IOException {
+        out.writeLong(r.id());
+        out.writeByte(r.type().ordinal());
+        out.writeLong(r.amount().minor());
+        JournalFile.writeString(out, r.category());
+        JournalFile.writeString(out, r.description());
+        JournalFile.writeString(out, r.schedule().spec());
+        out.writeLong(TransactionStore.toEpochMicros(r.start()));
+        out.writeLong(r.nextDue() == null ? Long.MIN_VALUE : TransactionStore.toEpochMicros(r.nextDue()));
+    }
+
+    private static RecurringRule readRule(DataInput in) throws IOException {
+        long id = in.readLong();
+        var type = TransactionType.values()[in.readByte()];
+        var amount = Money.ofMinor(in.readLong());
+        var category = JournalFile.readString(in);
+        var description = JournalFile.readString(in);
+        var schedule = WalletFileFormat.parseSchedule(JournalFile.readString(in));
+        var start = TransactionStore.fromEpochMicros(in.readLong());
+        long next = in.readLong();
+        return new RecurringRule(id, type, amount, category, description, schedule, start,
+                next == Long.MIN_VALUE ? null : TransactionStore.fromEpochMicros(next));
+    }
+
+    private static Transaction readTransaction(DataInput in) throws IOException {
+        var type = TransactionType.values()[in.readByte()];
+        var amount = Money.ofMinor(in.readLong());
+        var category = JournalFile.readString(in);
+        var description = JournalFile.readString(in);
+        var time = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+        return new Transaction(type, amount, category, description, time);
+    }
+
+    private void append(Wallet w, byte op, List<JournalFile.RecordWriter> bodies) {
+        if (!journaling || deferred) {
+            markDirty(w.getOwnerLogin());
+            return;
+        }
+
+        var login = w.getOwnerLogin();
+        long seq = w.getJournalSeq();
+        List<JournalFile.RecordWriter> records = new ArrayList<>(bodies.size());
+        for (var body : bodies) {
+            long recordSeq = ++seq;
+            records.add(out -> {
+                out.writeLong(recordSeq);
+                out.writeByte(op);
+                body.write(out);
+            });
+        }
+        long start = System.nanoTime();
+        try {
+            var journal = journal(login);
+            int bytes = journal.append(records);
+            Metrics.JOURNAL_APPEND.record(start, bytes, false);
+            w.setJournalSeq(seq);
+            if (journal.records() >= SNAPSHOT_INTERVAL) {
+                if (flusher != null) markDirty(login);
+                else saveWallet(login, w);
+            }
+        } catch (IOException e) {
+            Metrics.JOURNAL_APPEND.record(start, 0, true);
+            System.out.println("Не удалось записать журнал пользователя " + login + ": " + e.getMessage());
+        }
+    }
+
+    private void apply(Wallet w, byte op, DataInput in) throws IOException {
+        switch (op) {
+            case OP_TRANSACTION, OP_MONEY_TRANSACTION -> {
+                var type = TransactionType.values()[in.readByte()];
+                var amount = op == OP_TRANSACTION ? Money.ofDouble(in.readDouble()) : Money.ofMinor(in.readLong());
+                var category = JournalFile.readString(in);
+                var description = JournalFile.readString(in);
+                var time = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+                w.getCategories().computeIfAbsent(category, Category::new);
+                w.addTransaction(new Transaction(type, amount, category, description, time));
+            }
+            case OP_CATEGORY -> w.getCategories().computeIfAbsent(JournalFile.readString(in), Category::new);
+            case OP_BUDGET -> {
+                var category = JournalFile.readString(in);
+                w.getCategories().computeIfAbsent(category, Category::new).setBudget(Money.ofDouble(in.readDouble()));
+            }
+            case OP_PERIOD_BUDGET -> {
+                var c = w.getCategories().computeIfAbsent(JournalFile.readString(in), Category::new);
+                c.setBudget(Money.ofDouble(in.readDouble()));
+                c.setBudgetPeriod(BudgetPeriod.values()[in.readByte()]);
+            }
+            case OP_ALERT_BUDGET -> {
+                var c = w.getCategories().computeIfAbsent(JournalFile.readString(in), Category::new);
+                c.setBudget(Money.ofMinor(in.readLong()));
+                c.setBudgetPeriod(BudgetPeriod.values()[in.readByte()]);
+                var thresholds = new int[in.readUnsignedByte()];
+                for (int i = 0; i < thresholds.length; i++) thresholds[i] = in.readShort();
+                c.setAlertThresholds(thresholds);
+            }
+            case OP_RECURRING_RULE -> w.putRecurringRule(readRule(in));
+            case OP_RECURRING_REMOVE -> w.removeRecurringRule(in.readLong());
+            case OP_RECURRING_POSTING -> {
+                int rules = in.readInt();
+                for (int i = 0; i < rules; i++) {
+                    var rule = w.getRecurringRule(in.readLong());
+                    long next = in.readLong();
+                    if (rule != null) w.putRecurringRule(rule.withNextDue(next == Long.MIN_VALUE ? null : TransactionStore.fromEpochMicros(next)));
+                }
+                var postings = new Transaction[in.readInt()];
+                for (int i = 0; i < postings.length; i++) {
+                    postings[i] = readTransaction(in);
+                    w.getCategories().computeIfAbsent(postings[i].category(), Category::new);
+                }
+                w.addTransactions(List.of(postings));
+            }
+            default -> throw new IOException("Неизвестная запись журнала: " + op);
+        }
+    }
+
+    private JournalFile journal(String login) {
+        return journals.computeIfAbsent(login, l -> {
+            try {
+                return new JournalFile(journalPath(l, true));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось перенести журнал пользователя " + l + ": " + e.getMessage(), e);
+            }
+        });
+    }
+
+    private void markDirty(String login) {
+        var f = flusher;
+        if (f == null) return;
+        dirty.add(login);
+        if (dirty.size() >= f.maxDirty()) f.wake();
+    }
 
-        return new Wallet(login);
+    /**
+     * Фиксирует изменения после команды. В режиме журнала записи уже на диске, полная перезапись не нужна;
+     * при фоновой записи изменения уже отмечены и будут записаны пакетом, в пакетном режиме — при {@link #saveAll}.
+     */
+    public void commit(AuthService authService, WalletService walletService) {
+        if (!journaling && flusher == null && !deferred) saveAll(authService, walletService);
     }
 
+    /**
+     * Синхронно записывает все изменения: таблицу пользователей и каждый загруженный кошелёк, изменённый после последнего снимка.
+     * Принятые, но ещё не рассчитанные переводы сначала рассчитываются; сбой расчёта не мешает записи.
+     */
     public void saveAll(AuthService authService, WalletService walletService) {
-        authService.saveUsers();
+        try {
+            walletService.settlePending();
+        } catch (RuntimeException e) {
+            System.out.println("Не удалось рассчитать переводы: " + e.getMessage());
+        }
+        if (authService.hasUnsavedChanges()) authService.saveUsers();
+        writeBatch(walletService, walletService.loadedLogins());
+    }
+
+    /**
+     * Один пакет фоновой записи: накопленные изменённые кошельки и, если нужно, таблица пользователей.
+     */
+    void flushDirty(AuthService authService, WalletService walletService) {
+        if (authService.hasUnsavedChanges()) authService.saveUsers();
+
+        List<String> batch = new ArrayList<>();
+        for (var it = dirty.iterator(); it.hasNext(); ) {
+            batch.add(it.next());
+            it.remove();
+        }
+        writeBatch(walletService, batch);
+    }
 
-        for (var login : authService.knownUsers()) {
-            var w = walletService.getWalletIfLoaded(login);
-            if (w != null) saveWallet(login, w);
+    private record Pending(String login, Wallet wallet, long version, long journalSeq) { }
+
+    /**
+     * Записывает изменённые кошельки одним пакетом: снимки кодируются под блокировкой чтения каждого кошелька,
+     * затем дописываются в хранилище одной записью в канал и одной синхронизацией с диском. После записи
+     * журнал кошелька сбрасывается, только если в него ничего не дописали, пока пакет писался.
+     */
+    private void writeBatch(WalletService walletService, List<String> logins) {
+        WalletStore s;
+        try {
+            s = store();
+        } catch (IOException e) {
+            System.out.println("Не удалось открыть хранилище кошельков: " + e.getMessage());
+            return;
+        }
+
+        List<Pending> pending = new ArrayList<>();
+        List<WalletStore.Put> puts = new ArrayList<>();
+        for (var login : logins) {
+            walletService.withLoadedWallet(login, w -> {
+                if (!w.isDirty()) return;
+                synchronized (w) {
+                    try {
+                        puts.add(new WalletStore.Put(login, s.nextTicket(), WalletFileFormat.encode(w)));
+                        pending.add(new Pending(login, w, w.getVersion(), w.getJournalSeq()));
+                    } catch (IOException e) {
+                        System.out.println("Не удалось сохранить кошелёк пользователя " + login + ": " + e.getMessage());
+                    }
+                }
+            });
+        }
+        if (puts.isEmpty()) return;
+
+        long start = System.nanoTime();
+        try {
+            s.putAll(puts);
+        } catch (IOException e) {
+            for (var p : pending) Metrics.WALLET_SAVE.record(start, 0, true);
+            System.out.println("Не удалось сохранить кошельки: " + e.getMessage());
+            return;
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            var p = pending.get(i);
+            Metrics.WALLET_SAVE.record(start, puts.get(i).snapshot().remaining(), false);
+            walletService.withLoadedWallet(p.login, w -> {
+                if (w != p.wallet) return; // кошелёк выгружен и сохранён при выгрузке
+                synchronized (w) {
+                    try {
+                        if (journaling && w.getJournalSeq() == p.journalSeq) journal(p.login).reset();
+                    } catch (IOException e) {
+                        System.out.println("Не удалось сбросить журнал пользователя " + p.login + ": " + e.getMessage());
+                    }
+                    w.markSaved(p.version);
+                }
+            });
+        }
+    }
+
+    /**
+     * Один шаг уплотнения хранилища кошельков; вызывается фоновой записью между пакетами.
+     */
+    void compactStore() {
+        WalletStore s;
+        synchronized (this) {
+            s = store;
+        }
+        if (s == null) return;
+        try {
+            s.compact();
+        } catch (IOException e) {
+            System.out.println("Не удалось уплотнить хранилище кошельков: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Закрывает хранилище кошельков и журналы.
+     */
+    public synchronized void close() {
+        for (var journal : journals.values()) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.out.println("Не удалось закрыть журнал: " + e.getMessage());
+            }
+        }
+        journals.clear();
+        if (store == null) return;
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.out.println("Не удалось закрыть хранилище кошельков: " + e.getMessage());
         }
+        store = null;
     }
 }
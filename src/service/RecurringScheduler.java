@@ -0,0 +1,122 @@
+package service;
+
+import model.RecurringRule;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Планировщик регулярных операций. Следующее срабатывание каждого правила стоит в иерархическом колесе таймеров
+ * ({@link TimingWheel}) с тиком в минуту, поэтому шаг планировщика не зависит от числа правил: просматриваются
+ * только наступившие. Правила кошелька попадают в колесо при его загрузке; пропущенные за время простоя операции
+ * проводятся при загрузке одним пакетом ({@link WalletService}), а в колесо ставится уже следующее срабатывание.
+ * Время берётся из часов сервиса кошельков, поэтому шаг можно выполнить вручную ({@link #runDue()}) с заданными часами.
+ */
+final class RecurringScheduler implements Runnable {
+
+    private record Key(String login, long ruleId) { }
+
+    private final WalletService wallets;
+    private final PersistenceService persistence;
+    private final AuthService authService;
+    private final Clock clock;
+    private final long intervalMs;
+    private final TimingWheel<Key> wheel;
+    private final Map<Key, TimingWheel.Timer<Key>> timers = new HashMap<>();
+    private volatile Thread thread;
+
+    RecurringScheduler(WalletService wallets, PersistenceService persistence, AuthService authService, Clock clock, long intervalMs) {
+        this.wallets = wallets;
+        this.persistence = persistence;
+        this.authService = authService;
+        this.clock = clock;
+        this.intervalMs = intervalMs;
+        this.wheel = new TimingWheel<>(tick(LocalDateTime.now(clock)));
+    }
+
+    /**
+     * Интервал проверки в фоне -Dfinance.recurring.intervalMs (по умолчанию 1000).
+     */
+    static RecurringScheduler fromSystemProperties(WalletService wallets, PersistenceService persistence,
+                                                   AuthService authService, Clock clock) {
+        return new RecurringScheduler(wallets, persistence, authService, clock, Long.getLong("finance.recurring.intervalMs", 1000));
+    }
+
+    static long tick(LocalDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    synchronized void start() {
+        if (thread != null) return;
+        var t = new Thread(this, "finance-recurring");
+        t.setDaemon(true);
+        t.start();
+        thread = t;
+    }
+
+    /**
+     * Ставит правило на его следующее срабатывание или снимает, если оно больше не срабатывает.
+     */
+    synchronized void schedule(String login, RecurringRule rule) {
+        var key = new Key(login, rule.id());
+        if (rule.nextDue() == null) {
+            cancel(login, rule.id());
+            return;
+        }
+        wheel.schedule(timers.computeIfAbsent(key, TimingWheel.Timer::new), tick(rule.nextDue()));
+    }
+
+    synchronized void cancel(String login, long ruleId) {
+        var timer = timers.remove(new Key(login, ruleId));
+        if (timer != null) wheel.cancel(timer);
+    }
+
+    synchronized int scheduled() {
+        return wheel.size();
+    }
+
+    /**
+     * Проводит наступившие операции: продвигает колесо до текущей минуты и проводит по кошельку все его наступившие
+     * правила. Возвращает число кошельков, получивших операции.
+     */
+    int runDue() {
+        Set<String> logins = new LinkedHashSet<>();
+        synchronized (this) {
+            wheel.advance(tick(LocalDateTime.now(clock)), key -> {
+                timers.remove(key);
+                logins.add(key.login);
+            });
+        }
+        int posted = 0;
+        for (var login : logins) {
+            try {
+                if (wallets.postRecurring(login) > 0) posted++;
+            } catch (RuntimeException e) {
+                // Правила кошелька снова встанут в колесо при его следующей загрузке.
+                System.out.println("Не удалось провести регулярные операции пользователя " + login + ": " + e.getMessage());
+            }
+        }
+        return posted;
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if (runDue() > 0) persistence.commit(authService, wallets);
+            } catch (RuntimeException e) {
+                System.out.println("Не удалось провести регулярные операции: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package service;
+
+import model.DateRange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Кэш разделов сводки (итоги, суммы по категориям, бюджеты) по логину, разделу и периоду.
+ * Каждый раздел хранится с отметкой версий тех частей кошелька, от которых он зависит ({@link Stamp}),
+ * поэтому транзакция сбрасывает только затронутые ею разделы, а не всю сводку.
+ * Разделы сгруппированы по кошельку: поиск блокирует только группу своего кошелька, а не весь кэш.
+ * Объём ограничен оценкой в байтах, при превышении вытесняются разделы давно не использованных кошельков.
+ * Разделы кошелька забываются при его выгрузке ({@link #forget}) одним удалением группы: новый экземпляр
+ * начинает версии заново.
+ */
+public class SummaryCache {
+
+    public record Stats(long hits, long misses, long evictions, int entries, long estimatedBytes) { }
+
+    enum Section { TOTALS, INCOME, EXPENSE, BUDGETS }
+
+    /**
+     * Отметка версий раздела. Раздел верен, если совпадает {@code fixed} и при этом либо не изменилась граница строк
+     * {@code rows} (строки только дописываются, пока не изменился порядок), либо версии {@code versions}
+     * (добавлены только строки, не влияющие на раздел).
+     */
+    record Stamp(long[] fixed, long rows, long[] versions) {
+
+        boolean covers(Stamp current) {
+            return Arrays.equals(fixed, current.fixed)
+                    && (rows == current.rows || Arrays.equals(versions, current.versions));
+        }
+    }
+
+    private record Key(Section section, DateRange range) { }
+
+    private record Entry(Stamp stamp, Object value, long bytes) { }
+
+    /**
+     * Разделы одного кошелька. Обращения к разным кошелькам не делят блокировку; {@code removed} выставляется
+     * при выгрузке, чтобы запоздавшее вычисление не положило раздел в уже забытую группу.
+     */
+    private static final class WalletEntries {
+        final Map<Key, Entry> entries = new HashMap<>();
+        volatile long lastAccess = System.nanoTime();
+        long bytes;
+        boolean removed;
+    }
+
+    private static final long ENTRY_OVERHEAD = 160;
+
+    private final Map<String, WalletEntries> wallets = new ConcurrentHashMap<>();
+    private final long maxBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger entryCount = new AtomicInteger();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SummaryCache(long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("Лимит кэша сводок должен быть положительным.");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Лимит из свойства -Dfinance.summaryCache.maxBytes; по умолчанию 16 МБ.
+     */
+    public static SummaryCache fromSystemProperties() {
+        return new SummaryCache(Long.getLong("finance.summaryCache.maxBytes", 16L << 20));
+    }
+
+    /**
+     * Раздел из кэша, если его отметка покрывает текущую, иначе вычисляет и запоминает его.
+     * Вычисление идёт без блокировки кэша; вызывающий держит блокировку чтения кошелька.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String login, Section section, DateRange range, Stamp stamp, Supplier<T> compute, ToLongFunction<T> size) {
+        var key = new Key(section, range);
+        var group = wallets.computeIfAbsent(login, l -> new WalletEntries());
+        group.lastAccess = System.nanoTime();
+        synchronized (group) {
+            var e = group.entries.get(key);
+            if (e != null && e.stamp.covers(stamp)) {
+                hits.increment();
+                return (T) e.value;
+            }
+        }
+        misses.increment();
+
+        T value = compute.get();
+        long n = ENTRY_OVERHEAD + size.applyAsLong(value);
+        if (n > maxBytes / 4) return value;
+
+        synchronized (group) {
+            if (group.removed) return value;
+            var old = group.entries.put(key, new Entry(stamp, value, n));
+            long delta = n - (old == null ? 0 : old.bytes);
+            group.bytes += delta;
+            bytes.addAndGet(delta);
+            if (old == null) entryCount.incrementAndGet();
+        }
+        if (bytes.get() > maxBytes) evict();
+        return value;
+    }
+
+    /**
+     * Вытесняет разделы давно не использованных кошельков, пока объём не станет не больше 90% лимита.
+     * Вытесняет один поток, остальные в это время не ждут.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) return;
+        try {
+            var byAge = new ArrayList<>(wallets.entrySet());
+            byAge.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+            for (var e : byAge) {
+                if (bytes.get() <= maxBytes * 9 / 10) break;
+                if (wallets.remove(e.getKey(), e.getValue())) evictions.add(drop(e.getValue()));
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Удаляет все разделы пользователя. Вызывается при выгрузке кошелька.
+     */
+    void forget(String login) {
+        var group = wallets.remove(login);
+        if (group != null) drop(group);
+    }
+
+    private int drop(WalletEntries group) {
+        synchronized (group) {
+            group.removed = true;
+            int n = group.entries.size();
+            bytes.addAndGet(-group.bytes);
+            entryCount.addAndGet(-n);
+            group.entries.clear();
+            group.bytes = 0;
+            return n;
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), entryCount.get(), bytes.get());
+    }
+}
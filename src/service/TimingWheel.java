@@ -0,0 +1,138 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Иерархическое колесо таймеров: {@value #LEVELS} уровня по {@value #SLOTS} ячеек, ячейка уровня l охватывает
+ * 64^l тиков. Таймер кладётся в ячейку уровня, на котором его срок расходится с текущим тиком, и опускается
+ * на уровень ниже, когда колесо доходит до его ячейки. Добавление, отмена и шаг колеса стоят O(1) независимо
+ * от числа таймеров; каждый таймер переносится не больше {@value #LEVELS} раз. Сроки дальше 64^4 тиков
+ * лежат в отдельном списке и пересматриваются раз в оборот старшего уровня.
+ * <p>
+ * Таймеры — узлы двусвязных списков ячеек, поэтому отмена не ищет таймер. Не потокобезопасно.
+ */
+final class TimingWheel<T> {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final int OVERFLOW = LEVELS * SLOTS;
+    private static final int DUE = OVERFLOW + 1;
+
+    /**
+     * Таймер колеса; один таймер стоит в колесе не больше одного раза.
+     */
+    static final class Timer<T> {
+        final T value;
+        private long deadline;
+        private int list = -1;
+        private Timer<T> prev;
+        private Timer<T> next;
+
+        Timer(T value) { this.value = value; }
+
+        boolean isScheduled() { return list >= 0; }
+    }
+
+    // Головы списков ячеек, по одной на ячейку, плюс списки дальних и наступивших сроков.
+    private final List<Timer<T>> heads = new ArrayList<>(Collections.nCopies(DUE + 1, null));
+    private long now;
+    private int size;
+
+    TimingWheel(long now) {
+        this.now = now;
+    }
+
+    long now() { return now; }
+
+    int size() { return size; }
+
+    /**
+     * Ставит таймер на тик {@code deadline}, снимая прежний срок. Срок не позже текущего тика сработает при
+     * следующем {@link #advance}.
+     */
+    void schedule(Timer<T> timer, long deadline) {
+        cancel(timer);
+        timer.deadline = deadline;
+        place(timer);
+        size++;
+    }
+
+    boolean cancel(Timer<T> timer) {
+        if (timer.list < 0) return false;
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /**
+     * Продвигает колесо до тика {@code to} и передаёт сработавшие таймеры в порядке сроков.
+     * Пустое колесо переводится сразу.
+     */
+    void advance(long to, Consumer<T> expired) {
+        fire(DUE, expired);
+        while (now < to) {
+            if (size == 0) {
+                now = to;
+                return;
+            }
+            now++;
+            if ((now & ((1L << (BITS * LEVELS)) - 1)) == 0) cascade(OVERFLOW);
+            for (int l = LEVELS - 1; l >= 1; l--) {
+                if ((now & ((1L << (BITS * l)) - 1)) == 0) cascade(l * SLOTS + (int) ((now >>> (BITS * l)) & MASK));
+            }
+            fire((int) (now & MASK), expired);
+            fire(DUE, expired);
+        }
+    }
+
+    private void cascade(int list) {
+        var t = heads.set(list, null);
+        while (t != null) {
+            var next = t.next;
+            t.prev = t.next = null;
+            place(t);
+            t = next;
+        }
+    }
+
+    private void fire(int list, Consumer<T> expired) {
+        for (Timer<T> t; (t = heads.get(list)) != null; ) {
+            unlink(t);
+            size--;
+            expired.accept(t.value);
+        }
+    }
+
+    private void place(Timer<T> t) {
+        long d = t.deadline;
+        int list = OVERFLOW;
+        if (d <= now) {
+            list = DUE;
+        } else {
+            for (int l = 0; l < LEVELS; l++) {
+                if ((d >>> (BITS * (l + 1))) == (now >>> (BITS * (l + 1)))) {
+                    list = l * SLOTS + (int) ((d >>> (BITS * l)) & MASK);
+                    break;
+                }
+            }
+        }
+        t.list = list;
+        t.prev = null;
+        t.next = heads.get(list);
+        if (t.next != null) t.next.prev = t;
+        heads.set(list, t);
+    }
+
+    private void unlink(Timer<T> t) {
+        if (t.prev != null) t.prev.next = t.next;
+        else heads.set(t.list, t.next);
+        if (t.next != null) t.next.prev = t.prev;
+        t.prev = t.next = null;
+        t.list = -1;
+    }
+}
@@ -0,0 +1,214 @@
+package service;
+
+import exception.FinanceAppException;
+import model.Money;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Расчёт переводов пакетами. Перевод с ключом идемпотентности не применяется сразу, а принимается в очередь;
+ * очередь рассчитывается пакетами: кошельки пакета блокируются один раз, каждый получает свои строки
+ * transfer-out/transfer-in одной дозаписью журнала, бюджеты проверяются один раз на кошелёк,
+ * а изменения фиксируются одним commit на пакет. Встречные переводы пары пользователей взаимно зачитываются
+ * в сводке пакета ({@link NetFlow}); сами строки переводов сохраняются все, история не меняется.
+ * Повтор запроса с тем же ключом от того же отправителя не создаёт второй перевод. Ключи помнятся
+ * для последних {@code keyWindow} переводов и только в памяти процесса.
+ */
+public final class TransferSettlement implements Runnable {
+
+    public enum Status { ACCEPTED, DUPLICATE }
+
+    /**
+     * Чистый поток между двумя пользователями за пакет: сумма встречных переводов взаимно зачтена.
+     */
+    public record NetFlow(String from, String to, Money amount, int transfers) {}
+
+    /**
+     * Перевод пакета, который не был применён, и причина.
+     */
+    public record Failed(String key, String from, String to, Money amount, String reason) {}
+
+    /**
+     * Итог пакета: число применённых переводов, затронутых кошельков, чистые потоки и отклонённые переводы.
+     */
+    public record Batch(int transfers, int wallets, List<NetFlow> netFlows, List<Failed> failed) {}
+
+    record Pending(String key, String from, String to, Money amount, String description) {
+        boolean sameTransfer(Pending p) {
+            return to.equals(p.to) && amount.equals(p.amount) && description.equals(p.description);
+        }
+    }
+
+    private final WalletService wallets;
+    private final PersistenceService persistence;
+    private final AuthService authService;
+    private final int batchSize;
+    private final long intervalMs;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private final Map<String, Pending> keys;
+    private final Object settling = new Object();
+    private boolean wakeRequested;
+    private volatile Thread thread;
+
+    TransferSettlement(WalletService wallets, PersistenceService persistence, AuthService authService,
+                       int batchSize, int keyWindow, long intervalMs) {
+        this.wallets = wallets;
+        this.persistence = persistence;
+        this.authService = authService;
+        this.batchSize = batchSize;
+        this.intervalMs = intervalMs;
+        this.keys = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pending> eldest) { return size() > keyWindow; }
+        };
+    }
+
+    /**
+     * Размер пакета -Dfinance.settlement.batch (по умолчанию 1000), окно ключей -Dfinance.settlement.keys
+     * (по умолчанию 100000), интервал расчёта в фоне -Dfinance.settlement.intervalMs (по умолчанию 100).
+     */
+    static TransferSettlement fromSystemProperties(WalletService wallets, PersistenceService persistence, AuthService authService) {
+        return new TransferSettlement(wallets, persistence, authService,
+                Integer.getInteger("finance.settlement.batch", 1000),
+                Integer.getInteger("finance.settlement.keys", 100_000),
+                Long.getLong("finance.settlement.intervalMs", 100));
+    }
+
+    /**
+     * Запускает фоновый расчёт очереди. Без него очередь рассчитывается, когда наберётся пакет, и при {@link #settle()}.
+     */
+    synchronized void start() {
+        if (thread != null) return;
+        var t = new Thread(this, "finance-settlement");
+        t.setDaemon(true);
+        t.start();
+        thread = t;
+    }
+
+    Status submit(Pending p) {
+        boolean full;
+        synchronized (lock) {
+            var scoped = p.from() + '\u0000' + p.key();
+            var known = keys.get(scoped);
+            if (known != null) {
+                if (!known.sameTransfer(p)) throw new FinanceAppException("Ключ перевода уже использован для другого перевода: " + p.key());
+                return Status.DUPLICATE;
+            }
+            keys.put(scoped, p);
+            queue.add(p);
+            full = queue.size() >= batchSize;
+        }
+        if (full) {
+            if (thread != null) wake();
+            else settle();
+        }
+        return Status.ACCEPTED;
+    }
+
+    int pending() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Рассчитывает всю очередь пакетами в порядке приёма. Пакеты применяются по одному, поэтому порядок сохраняется
+     * и при одновременном вызове из фонового потока и из команды. Перевод, который нельзя применить (получатель
+     * удалён, кошелёк не читается), отклоняется отдельно до изменения кошельков, и его ключ освобождается: повтор
+     * с тем же ключом — новая попытка. Пакет в очередь не возвращается. Если применение сорвалось по другой причине,
+     * все переводы пакета отмечаются отклонёнными, а ключи остаются занятыми: часть кошельков могла уже получить
+     * строки, и повтор не должен провести их второй раз.
+     */
+    List<Batch> settle() {
+        List<Batch> done = new ArrayList<>();
+        synchronized (settling) {
+            while (true) {
+                List<Pending> batch = new ArrayList<>();
+                synchronized (lock) {
+                    while (batch.size() < batchSize && !queue.isEmpty()) batch.add(queue.poll());
+                }
+                if (batch.isEmpty()) return done;
+                Batch result;
+                try {
+                    result = wallets.applyTransfers(batch);
+                    forget(result.failed());
+                } catch (RuntimeException e) {
+                    System.out.println("Не удалось рассчитать пакет переводов: " + e.getMessage());
+                    List<Failed> failed = new ArrayList<>(batch.size());
+                    for (var p : batch) failed.add(new Failed(p.key(), p.from(), p.to(), p.amount(), e.getMessage()));
+                    result = new Batch(0, 0, List.of(), failed);
+                }
+                done.add(result);
+            }
+        }
+    }
+
+    private void forget(List<Failed> failed) {
+        if (failed.isEmpty()) return;
+        synchronized (lock) {
+            for (var f : failed) keys.remove(f.from() + '\u0000' + f.key());
+        }
+    }
+
+    private void wake() {
+        synchronized (lock) {
+            wakeRequested = true;
+            lock.notify();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            synchronized (lock) {
+                try {
+                    if (!wakeRequested) lock.wait(intervalMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                wakeRequested = false;
+            }
+            try {
+                if (!settle().isEmpty()) persistence.commit(authService, wallets);
+            } catch (RuntimeException e) {
+                System.out.println("Не удалось рассчитать переводы: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Взаимозачёт пакета: по каждой паре пользователей — чистая сумма и направление.
+     */
+    static List<NetFlow> net(List<Pending> batch) {
+        // Пара хранится в порядке логинов; сумма положительна, если перевесили переводы от первого ко второму.
+        final class Pair {
+            final String first, second;
+            long minor;
+            int transfers;
+            Pair(String first, String second) { this.first = first; this.second = second; }
+        }
+
+        Map<String, Pair> pairs = new LinkedHashMap<>();
+        for (var p : batch) {
+            boolean forward = p.from().compareTo(p.to()) < 0;
+            var first = forward ? p.from() : p.to();
+            var second = forward ? p.to() : p.from();
+            var pair = pairs.computeIfAbsent(first + '\u0000' + second, k -> new Pair(first, second));
+            pair.minor = Math.addExact(pair.minor, forward ? p.amount().minor() : -p.amount().minor());
+            pair.transfers++;
+        }
+
+        List<NetFlow> flows = new ArrayList<>(pairs.size());
+        for (var pair : pairs.values()) {
+            flows.add(pair.minor >= 0 ? new NetFlow(pair.first, pair.second, Money.ofMinor(pair.minor), pair.transfers)
+                    : new NetFlow(pair.second, pair.first, Money.ofMinor(-pair.minor), pair.transfers));
+        }
+        return flows;
+    }
+}
@@ -0,0 +1,359 @@
+package service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Хранилище учётных записей: файл записей фиксированного размера и хеш-индекс над ним.
+ * <pre>
+ * запись (256 байт): crc32 (int), длина логина (byte), логин UTF-8 [100], длина хеша (byte), хеш [150]
+ * индекс: magic "FUIX", ёмкость (int), число проиндексированных записей (int), резерв (int),
+ *   затем ёмкость ячеек long: старшие 32 бита — хеш логина, младшие — номер записи + 1 (0 — пусто)
+ * </pre>
+ * Регистрация дописывает одну запись и одну ячейку индекса; индекс отображается в память,
+ * поэтому поиск читает только ячейки пробы и одну запись, не загружая всех пользователей.
+ * Индекс производный: если он потерян или отстал от файла записей, он перестраивается или дополняется при открытии.
+ * Смена хеша пароля перезаписывает запись на месте; запись выровнена по 256 байтам и не пересекает сектор диска.
+ */
+final class UserStore implements Closeable {
+
+    static final int RECORD_SIZE = 256;
+    static final int MAX_LOGIN_BYTES = 100;
+    static final int MAX_HASH_BYTES = 150;
+    private static final int LOGIN_OFFSET = 5;
+    private static final int HASH_LENGTH_OFFSET = LOGIN_OFFSET + MAX_LOGIN_BYTES;
+    private static final int HASH_OFFSET = HASH_LENGTH_OFFSET + 1;
+
+    private static final int INDEX_MAGIC = 0x46554958; // "FUIX"
+    private static final int INDEX_HEADER = 16;
+    private static final int COVERED_OFFSET = 8;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 27; // индекс адресуется int-смещениями
+    private static final int SCAN_BUFFER = 64 * 1024;
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel data;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int records;
+
+    UserStore(Path dataPath, Path indexPath) {
+        this.dataPath = dataPath;
+        this.indexPath = indexPath;
+    }
+
+    /**
+     * Открывает файлы, отбрасывая оборванную последнюю запись, и проверяет индекс.
+     */
+    void open() throws IOException {
+        data = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = data.size();
+        records = (int) (size / RECORD_SIZE);
+        while (records > 0 && readRecord(records - 1) == null) records--;
+        if (size != (long) records * RECORD_SIZE) data.truncate((long) records * RECORD_SIZE);
+        openIndex();
+    }
+
+    private void openIndex() throws IOException {
+        int covered = -1;
+        if (Files.exists(indexPath)) {
+            try (var ch = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+                var header = ByteBuffer.allocate(INDEX_HEADER);
+                while (header.hasRemaining() && ch.read(header) >= 0) { }
+                int cap = header.getInt(4);
+                if (!header.hasRemaining() && header.getInt(0) == INDEX_MAGIC && cap >= MIN_CAPACITY
+                        && Integer.bitCount(cap) == 1 && ch.size() == indexBytes(cap)) {
+                    capacity = cap;
+                    covered = header.getInt(COVERED_OFFSET);
+                }
+            }
+        }
+
+        if (covered < 0 || covered > records || records > capacity / 2) {
+            rebuildIndex(capacityFor(records), false);
+            return;
+        }
+        try (var ch = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            index = ch.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes(capacity));
+        }
+        // Записи, дописанные после последнего обновления индекса (сбой между записью и индексом).
+        for (int r = covered; r < records; r++) {
+            var bytes = readRecord(r);
+            if (bytes == null) continue;
+            var login = loginBytes(bytes);
+            int h = hash(login);
+            if (find(login, h) < 0) insert(index, capacity, h, r);
+        }
+        index.putInt(COVERED_OFFSET, records);
+    }
+
+    boolean contains(String login) throws IOException {
+        var bytes = login.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            return find(bytes, hash(bytes)) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Хеш пароля пользователя или null, если такого нет.
+     */
+    String find(String login) throws IOException {
+        var bytes = login.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            int r = find(bytes, hash(bytes));
+            if (r < 0) return null;
+            var record = readRecord(r);
+            return record == null ? null
+                    : new String(record, HASH_OFFSET, record[HASH_LENGTH_OFFSET] & 0xFF, StandardCharsets.US_ASCII);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Дописывает пользователя. Возвращает false, если логин уже занят.
+     *
+     * @param force дождаться записи на диск
+     */
+    boolean add(String login, String passwordHash, boolean force) throws IOException {
+        var loginBytes = login.getBytes(StandardCharsets.UTF_8);
+        var record = encode(loginBytes, passwordHash);
+        lock.writeLock().lock();
+        try {
+            int h = hash(loginBytes);
+            if (find(loginBytes, h) >= 0) return false;
+
+            if (records + 1 > capacity / 2) {
+                if (capacity >= MAX_CAPACITY) throw new IOException("Достигнут предел числа пользователей.");
+                rebuildIndex(capacity * 2, true);
+            }
+            writeRecord(records, record);
+            if (force) data.force(false);
+            insert(index, capacity, h, records);
+            records++;
+            index.putInt(COVERED_OFFSET, records);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Заменяет хеш пароля существующего пользователя, перезаписывая его запись на месте.
+     */
+    void update(String login, String passwordHash) throws IOException {
+        var loginBytes = login.getBytes(StandardCharsets.UTF_8);
+        var record = encode(loginBytes, passwordHash);
+        lock.writeLock().lock();
+        try {
+            int r = find(loginBytes, hash(loginBytes));
+            if (r < 0) return;
+            writeRecord(r, record);
+            data.force(false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Логин записи с номером {@code record} (0..size()-1) или null, если запись повреждена.
+     */
+    String login(int record) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (record < 0 || record >= records) return null;
+            var bytes = readRecord(record);
+            return bytes == null ? null : new String(loginBytes(bytes), StandardCharsets.UTF_8);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void force() throws IOException {
+        lock.readLock().lock();
+        try {
+            data.force(false);
+            index.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (data == null) return;
+            index.force();
+            data.force(false);
+            data.close();
+            data = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Номер записи с таким логином или -1. Сравнение идёт сначала по хешу из ячейки, запись читается только при совпадении.
+     */
+    private int find(byte[] login, int h) throws IOException {
+        int mask = capacity - 1;
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            long cell = index.getLong(INDEX_HEADER + slot * Long.BYTES);
+            if (cell == 0) return -1;
+            if ((int) (cell >>> 32) != h) continue;
+            int r = (int) cell - 1;
+            var record = readRecord(r);
+            if (record != null && Arrays.equals(record, LOGIN_OFFSET, LOGIN_OFFSET + (record[4] & 0xFF),
+                    login, 0, login.length)) return r;
+        }
+    }
+
+    private static void insert(MappedByteBuffer index, int capacity, int h, int record) {
+        int mask = capacity - 1;
+        int slot = h & mask;
+        while (index.getLong(INDEX_HEADER + slot * Long.BYTES) != 0) slot = (slot + 1) & mask;
+        index.putLong(INDEX_HEADER + slot * Long.BYTES, ((long) h << 32) | (record + 1L));
+    }
+
+    /**
+     * Строит индекс заново в новом файле и подменяет им старый. При росте ячейки переносятся из текущего индекса
+     * (хеш хранится в ячейке, записи не читаются), иначе файл записей просматривается последовательно.
+     */
+    private void rebuildIndex(int newCapacity, boolean fromCurrent) throws IOException {
+        var tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        MappedByteBuffer rebuilt;
+        try (var ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            rebuilt = ch.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes(newCapacity));
+        }
+        rebuilt.putInt(0, INDEX_MAGIC);
+        rebuilt.putInt(4, newCapacity);
+
+        if (fromCurrent) {
+            for (int slot = 0; slot < capacity; slot++) {
+                long cell = index.getLong(INDEX_HEADER + slot * Long.BYTES);
+                if (cell != 0) insert(rebuilt, newCapacity, (int) (cell >>> 32), (int) cell - 1);
+            }
+        } else {
+            scanInto(rebuilt, newCapacity);
+        }
+        rebuilt.putInt(COVERED_OFFSET, records);
+        rebuilt.force();
+
+        Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index = rebuilt;
+        capacity = newCapacity;
+    }
+
+    private void scanInto(MappedByteBuffer target, int targetCapacity) throws IOException {
+        var buf = ByteBuffer.allocate(SCAN_BUFFER - SCAN_BUFFER % RECORD_SIZE);
+        var record = new byte[RECORD_SIZE];
+        for (int r = 0; r < records; ) {
+            buf.clear();
+            long pos = (long) r * RECORD_SIZE;
+            while (buf.hasRemaining() && data.read(buf, pos + buf.position()) > 0) { }
+            buf.flip();
+            for (; buf.remaining() >= RECORD_SIZE && r < records; r++) {
+                buf.get(record);
+                if (!validCrc(record)) continue;
+                insert(target, targetCapacity, hash(loginBytes(record)), r);
+            }
+        }
+    }
+
+    private byte[] readRecord(int r) throws IOException {
+        var buf = ByteBuffer.allocate(RECORD_SIZE);
+        long pos = (long) r * RECORD_SIZE;
+        while (buf.hasRemaining()) {
+            if (data.read(buf, pos + buf.position()) < 0) return null;
+        }
+        var bytes = buf.array();
+        return validCrc(bytes) ? bytes : null;
+    }
+
+    private void writeRecord(int r, byte[] record) throws IOException {
+        var buf = ByteBuffer.wrap(record);
+        long pos = (long) r * RECORD_SIZE;
+        while (buf.hasRemaining()) data.write(buf, pos + buf.position());
+    }
+
+    private static byte[] encode(byte[] login, String passwordHash) {
+        var hash = passwordHash.getBytes(StandardCharsets.US_ASCII);
+        if (login.length > MAX_LOGIN_BYTES) throw new IllegalArgumentException("Логин слишком длинный.");
+        if (hash.length > MAX_HASH_BYTES) throw new IllegalArgumentException("Хеш пароля слишком длинный.");
+
+        var record = new byte[RECORD_SIZE];
+        record[4] = (byte) login.length;
+        System.arraycopy(login, 0, record, LOGIN_OFFSET, login.length);
+        record[HASH_LENGTH_OFFSET] = (byte) hash.length;
+        System.arraycopy(hash, 0, record, HASH_OFFSET, hash.length);
+        ByteBuffer.wrap(record).putInt(0, crc(record));
+        return record;
+    }
+
+    private static boolean validCrc(byte[] record) {
+        int loginLength = record[4] & 0xFF;
+        int hashLength = record[HASH_LENGTH_OFFSET] & 0xFF;
+        return loginLength > 0 && loginLength <= MAX_LOGIN_BYTES && hashLength <= MAX_HASH_BYTES
+                && ByteBuffer.wrap(record).getInt(0) == crc(record);
+    }
+
+    private static int crc(byte[] record) {
+        var crc = new CRC32();
+        crc.update(record, 4, RECORD_SIZE - 4);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] loginBytes(byte[] record) {
+        return Arrays.copyOfRange(record, LOGIN_OFFSET, LOGIN_OFFSET + (record[4] & 0xFF));
+    }
+
+    /**
+     * FNV-1a по байтам логина: одинаково считается и по строке, и по записи в файле.
+     */
+    private static int hash(byte[] login) {
+        int h = 0x811C9DC5;
+        for (byte b : login) {
+            h ^= b & 0xFF;
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int capacityFor(int records) {
+        int cap = MIN_CAPACITY;
+        while (cap / 2 < records + 1) cap *= 2;
+        return cap;
+    }
+
+    private static long indexBytes(int capacity) {
+        return INDEX_HEADER + (long) capacity * Long.BYTES;
+    }
+}
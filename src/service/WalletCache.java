@@ -0,0 +1,223 @@
+package service;
+
+import model.Wallet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Ограниченный кэш загруженных кошельков с вытеснением давно не использованных (LRU).
+ * Лимиты — число кошельков и оценка занимаемой памяти. Сам кэш только выбирает кандидатов на вытеснение;
+ * сохранение и удаление выполняет {@link WalletService} под блокировкой кошелька.
+ * Закреплённые кошельки (открытые сеансы, импорт) не вытесняются.
+ * <p>
+ * Кошелёк загружается вне карты: в неё сначала кладётся запись-заготовка, остальные запросы того же логина ждут
+ * её загрузки, а запросы других логинов не ждут чужого чтения с диска.
+ * <p>
+ * Объём кэша учитывается по оценкам кошельков: оценка берётся при загрузке и пересчитывается после изменений
+ * ({@link #resized}), поэтому кэш замечает превышение лимита и тогда, когда кошельки растут без промахов.
+ */
+public class WalletCache {
+
+    public record Stats(long hits, long misses, long evictions, int wallets, long estimatedBytes) { }
+
+    private static final class Entry {
+        final CompletableFuture<Wallet> loading = new CompletableFuture<>();
+        volatile Wallet wallet; // null, пока кошелёк загружается
+        volatile long lastAccess = System.nanoTime();
+        // Учтённая оценка объёма и число строк при её расчёте; меняются под блокировкой записи кошелька.
+        long bytes;
+        int rows;
+    }
+
+    // Сколько строк должно добавиться с прошлого пересчёта, чтобы оценку кошелька пересчитать снова.
+    private static final int RESIZE_ROWS = 64;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> pins = new ConcurrentHashMap<>();
+    private final int maxWallets;
+    private final long maxBytes;
+    private final AtomicBoolean overflow = new AtomicBoolean();
+    private final AtomicLong accountedBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public WalletCache(int maxWallets, long maxBytes) {
+        if (maxWallets <= 0 || maxBytes <= 0) throw new IllegalArgumentException("Лимиты кэша должны быть положительными.");
+        this.maxWallets = maxWallets;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Лимиты из свойств -Dfinance.cache.maxWallets и -Dfinance.cache.maxBytes;
+     * по умолчанию 10000 кошельков и половина доступной куче памяти.
+     */
+    public static WalletCache fromSystemProperties() {
+        return new WalletCache(Integer.getInteger("finance.cache.maxWallets", 10_000),
+                Long.getLong("finance.cache.maxBytes", Runtime.getRuntime().maxMemory() / 2));
+    }
+
+    /**
+     * Кошелёк из кэша или загруженный {@code loader}. Загрузчик вызывается вне карты и может обращаться к кэшу
+     * за другими логинами; если он бросил исключение, заготовка убирается и то же исключение получают все ожидавшие.
+     */
+    Wallet getOrLoad(String login, Function<String, Wallet> loader) {
+        var e = entries.get(login);
+        if (e == null) {
+            var created = new Entry();
+            e = entries.putIfAbsent(login, created);
+            if (e == null) {
+                misses.increment();
+                var w = load(login, created, loader);
+                if (entries.size() > maxWallets) overflow.set(true);
+                return w;
+            }
+        }
+        hits.increment();
+        var w = e.wallet;
+        if (w == null) w = await(e);
+        e.lastAccess = System.nanoTime();
+        return w;
+    }
+
+    private Wallet load(String login, Entry e, Function<String, Wallet> loader) {
+        Wallet w;
+        try {
+            w = loader.apply(login);
+        } catch (RuntimeException | Error ex) {
+            entries.remove(login, e);
+            e.loading.completeExceptionally(ex);
+            throw ex;
+        }
+        e.wallet = w;
+        e.lastAccess = System.nanoTime();
+        account(e, w);
+        e.loading.complete(w);
+        return w;
+    }
+
+    /**
+     * Пересчитывает оценку объёма кошелька после изменения, если с прошлого пересчёта число строк изменилось
+     * не меньше чем на {@value #RESIZE_ROWS}. Вызывается под блокировкой записи кошелька.
+     */
+    void resized(String login) {
+        var e = entries.get(login);
+        var w = e == null ? null : e.wallet;
+        if (w != null && Math.abs(w.getTransactionStore().size() - e.rows) >= RESIZE_ROWS) account(e, w);
+    }
+
+    private void account(Entry e, Wallet w) {
+        long b = w.estimatedBytes();
+        long total = accountedBytes.addAndGet(b - e.bytes);
+        e.bytes = b;
+        e.rows = w.getTransactionStore().size();
+        if (total > maxBytes) overflow.set(true);
+    }
+
+    private static Wallet await(Entry e) {
+        try {
+            return e.loading.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException r) throw r;
+            if (ex.getCause() instanceof Error err) throw err;
+            throw ex;
+        }
+    }
+
+    /**
+     * Кошелёк, если он загружен; не влияет на статистику и порядок вытеснения.
+     */
+    Wallet peek(String login) {
+        var e = entries.get(login);
+        return e == null ? null : e.wallet;
+    }
+
+    /**
+     * Логины загруженных кошельков; загружаемые сейчас не входят.
+     */
+    List<String> loadedLogins() {
+        List<String> out = new ArrayList<>(entries.size());
+        for (var e : entries.entrySet()) if (e.getValue().wallet != null) out.add(e.getKey());
+        return out;
+    }
+
+    void remove(String login, Wallet wallet) {
+        var e = entries.get(login);
+        if (e != null && e.wallet == wallet && entries.remove(login, e)) {
+            accountedBytes.addAndGet(-e.bytes);
+            evictions.increment();
+        }
+    }
+
+    void pin(String login) {
+        pins.computeIfAbsent(login, l -> new AtomicInteger()).incrementAndGet();
+    }
+
+    void unpin(String login) {
+        pins.computeIfPresent(login, (l, n) -> n.decrementAndGet() <= 0 ? null : n);
+        // Закреплённые кошельки не вытесняются; когда закрепление снято, лимиты проверяются снова.
+        if (entries.size() > maxWallets || accountedBytes.get() > maxBytes) overflow.set(true);
+    }
+
+    boolean isPinned(String login) {
+        return pins.containsKey(login);
+    }
+
+    /**
+     * Отмечает, что кандидата вытеснить не удалось (занят, закреплён, не сохранился): выбор повторится при следующем
+     * {@link #evictionCandidates()}.
+     */
+    void evictionSkipped() {
+        overflow.set(true);
+    }
+
+    /**
+     * Кандидаты на вытеснение от давно не использованных к недавним, пока кэш не уложится в 90% лимитов.
+     * Пустой список, если лимиты не превышены. Закреплённые кошельки пропускаются; кэш снова проверит лимиты,
+     * когда закрепление снимут или кошелёк вырастет.
+     */
+    List<String> evictionCandidates() {
+        if (!overflow.getAndSet(false)) return List.of();
+
+        long bytes = 0;
+        for (var e : entries.values()) bytes += bytes(e);
+        int count = entries.size();
+        if (count <= maxWallets && bytes <= maxBytes) return List.of();
+
+        var byAge = new ArrayList<Map.Entry<String, Entry>>(entries.size());
+        for (var e : entries.entrySet()) if (e.getValue().wallet != null) byAge.add(e);
+        byAge.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+
+        List<String> out = new ArrayList<>();
+        for (var e : byAge) {
+            if (count <= maxWallets * 9L / 10 && bytes <= maxBytes * 9 / 10) break;
+            if (isPinned(e.getKey())) continue;
+            out.add(e.getKey());
+            count--;
+            bytes -= bytes(e.getValue());
+        }
+        return out;
+    }
+
+    public Stats stats() {
+        long bytes = 0;
+        for (var e : entries.values()) bytes += bytes(e);
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), bytes);
+    }
+
+    private static long bytes(Entry e) {
+        var w = e.wallet;
+        return w == null ? 0 : w.estimatedBytes();
+    }
+}
@@ -0,0 +1,286 @@
+package service;
+
+import model.ArchiveSegment;
+import model.BudgetPeriod;
+import model.Category;
+import model.Money;
+import model.RecurringRule;
+import model.Schedule;
+import model.SearchIndex;
+import model.TransactionStore;
+import model.TransactionType;
+import model.Wallet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Бинарный колоночный формат файла кошелька.
+ * <pre>
+ * magic "FWAL", версия (short), владелец, номер журнала (long)
+ * категории: количество, затем (название, бюджет, период бюджета byte — с версии 2,
+ *   пороги оповещений: количество byte и short[] в процентах — с версии 3)
+ * словарь строк: количество, затем строки
+ * строк n, затем колонки: типы byte[n], суммы long[n], время long[n] (микросекунды эпохи),
+ *   категории int[n], описания int[n] — индексы в словаре
+ * поисковый индекс (с версии 4): число строк в нём, число слов, затем (слово, count, номера строк int[count])
+ * архивные сегменты (с версии 5): количество, затем (номер long, длина сводки int, сводка в формате {@link ArchiveFileFormat};
+ *   фильтр слов в сводке — с версии 7)
+ * регулярные операции (с версии 6): количество, затем (номер long, тип byte, сумма long, категория, описание,
+ *   расписание, начало и следующее срабатывание — микросекунды эпохи, {@link Long#MIN_VALUE} — не срабатывает)
+ * </pre>
+ * Строки и поисковый индекс относятся только к оперативной части кошелька, архивные строки — в файлах сегментов.
+ * Суммы и бюджеты с версии 3 — в копейках (long), в версиях 1 и 2 — double.
+ * Строки хранятся как длина (int) и байты UTF-8.
+ * <p>
+ * Снимки хранятся записями общего хранилища кошельков ({@link WalletStore}); отдельные файлы в этом формате
+ * остались от прежних версий и читаются при переносе в хранилище.
+ */
+final class WalletFileFormat {
+
+    static final int MAGIC = 0x4657414C; // "FWAL"
+    static final short VERSION = 7;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private WalletFileFormat() {}
+
+    /**
+     * Проверяет, что файл записан в этом формате, а не стандартной сериализацией Java.
+     */
+    static boolean isBinary(Path path) throws IOException {
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            var buf = ByteBuffer.allocate(4);
+            while (buf.hasRemaining() && ch.read(buf) >= 0) { }
+            return !buf.hasRemaining() && buf.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Кодирует снимок кошелька; буфер готов к чтению. Вызывающий держит кошелёк неизменным на время кодирования.
+     */
+    static ByteBuffer encode(Wallet wallet) throws IOException {
+        // Колонки и словарь строк пишутся прямо из хранилища кошелька, без создания транзакций.
+        var rows = wallet.getTransactionStore();
+        var out = new Output(Math.max(BUFFER_SIZE, (int) Math.min(Integer.MAX_VALUE / 2, 64L + rows.size() * 25L)));
+
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.putString(wallet.getOwnerLogin());
+        out.putLong(wallet.getJournalSeq());
+
+        out.putInt(wallet.getCategories().size());
+        for (var c : wallet.getCategories().values()) {
+            out.putString(c.getName());
+            out.putLong(c.getBudget().minor());
+            out.putByte((byte) c.getBudgetPeriod().ordinal());
+            var thresholds = c.getAlertThresholds();
+            out.putByte((byte) thresholds.length);
+            for (int p : thresholds) out.putShort((short) p);
+        }
+
+        int n = rows.size();
+        out.putInt(rows.strings());
+        for (int i = 0; i < rows.strings(); i++) out.putString(rows.string(i));
+
+        out.putInt(n);
+        for (int i = 0; i < n; i++) out.putByte((byte) rows.type(i).ordinal());
+        for (int i = 0; i < n; i++) out.putLong(rows.amountMinor(i));
+        for (int i = 0; i < n; i++) out.putLong(rows.timeMicros(i));
+        for (int i = 0; i < n; i++) out.putInt(rows.categoryId(i));
+        for (int i = 0; i < n; i++) out.putInt(rows.descriptionId(i));
+
+        var search = wallet.getSearchIndex();
+        out.putInt(search.size());
+        out.putInt(search.words());
+        search.forEach((word, wordRows, count) -> {
+            out.putString(word);
+            out.putInt(count);
+            for (int i = 0; i < count; i++) out.putInt(wordRows[i]);
+        });
+
+        out.putInt(wallet.getSegments().size());
+        for (var s : wallet.getSegments()) {
+            var summary = new ByteArrayOutputStream();
+            ArchiveFileFormat.writeSummary(new DataOutputStream(summary), s);
+            out.putLong(s.id());
+            out.putInt(summary.size());
+            out.putBytes(summary.toByteArray());
+        }
+
+        out.putInt(wallet.getRecurringRules().size());
+        for (var r : wallet.getRecurringRules()) {
+            out.putLong(r.id());
+            out.putByte((byte) r.type().ordinal());
+            out.putLong(r.amount().minor());
+            out.putString(r.category());
+            out.putString(r.description());
+            out.putString(r.schedule().spec());
+            out.putLong(TransactionStore.toEpochMicros(r.start()));
+            out.putLong(r.nextDue() == null ? Long.MIN_VALUE : TransactionStore.toEpochMicros(r.nextDue()));
+        }
+        return out.buf.flip();
+    }
+
+    /**
+     * Читает отдельный файл кошелька прежних версий.
+     *
+     * @param archive загрузчик строк архивных сегментов кошелька
+     */
+    static Wallet read(Path path, ArchiveSegment.Loader archive) throws IOException {
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()), archive);
+        }
+    }
+
+    /**
+     * @param archive загрузчик строк архивных сегментов кошелька
+     */
+    static Wallet read(ByteBuffer buf, ArchiveSegment.Loader archive) throws IOException {
+        try {
+            if (buf.getInt() != MAGIC) throw new IOException("Неизвестный формат файла кошелька");
+            short version = buf.getShort();
+            if (version < 1 || version > VERSION) throw new IOException("Неподдерживаемая версия файла кошелька: " + version);
+
+            var w = new Wallet(getString(buf));
+            w.setJournalSeq(buf.getLong());
+
+            int categories = buf.getInt();
+            for (int i = 0; i < categories; i++) {
+                var c = new Category(getString(buf));
+                c.setBudget(version >= 3 ? Money.ofMinor(buf.getLong()) : Money.ofDouble(buf.getDouble()));
+                if (version >= 2) c.setBudgetPeriod(BudgetPeriod.values()[buf.get()]);
+                if (version >= 3) {
+                    var thresholds = new int[buf.get() & 0xff];
+                    for (int k = 0; k < thresholds.length; k++) thresholds[k] = buf.getShort();
+                    c.setAlertThresholds(thresholds);
+                }
+                w.getCategories().put(c.getName(), c);
+            }
+
+            var rows = new TransactionStore();
+            var ids = new int[buf.getInt()];
+            for (int i = 0; i < ids.length; i++) ids[i] = rows.intern(getString(buf));
+
+            int n = buf.getInt();
+            int types = buf.position();
+            int amounts = types + n;
+            int times = amounts + n * 8; // long или double, по 8 байт в обеих версиях
+            int cats = times + n * Long.BYTES;
+            int descs = cats + n * Integer.BYTES;
+
+            var typeValues = TransactionType.values();
+            for (int i = 0; i < n; i++) {
+                rows.add(typeValues[buf.get(types + i)],
+                        version >= 3 ? buf.getLong(amounts + i * Long.BYTES)
+                                : Money.ofDouble(buf.getDouble(amounts + i * Double.BYTES)).minor(),
+                        buf.getLong(times + i * Long.BYTES),
+                        ids[buf.getInt(cats + i * Integer.BYTES)],
+                        ids[buf.getInt(descs + i * Integer.BYTES)]);
+            }
+
+            SearchIndex search = null;
+            if (version >= 4) {
+                buf.position(descs + n * Integer.BYTES);
+                int indexed = buf.getInt();
+                var words = new String[buf.getInt()];
+                var wordRows = new int[words.length][];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = getString(buf);
+                    wordRows[i] = new int[buf.getInt()];
+                    buf.asIntBuffer().get(wordRows[i]);
+                    buf.position(buf.position() + wordRows[i].length * Integer.BYTES);
+                }
+                search = SearchIndex.restore(indexed, words, wordRows);
+            }
+            w.restoreTransactions(rows, search);
+
+            if (version >= 5) {
+                List<ArchiveSegment> segments = new ArrayList<>();
+                int count = buf.getInt();
+                for (int i = 0; i < count; i++) {
+                    long id = buf.getLong();
+                    var summary = new byte[buf.getInt()];
+                    buf.get(summary);
+                    segments.add(ArchiveFileFormat.readSummary(new DataInputStream(new ByteArrayInputStream(summary)), id, archive, version >= 7));
+                }
+                w.restoreSegments(segments);
+            }
+
+            if (version >= 6) {
+                int count = buf.getInt();
+                for (int i = 0; i < count; i++) {
+                    long id = buf.getLong();
+                    var type = TransactionType.values()[buf.get()];
+                    var amount = Money.ofMinor(buf.getLong());
+                    var category = getString(buf);
+                    var description = getString(buf);
+                    var schedule = parseSchedule(getString(buf));
+                    var start = TransactionStore.fromEpochMicros(buf.getLong());
+                    long next = buf.getLong();
+                    w.putRecurringRule(new RecurringRule(id, type, amount, category, description, schedule, start,
+                            next == Long.MIN_VALUE ? null : TransactionStore.fromEpochMicros(next)));
+                }
+            }
+            return w;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Снимок кошелька обрезан", e);
+        }
+    }
+
+    static Schedule parseSchedule(String spec) throws IOException {
+        try {
+            return Schedule.parse(spec);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private static String getString(ByteBuffer buf) {
+        var bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Запись в буфер в памяти, растущий удвоением.
+     */
+    private static final class Output {
+        private ByteBuffer buf;
+
+        Output(int capacity) { buf = ByteBuffer.allocate(capacity); }
+
+        void putByte(byte v) { ensure(1).put(v); }
+        void putShort(short v) { ensure(Short.BYTES).putShort(v); }
+        void putInt(int v) { ensure(Integer.BYTES).putInt(v); }
+        void putLong(long v) { ensure(Long.BYTES).putLong(v); }
+
+        void putString(String s) {
+            var bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        void putBytes(byte[] bytes) { ensure(bytes.length).put(bytes); }
+
+        private ByteBuffer ensure(int bytes) {
+            if (buf.remaining() < bytes) {
+                var grown = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, Math.max(buf.capacity() * 2L, buf.position() + (long) bytes)));
+                buf = grown.put(buf.flip());
+            }
+            return buf;
+        }
+    }
+}
@@ -1,69 +1,393 @@
 package service;
 
+import budget.AlertBus;
+import budget.BudgetEngine;
 import exception.FinanceAppException;
+import metrics.Metrics;
+import model.BudgetPeriod;
 import model.Category;
+import model.CategoryTotals;
+import model.DateRange;
+import model.Money;
+import model.RecurringRule;
+import model.Schedule;
+import model.SearchResult;
 import model.Transaction;
 import model.TransactionType;
 import model.Wallet;
-
-import java.time.format.DateTimeFormatter;
+import model.WalletView;
+import report.ReportFormat;
+import report.ReportWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Сервис управления кошельками: транзакции, категории, бюджеты, переводы и отчёты.
+ * Потокобезопасен: кошельки защищены полосатыми блокировками чтения-записи по логину,
+ * поэтому операции разных пользователей выполняются параллельно, а отчёты не блокируют друг друга.
+ * Загруженные кошельки держатся в ограниченном кэше ({@link WalletCache}); давно не использованные
+ * сохраняются и выгружаются. Кошельки пользователей с открытым сеансом не выгружаются.
+ * Пересечения порогов бюджета проверяет {@link BudgetEngine}, оповещения публикуются в {@link #alerts()}.
+ * Переводы с ключом идемпотентности рассчитываются пакетами ({@link TransferSettlement}).
+ * Разделы сводки с итогами кэшируются по версиям кошелька ({@link SummaryCache}).
+ * Регулярные операции кошелька проводятся по расписанию ({@link RecurringScheduler}); пропущенные за время простоя
+ * проводятся одним пакетом при загрузке кошелька. Время операций берётся из часов сервиса, их можно подменить.
  */
 public class WalletService {
 
+    public static final String TRANSFER_OUT = "transfer-out";
+    public static final String TRANSFER_IN = "transfer-in";
+    private static final String TRANSFER_OUT_PREFIX = "Перевод: ";
+    private static final String TRANSFER_IN_PREFIX = "Перевод от: ";
+    private static final String TRANSFER_NOTE_SEPARATOR = " — ";
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int IMPORT_BATCH = 100_000;
+    // Операций одного правила за один проход; остальные проводятся следующим шагом планировщика.
+    private static final int RECURRING_CATCH_UP = Integer.getInteger("finance.recurring.maxCatchUp", 10_000);
+
     private final PersistenceService persistence;
     private final AuthService authService;
-    private final Map<String, Wallet> wallets = new HashMap<>();
-    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private final WalletCache cache;
+    private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[LOCK_STRIPES];
+    // Число выгрузок кошельков по полосам блокировок: по нему readUncached узнаёт, не менялись ли файлы во время чтения.
+    private final AtomicLongArray unloads = new AtomicLongArray(LOCK_STRIPES);
+    private final AlertBus alerts = new AlertBus();
+    private final Clock clock;
+    private final BudgetEngine budgets;
+    // Создаются при первом обращении, а не в конструкторе: им нужна ссылка на уже построенный сервис.
+    private volatile TransferSettlement settlement;
+    private volatile RecurringScheduler recurring;
+    private final SummaryCache summaries = SummaryCache.fromSystemProperties();
 
     public WalletService(PersistenceService persistence, AuthService authService) {
+        this(persistence, authService, WalletCache.fromSystemProperties());
+    }
+
+    public WalletService(PersistenceService persistence, AuthService authService, WalletCache cache) {
+        this(persistence, authService, cache, persistence.getClock());
+    }
+
+    /**
+     * @param clock часы для времени операций, периодов бюджета и расписаний регулярных операций
+     */
+    public WalletService(PersistenceService persistence, AuthService authService, WalletCache cache, Clock clock) {
         this.persistence = persistence;
         this.authService = authService;
+        this.cache = cache;
+        this.clock = clock;
+        for (int i = 0; i < LOCK_STRIPES; i++) locks[i] = new ReentrantReadWriteLock();
+        this.budgets = new BudgetEngine(alerts, clock);
+    }
+
+    /**
+     * Часы сервиса: по ним считаются текущая дата для периодов в командах и отчётах и время операций.
+     */
+    public Clock getClock() { return clock; }
+
+    private TransferSettlement settlement() {
+        var s = settlement;
+        if (s != null) return s;
+        synchronized (this) {
+            if (settlement == null) settlement = TransferSettlement.fromSystemProperties(this, persistence, authService);
+            return settlement;
+        }
+    }
+
+    private RecurringScheduler recurring() {
+        var r = recurring;
+        if (r != null) return r;
+        synchronized (this) {
+            if (recurring == null) recurring = RecurringScheduler.fromSystemProperties(this, persistence, authService, clock);
+            return recurring;
+        }
     }
 
     public void loadWalletForUser(String login) {
-        wallets.put(login, persistence.loadWallet(login));
+        var lock = lockFor(login).writeLock();
+        lock.lock();
+        try {
+            walletFor(login);
+        } finally {
+            lock.unlock();
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Загружает кошелёк пользователя и закрепляет его в памяти до {@link #closeSession}.
+     * Сеансов одного пользователя может быть несколько, каждый нужно закрыть.
+     */
+    public void openSession(String login) {
+        var lock = lockFor(login).writeLock();
+        lock.lock();
+        try {
+            cache.pin(login);
+            try {
+                walletFor(login);
+            } catch (RuntimeException e) {
+                cache.unpin(login); // кошелёк не загрузился — сеанс не открыт
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+            evictIfNeeded();
+        }
+    }
+
+    public void closeSession(String login) {
+        cache.unpin(login);
     }
 
     public Wallet getWalletIfLoaded(String login) {
-        return wallets.get(login);
+        return cache.peek(login);
+    }
+
+    /**
+     * Логины загруженных сейчас кошельков.
+     */
+    public List<String> loadedLogins() {
+        return cache.loadedLogins();
+    }
+
+    /**
+     * Шина оповещений о бюджете: сеансы подписываются на оповещения своего пользователя.
+     */
+    public AlertBus alerts() {
+        return alerts;
+    }
+
+    public WalletCache.Stats cacheStats() {
+        return cache.stats();
+    }
+
+    public SummaryCache.Stats summaryStats() {
+        return summaries.stats();
+    }
+
+    /**
+     * Число транзакций во всех загруженных кошельках. Читается без блокировок, значение приблизительное.
+     */
+    public long loadedTransactionCount() {
+        long n = 0;
+        for (var login : cache.loadedLogins()) {
+            var w = cache.peek(login);
+            if (w != null) n += w.transactionCount();
+        }
+        return n;
+    }
+
+    /**
+     * Выполняет действие над уже загруженным кошельком под его блокировкой чтения: действие не должно изменять кошелёк
+     * (например, сохраняет его). Незагруженные кошельки пропускаются.
+     */
+    public void withLoadedWallet(String login, Consumer<Wallet> action) {
+        var lock = lockFor(login).readLock();
+        lock.lock();
+        try {
+            var w = cache.peek(login);
+            if (w != null) action.accept(w);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Получатель исходящего перевода по его транзакции или null, если это не исходящий перевод.
+     */
+    public static String transferRecipient(Transaction t) {
+        return transferRecipient(t.type(), t.category(), t.description());
+    }
+
+    /**
+     * То же по полям строки, без создания {@link Transaction}.
+     */
+    public static String transferRecipient(TransactionType type, String category, String d) {
+        if (type != TransactionType.EXPENSE || !TRANSFER_OUT.equals(category)) return null;
+        if (!d.startsWith(TRANSFER_OUT_PREFIX)) return null;
+        int end = d.indexOf(TRANSFER_NOTE_SEPARATOR, TRANSFER_OUT_PREFIX.length());
+        return d.substring(TRANSFER_OUT_PREFIX.length(), end < 0 ? d.length() : end);
+    }
+
+    /**
+     * Читает срез кошелька, не загружая его в кэш: срез загруженного кошелька берётся под его блокировкой чтения,
+     * остальные кошельки читаются с диска и после действия становятся мусором. Действие выполняется уже без блокировки.
+     * Для обхода всех пользователей.
+     * <p>
+     * Чтение с диска идёт без блокировки: файлы незагруженного кошелька никто не меняет. Под блокировкой затем
+     * проверяется, что кошелёк за это время не загрузился (тогда берётся срез из памяти) и не выгрузился
+     * (тогда файлы могли измениться, и кошелёк перечитывается под блокировкой).
+     */
+    public <T> T readUncached(String login, Function<WalletView, T> action) {
+        int stripe = stripe(login);
+        var lock = locks[stripe].readLock();
+        long unloaded = unloads.get(stripe);
+        WalletView view = null;
+        lock.lock();
+        try {
+            var w = cache.peek(login);
+            if (w != null) view = w.view();
+        } finally {
+            lock.unlock();
+        }
+        if (view == null) {
+            var read = persistence.readWallet(login);
+            lock.lock();
+            try {
+                var w = cache.peek(login);
+                if (w != null) view = w.view();
+                else if (unloads.get(stripe) == unloaded) view = read.view();
+                else view = persistence.readWallet(login).view();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return action.apply(view);
     }
 
     private Wallet walletFor(String login) {
-        return wallets.computeIfAbsent(login, persistence::loadWallet);
+        return cache.getOrLoad(login, this::load);
+    }
+
+    /**
+     * Загружает кошелёк и, пока он не виден другим потокам, проводит пропущенные регулярные операции
+     * и ставит его правила в планировщик.
+     */
+    private Wallet load(String login) {
+        var w = persistence.loadWallet(login);
+        postDue(login, w, LocalDateTime.now(clock));
+        for (var rule : w.getRecurringRules()) recurring().schedule(login, rule);
+        return w;
+    }
+
+    /**
+     * Выгружает давно не использованные кошельки, если кэш превысил лимиты. Вызывается без удерживаемых блокировок.
+     * Кошелёк, занятый другой операцией, пропускается, а не ожидается — так выгрузка не может вызвать взаимную блокировку.
+     * Если кандидата пропустили, кэш снова отмечается переполненным, и выгрузка повторится на следующей операции.
+     */
+    private void evictIfNeeded() {
+        for (var login : cache.evictionCandidates()) {
+            var lock = lockFor(login).writeLock();
+            if (!lock.tryLock()) {
+                cache.evictionSkipped();
+                continue;
+            }
+            try {
+                var w = cache.peek(login);
+                if (w == null) continue;
+                if (!cache.isPinned(login) && persistence.release(login, w)) {
+                    cache.remove(login, w);
+                    unloads.incrementAndGet(stripe(login));
+                    budgets.forget(login);
+                    summaries.forget(login);
+                } else {
+                    cache.evictionSkipped();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private int stripe(String login) {
+        return (login.hashCode() & 0x7fffffff) % LOCK_STRIPES;
+    }
+
+    private ReentrantReadWriteLock lockFor(String login) {
+        return locks[stripe(login)];
     }
 
     public void createCategory(String login, String category) {
-        var w = walletFor(login);
+        var lock = lockFor(login).writeLock();
+        lock.lock();
+        try {
+            var w = walletFor(login);
 
-        if (category == null || category.isBlank()) throw new FinanceAppException("Название категории не может быть пустым.");
-        if (w.getCategories().containsKey(category)) throw new FinanceAppException("Категория уже существует.");
+            if (category == null || category.isBlank()) throw new FinanceAppException("Название категории не может быть пустым.");
+            if (w.getCategories().containsKey(category)) throw new FinanceAppException("Категория уже существует.");
 
-        w.getCategories().put(category, new Category(category));
+            w.getCategories().put(category, new Category(category));
+            w.markModified();
+            persistence.journalCategory(w, category);
+        } finally {
+            lock.unlock();
+            evictIfNeeded();
+        }
     }
 
-    public void setBudget(String login, String category, double amount) {
-        if (amount < 0) throw new FinanceAppException("Бюджет не может быть отрицательным.");
+    public void setBudget(String login, String category, Money amount) {
+        setBudget(login, category, amount, BudgetPeriod.ALL);
+    }
 
-        var w = walletFor(login);
-        var cat = w.getCategories().computeIfAbsent(category, Category::new);
+    public void setBudget(String login, String category, Money amount, BudgetPeriod period) {
+        setBudget(login, category, amount, period, null);
+    }
 
-        cat.setBudget(amount);
+    /**
+     * Устанавливает бюджет категории; расход сравнивается с ним в пределах текущего периода.
+     *
+     * @param alertThresholds пороги оповещений в процентах бюджета; null — только превышение (100%)
+     */
+    public void setBudget(String login, String category, Money amount, BudgetPeriod period, int[] alertThresholds) {
+        if (amount.isNegative()) throw new FinanceAppException("Бюджет не может быть отрицательным.");
+
+        var lock = lockFor(login).writeLock();
+        lock.lock();
+        try {
+            var w = walletFor(login);
+            budgets.track(login, w);
+            var cat = w.getCategories().computeIfAbsent(category, Category::new);
+
+            try {
+                cat.setAlertThresholds(alertThresholds);
+            } catch (IllegalArgumentException e) {
+                throw new FinanceAppException(e.getMessage());
+            }
+            cat.setBudget(amount);
+            cat.setBudgetPeriod(period);
+            w.markModified();
+            persistence.journalBudget(w, cat);
+            budgets.onBudgetChanged(login, w, cat);
+        } finally {
+            lock.unlock();
+            evictIfNeeded();
+        }
     }
 
-    public void addTransaction(String login, TransactionType type, double amount, String category, String description) {
-        if (amount <= 0) throw new FinanceAppException("Сумма должна быть положительной.");
-        var w = walletFor(login);
+    public void addTransaction(String login, TransactionType type, Money amount, String category, String description) {
+        if (!amount.isPositive()) throw new FinanceAppException("Сумма должна быть положительной.");
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        var lock = lockFor(login).writeLock();
+        lock.lock();
+        try {
+            addTransaction(login, walletFor(login), type, amount, category, description);
+            failed = false;
+        } finally {
+            lock.unlock();
+            Metrics.ADD_TRANSACTION.record(start, 0, failed);
+            evictIfNeeded();
+        }
+    }
 
+    private void addTransaction(String login, Wallet w, TransactionType type, Money amount, String category, String description) {
         if (type == TransactionType.EXPENSE && !w.getCategories().containsKey(category)) {
             throw new FinanceAppException("Категория не найдена: " + category);
         }
@@ -72,145 +396,514 @@ public class WalletService {
             w.getCategories().put(category, new Category(category));
         }
 
-        var t = new Transaction(type, amount, category, description == null ? "" : description, java.time.LocalDateTime.now());
-        w.getTransactions().add(t);
+        budgets.track(login, w);
+        var t = new Transaction(type, amount, category, description == null ? "" : description, LocalDateTime.now(clock));
+        w.addTransaction(t);
+        persistence.journalTransaction(w, t);
+        Metrics.transactionsAdded(1);
+        budgets.onPosting(login, w, t);
+        cache.resized(login);
+    }
 
-        if (type == TransactionType.EXPENSE) {
-            Category c = w.getCategories().get(category);
-            if (c != null && c.getBudget() > 0) {
-                double spent = sumByCategory(w, category, TransactionType.EXPENSE);
-                if (spent > c.getBudget()) {
-                    System.out.println("[ВНИМАНИЕ] Превышен бюджет категории '" + category + "'. Бюджет: " + format(c.getBudget()) + ", Расход: " + format(spent));
-                }
+    /**
+     * Импорт упорядоченных по времени транзакций. Категории сопоставляются один раз для всего набора:
+     * недостающие категории доходов создаются, расходы по неизвестным категориям отклоняются.
+     * Транзакции добавляются пакетами, между пакетами блокировка отпускается; бюджеты проверяются один раз в конце.
+     * Журнал не ведётся — вызывающий сохраняет кошелёк целиком. Возвращает число отклонённых транзакций.
+     */
+    public int importTransactions(String login, List<Transaction> sorted) {
+        // Между пакетами блокировка отпускается, поэтому кошелёк закрепляется, чтобы его не выгрузили посреди импорта.
+        cache.pin(login);
+        try {
+            return importPinned(login, sorted);
+        } finally {
+            cache.unpin(login);
+            evictIfNeeded();
+        }
+    }
+
+    private int importPinned(String login, List<Transaction> sorted) {
+        List<Transaction> accepted = new ArrayList<>(sorted.size());
+        var lock = lockFor(login).writeLock();
+        lock.lock();
+        try {
+            var w = walletFor(login);
+            budgets.track(login, w);
+            var categories = w.getCategories();
+            for (var t : sorted) {
+                if (t.type() == TransactionType.INCOME) categories.computeIfAbsent(t.category(), Category::new);
             }
+            w.markModified();
+            for (var t : sorted) {
+                if (t.type() != TransactionType.EXPENSE || categories.containsKey(t.category())) accepted.add(t);
+            }
+        } finally {
+            lock.unlock();
         }
 
-        double totalIncome = sumTotal(w, TransactionType.INCOME);
-        double totalExpense = sumTotal(w, TransactionType.EXPENSE);
+        for (int from = 0; from < accepted.size(); from += IMPORT_BATCH) {
+            var batch = accepted.subList(from, Math.min(accepted.size(), from + IMPORT_BATCH));
+            lock.lock();
+            try {
+                walletFor(login).addTransactions(batch);
+                Metrics.transactionsAdded(batch.size());
+                cache.resized(login);
+            } finally {
+                lock.unlock();
+            }
+        }
 
-        if (totalExpense > totalIncome) {
-            System.out.println("[ВНИМАНИЕ] Общие расходы превысили доходы. Доход: " + format(totalIncome) + ", Расход: " + format(totalExpense));
+        lock.lock();
+        try {
+            budgets.reevaluate(login, walletFor(login));
+        } finally {
+            lock.unlock();
         }
+        return sorted.size() - accepted.size();
+    }
+
+    public void transfer(String fromLogin, String toLogin, Money amount, String description) {
+        checkTransfer(fromLogin, toLogin, amount);
+
+        // Обе блокировки берутся в порядке номеров полос, поэтому встречные переводы не могут взаимно заблокироваться.
+        int a = stripe(fromLogin);
+        int b = stripe(toLogin);
+        Lock first = locks[Math.min(a, b)].writeLock();
+        Lock second = locks[Math.max(a, b)].writeLock();
+        long start = System.nanoTime();
+        boolean failed = true;
+        first.lock();
+        if (a != b) second.lock();
+        try {
+            // Оба кошелька удерживаются блокировками до конца перевода; выгрузка возможна только после их снятия.
+            transfer(fromLogin, toLogin, amount, description, walletFor(fromLogin), walletFor(toLogin));
+            failed = false;
+        } finally {
+            if (a != b) second.unlock();
+            first.unlock();
+            Metrics.TRANSFER.record(start, 0, failed);
+            evictIfNeeded();
+        }
+    }
+
+    private void transfer(String fromLogin, String toLogin, Money amount, String description, Wallet fromW, Wallet toW) {
+        String catFrom = TRANSFER_OUT;
+        String catTo = TRANSFER_IN;
+
+        budgets.track(fromLogin, fromW);
+        budgets.track(toLogin, toW);
+        fromW.getCategories().computeIfAbsent(catFrom, Category::new);
+        toW.getCategories().computeIfAbsent(catTo, Category::new);
+
+        var tOut = new Transaction(TransactionType.EXPENSE, amount, catFrom, TRANSFER_OUT_PREFIX + toLogin + note(description), LocalDateTime.now(clock));
+        var tIn = new Transaction(TransactionType.INCOME, amount, catTo, TRANSFER_IN_PREFIX + fromLogin + note(description), LocalDateTime.now(clock));
+
+        fromW.addTransaction(tOut);
+        toW.addTransaction(tIn);
+        persistence.journalTransaction(fromW, tOut);
+        persistence.journalTransaction(toW, tIn);
+        Metrics.transactionsAdded(2);
+        budgets.onPosting(fromLogin, fromW, tOut);
+        budgets.onPosting(toLogin, toW, tIn);
+        cache.resized(fromLogin);
+        cache.resized(toLogin);
     }
 
-    public void transfer(String fromLogin, String toLogin, double amount, String description) {
-        if (amount <= 0) throw new FinanceAppException("Сумма должна быть положительной.");
+    private void checkTransfer(String fromLogin, String toLogin, Money amount) {
+        if (!amount.isPositive()) throw new FinanceAppException("Сумма должна быть положительной.");
         if (fromLogin.equals(toLogin)) throw new FinanceAppException("Нельзя переводить самому себе.");
         if (!authService.userExists(toLogin)) throw new FinanceAppException("Пользователь-получатель не найден: " + toLogin);
+    }
 
-        var fromW = walletFor(fromLogin);
-        var toW = walletFor(toLogin);
+    private static String note(String description) {
+        return description == null || description.isBlank() ? "" : TRANSFER_NOTE_SEPARATOR + description;
+    }
 
-        String catFrom = "transfer-out";
-        String catTo = "transfer-in";
+    /**
+     * Принимает перевод в очередь пакетного расчёта. Проверки те же, что у {@link #transfer}, но кошельки изменятся
+     * при расчёте пакета. Повтор с тем же ключом от того же отправителя возвращает {@link TransferSettlement.Status#DUPLICATE}.
+     */
+    public TransferSettlement.Status submitTransfer(String key, String fromLogin, String toLogin, Money amount, String description) {
+        if (key == null || key.isBlank()) throw new FinanceAppException("Ключ перевода не может быть пустым.");
+        checkTransfer(fromLogin, toLogin, amount);
+        return settlement().submit(new TransferSettlement.Pending(key, fromLogin, toLogin, amount, description == null ? "" : description));
+    }
 
-        fromW.getCategories().computeIfAbsent(catFrom, Category::new);
-        toW.getCategories().computeIfAbsent(catTo, Category::new);
+    /**
+     * Рассчитывает все принятые переводы. Изменения не фиксируются — это делает вызывающий.
+     */
+    public List<TransferSettlement.Batch> settlePending() {
+        return settlement().settle();
+    }
 
-        var tOut = new Transaction(TransactionType.EXPENSE, amount, catFrom, "Перевод: " + toLogin + (description == null || description.isBlank() ? "" : " — " + description), java.time.LocalDateTime.now());
-        var tIn = new Transaction(TransactionType.INCOME, amount, catTo, "Перевод от: " + fromLogin + (description == null || description.isBlank() ? "" : " — " + description), java.time.LocalDateTime.now());
+    public int pendingTransfers() {
+        return settlement().pending();
+    }
 
-        fromW.getTransactions().add(tOut);
-        toW.getTransactions().add(tIn);
+    /**
+     * Запускает фоновый расчёт принятых переводов; каждый рассчитанный пакет фиксируется одним commit.
+     */
+    public void startSettlement() {
+        settlement().start();
+    }
 
-        var budget = fromW.getCategories().get(catFrom);
-        if (budget != null && budget.getBudget() > 0) {
-            double spent = sumByCategory(fromW, catFrom, TransactionType.EXPENSE);
-            if (spent > budget.getBudget()) {
-                System.out.println("[ВНИМАНИЕ] Превышен бюджет переводов для пользователя " + fromLogin);
-            }
+    /**
+     * Применяет пакет переводов. Блокировки всех затронутых кошельков берутся один раз в порядке номеров полос,
+     * как в {@link #transfer}, поэтому читатели видят пакет целиком или не видят вовсе. Сначала каждый перевод
+     * проверяется, его кошельки загружаются и строятся его строки; перевод, не прошедший проверку, отклоняется
+     * один, и ни один кошелёк к этому моменту не изменён. Затем каждый кошелёк получает свои строки одной дозаписью
+     * журнала, а бюджеты проверяются один раз.
+     */
+    TransferSettlement.Batch applyTransfers(List<TransferSettlement.Pending> batch) {
+        var stripes = new boolean[LOCK_STRIPES];
+        for (var p : batch) {
+            stripes[stripe(p.from())] = true;
+            stripes[stripe(p.to())] = true;
         }
+        Map<String, List<Transaction>> postings = new LinkedHashMap<>();
+        List<TransferSettlement.Pending> applied = new ArrayList<>(batch.size());
+        List<TransferSettlement.Failed> rejected = new ArrayList<>();
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        List<Lock> held = new ArrayList<>();
+        try {
+            for (int i = 0; i < LOCK_STRIPES; i++) {
+                if (!stripes[i]) continue;
+                var lock = locks[i].writeLock();
+                lock.lock();
+                held.add(lock);
+            }
 
-        double totalIncome = sumTotal(fromW, TransactionType.INCOME);
-        double totalExpense = sumTotal(fromW, TransactionType.EXPENSE);
+            Map<String, Wallet> wallets = new HashMap<>();
+            var now = LocalDateTime.now(clock);
+            for (var p : batch) {
+                try {
+                    checkTransfer(p.from(), p.to(), p.amount());
+                    settlementWallet(p.from(), wallets);
+                    settlementWallet(p.to(), wallets);
+                } catch (FinanceAppException e) {
+                    rejected.add(new TransferSettlement.Failed(p.key(), p.from(), p.to(), p.amount(), e.getMessage()));
+                    continue;
+                }
+                postings.computeIfAbsent(p.from(), k -> new ArrayList<>()).add(new Transaction(TransactionType.EXPENSE,
+                        p.amount(), TRANSFER_OUT, TRANSFER_OUT_PREFIX + p.to() + note(p.description()), now));
+                postings.computeIfAbsent(p.to(), k -> new ArrayList<>()).add(new Transaction(TransactionType.INCOME,
+                        p.amount(), TRANSFER_IN, TRANSFER_IN_PREFIX + p.from() + note(p.description()), now));
+                applied.add(p);
+            }
 
-        if (totalExpense > totalIncome) {
-            System.out.println("[ВНИМАНИЕ] У пользователя " + fromLogin + " расходы превысили доходы.");
+            for (var e : postings.entrySet()) {
+                var w = wallets.get(e.getKey());
+                for (var t : e.getValue()) w.getCategories().computeIfAbsent(t.category(), Category::new);
+                w.addTransactions(e.getValue());
+                persistence.journalTransactions(w, e.getValue());
+                cache.resized(e.getKey());
+            }
+            for (var login : postings.keySet()) budgets.reevaluate(login, wallets.get(login));
+            Metrics.transactionsAdded(2L * applied.size());
+            failed = false;
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) held.get(i).unlock();
+            Metrics.SETTLEMENT.record(start, 0, failed);
+            evictIfNeeded();
         }
+        return new TransferSettlement.Batch(applied.size(), postings.size(), TransferSettlement.net(applied), rejected);
     }
 
-    public String buildSummary(String login) {
+    /**
+     * Кошелёк участника пакета: загружается при первом обращении и ставится под наблюдение бюджетов.
+     * Вызывается под блокировками пакета.
+     */
+    private void settlementWallet(String login, Map<String, Wallet> wallets) {
+        if (wallets.containsKey(login)) return;
         var w = walletFor(login);
-        var sb = new StringBuilder();
-        sb.append("=== Сводка пользователя: ").append(login).append(" ===\n");
-
-        var inc = sumTotal(w, TransactionType.INCOME);
-        var exp = sumTotal(w, TransactionType.EXPENSE);
-        sb.append("Общий доход: ").append(format(inc)).append("\n");
-        sb.append("Общий расход: ").append(format(exp)).append("\n\n");
-
-        sb.append("Доходы по категориям:\n");
-        var incMap = groupByCategory(w, TransactionType.INCOME);
-        if (incMap.isEmpty()) sb.append("  (нет)\n");
-        else incMap.forEach((c, s) -> sb.append("  ").append(c).append(": ").append(format(s)).append("\n"));
-
-        sb.append("\nРасходы по категориям:\n");
-        var expMap = groupByCategory(w, TransactionType.EXPENSE);
-        if (expMap.isEmpty()) sb.append("  (нет)\n");
-        else expMap.forEach((c, s) -> sb.append("  ").append(c).append(": ").append(format(s)).append("\n"));
-
-        sb.append("\nБюджеты:\n");
-        if (w.getCategories().isEmpty()) sb.append("  (нет)\n");
-        else {
-            var sorted = w.getCategories().values().stream().sorted(Comparator.comparing(Category::getName))
-                    .toList();
-            for (var cat : sorted) {
-                var spent = sumByCategory(w, cat.getName(), TransactionType.EXPENSE);
-                var left = cat.getBudget() - spent;
-                sb.append("  ").append(cat.getName()).append(": ").append(format(cat.getBudget()))
-                        .append(", Остаток: ").append(format(left)).append("\n");
+        budgets.track(login, w);
+        wallets.put(login, w);
+    }
+
+    /**
+     * Добавляет правило регулярной операции. Операции, срок которых уже наступил (начало в прошлом), проводятся
+     * сразу одним пакетом. Расход, как и в {@link #addTransaction}, возможен только по существующей категории.
+     *
+     * @param start начало расписания; null — сейчас
+     */
+    public RecurringRule addRecurring(String login, TransactionType type, Money amount, String category, String description,
+                                      Schedule schedule, LocalDateTime start) {
+        if (!amount.isPositive()) throw new FinanceAppException("Сумма должна быть положительной.");
+        if (category == null || category.isBlank()) throw new FinanceAppException("Название категории не может быть пустым.");
+
+        var lock = lockFor(login).writeLock();
+        lock.lock();
+        try {
+            var w = walletFor(login);
+            if (type == TransactionType.EXPENSE && !w.getCategories().containsKey(category)) {
+                throw new FinanceAppException("Категория не найдена: " + category);
             }
+            var now = LocalDateTime.now(clock);
+            var rule = RecurringRule.create(w.nextRecurringId(), type, amount, category, description == null ? "" : description,
+                    schedule, start == null ? now : start);
+            if (rule.nextDue() == null) throw new FinanceAppException("Расписание не срабатывает: " + schedule);
+
+            w.putRecurringRule(rule);
+            persistence.journalRecurringRule(w, rule);
+            postDue(login, w, now);
+            rule = w.getRecurringRule(rule.id());
+            recurring().schedule(login, rule);
+            return rule;
+        } finally {
+            lock.unlock();
+            evictIfNeeded();
         }
+    }
 
-        sb.append("\nТранзакции:\n");
-        if (w.getTransactions().isEmpty()) sb.append("  (нет)\n");
-        else {
-            for (var t : w.getTransactions()) {
-                sb.append("  [").append(t.time().format(TIME_FORMAT)).append("] ")
-                        .append(t.type()).append(" ").append(format(t.amount()))
-                        .append(" (").append(t.category()).append(") ").append(t.description()).append("\n");
+    public boolean removeRecurring(String login, long id) {
+        var lock = lockFor(login).writeLock();
+        lock.lock();
+        try {
+            var w = walletFor(login);
+            if (w.removeRecurringRule(id) == null) return false;
+            persistence.journalRecurringRemoval(w, id);
+            recurring().cancel(login, id);
+            return true;
+        } finally {
+            lock.unlock();
+            evictIfNeeded();
+        }
+    }
+
+    public List<RecurringRule> recurringRules(String login) {
+        var lock = lockFor(login).readLock();
+        lock.lock();
+        try {
+            return List.copyOf(walletFor(login).getRecurringRules());
+        } finally {
+            lock.unlock();
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Проводит наступившие регулярные операции кошелька. Возвращает число правил, по которым были операции.
+     */
+    int postRecurring(String login) {
+        var lock = lockFor(login).writeLock();
+        lock.lock();
+        try {
+            var advanced = postDue(login, walletFor(login), LocalDateTime.now(clock));
+            for (var rule : advanced) recurring().schedule(login, rule);
+            return advanced.size();
+        } finally {
+            lock.unlock();
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Проводит регулярные операции, срок которых наступил по часам сервиса. Изменения не фиксируются — это делает вызывающий.
+     * Возвращает число кошельков, получивших операции.
+     */
+    public int runRecurring() {
+        return recurring().runDue();
+    }
+
+    public int scheduledRecurring() {
+        return recurring().scheduled();
+    }
+
+    /**
+     * Запускает фоновое проведение регулярных операций; каждый шаг с операциями фиксируется одним commit.
+     */
+    public void startRecurring() {
+        recurring().start();
+    }
+
+    /**
+     * Проводит все наступившие к {@code now} операции правил кошелька одним пакетом: строки сливаются с историей
+     * по времени срабатывания, а новые сроки правил журналируются одной записью вместе со строками.
+     * Вызывается под блокировкой записи кошелька или до того, как кошелёк стал виден. Возвращает сдвинутые правила.
+     */
+    private List<RecurringRule> postDue(String login, Wallet w, LocalDateTime now) {
+        List<RecurringRule> advanced = new ArrayList<>();
+        List<Transaction> postings = new ArrayList<>();
+        for (var rule : w.getRecurringRules()) {
+            var r = rule;
+            for (int n = 0; n < RECURRING_CATCH_UP && r.isDue(now); n++) {
+                postings.add(r.posting());
+                r = r.advance();
             }
+            if (r != rule) advanced.add(r);
+        }
+        if (advanced.isEmpty()) return advanced;
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            budgets.track(login, w);
+            postings.sort(Comparator.comparing(Transaction::time));
+            for (var t : postings) w.getCategories().computeIfAbsent(t.category(), Category::new);
+            for (var r : advanced) w.putRecurringRule(r);
+            w.addTransactions(postings);
+            persistence.journalRecurringPosting(w, advanced, postings);
+            Metrics.transactionsAdded(postings.size());
+            budgets.reevaluate(login, w);
+            cache.resized(login);
+            failed = false;
+        } finally {
+            Metrics.RECURRING.record(start, 0, failed);
         }
+        return advanced;
+    }
 
+    public String buildSummary(String login) {
+        var sb = new StringWriter();
+        try {
+            writeReport(login, DateRange.ALL, ReportFormat.TEXT.open(sb));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringWriter не бросает IOException
+        }
         return sb.toString();
     }
 
-    public Map<String, Double> sumByCategories(String login, List<String> categories) {
-        var w = walletFor(login);
-        Map<String, Double> out = new LinkedHashMap<>();
-
-        for (var c : categories) {
-            if (w.getCategories().containsKey(c)) {
-                double sIn = sumByCategory(w, c, TransactionType.INCOME);
-                double sEx = sumByCategory(w, c, TransactionType.EXPENSE);
-                out.put(c, sIn - sEx);
+    /**
+     * Потоково пишет отчёт: разделы с итогами, затем транзакции по одной. Объём памяти не зависит от числа транзакций.
+     * Итоги за период берутся из префиксных сумм кошелька; остаток бюджета считается за текущий период бюджета.
+     * Под блокировкой чтения берётся только срез кошелька ({@link Wallet#view()}) и разделы итогов (из кэша сводок);
+     * транзакции пишутся уже без блокировки, поэтому долгая выгрузка не задерживает операции с кошельком,
+     * а отчёт целиком относится к одному моменту.
+     */
+    public void writeReport(String login, DateRange range, ReportWriter writer) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            WalletView v;
+            Money[] totals;
+            CategoryTotals income, expense;
+            List<ReportWriter.BudgetLine> budgets;
+            var today = LocalDate.now(clock);
+            var lock = lockFor(login).readLock();
+            lock.lock();
+            try {
+                v = walletFor(login).view();
+                totals = summaries.get(login, SummaryCache.Section.TOTALS, range, rowsStamp(v, range, TransactionType.values()),
+                        () -> new Money[] {v.getTotal(TransactionType.INCOME, range), v.getTotal(TransactionType.EXPENSE, range)},
+                        m -> 64);
+                income = categoryTotals(login, v, TransactionType.INCOME, range);
+                expense = categoryTotals(login, v, TransactionType.EXPENSE, range);
+                budgets = summaries.get(login, SummaryCache.Section.BUDGETS, DateRange.ALL, budgetStamp(v, today),
+                        () -> budgetLines(v, today), lines -> lines.size() * 160L);
+            } finally {
+                lock.unlock();
             }
+
+            writer.header(login, range);
+            writer.totals(totals[0], totals[1]);
+            writer.categoryTotals(TransactionType.INCOME, income);
+            writer.categoryTotals(TransactionType.EXPENSE, expense);
+            writer.budgets(budgets);
+            for (var t : v.getTransactions(range)) writer.transaction(t);
+            writer.finish();
+            failed = false;
+        } finally {
+            Metrics.REPORT.record(start, 0, failed);
+            evictIfNeeded();
         }
-        return out;
     }
 
-    public String format(double d) {
-        return String.format(java.util.Locale.forLanguageTag("ru"), "%.2f", d);
+    private CategoryTotals categoryTotals(String login, WalletView w, TransactionType type, DateRange range) {
+        var section = type == TransactionType.INCOME ? SummaryCache.Section.INCOME : SummaryCache.Section.EXPENSE;
+        return summaries.get(login, section, range, rowsStamp(w, range, type),
+                () -> w.getCategoryTotals(type, range), t -> t.size() * 96L);
     }
 
-    private double sumTotal(Wallet w, TransactionType type) {
-        return w.getTransactions().stream().filter(t -> t.type() == type).mapToDouble(Transaction::amount).sum();
+    /**
+     * Отметка раздела, зависящего от строк периода указанных типов: верна, пока порядок строк прежний и в период
+     * не добавлено строк этих типов.
+     */
+    private static SummaryCache.Stamp rowsStamp(WalletView w, DateRange range, TransactionType... types) {
+        var versions = new long[types.length];
+        for (int i = 0; i < types.length; i++) versions[i] = w.getVersion(types[i]);
+        return new SummaryCache.Stamp(new long[] {w.getLayoutVersion(), w.lowerRow(range)}, w.upperRow(range), versions);
     }
 
-    private double sumByCategory(Wallet w, String category, TransactionType type) {
-        return w.getTransactions().stream()
-                .filter(t -> t.type() == type && Objects.equals(t.category(), category))
-                .mapToDouble(Transaction::amount).sum();
+    /**
+     * Бюджеты зависят от категорий, расходов и текущей даты (границы периода бюджета).
+     */
+    private static SummaryCache.Stamp budgetStamp(WalletView w, LocalDate today) {
+        return new SummaryCache.Stamp(
+                new long[] {w.getLayoutVersion(), w.getCategoriesVersion(), w.getCategories().size(), today.toEpochDay()},
+                w.getTransactionStore().size(), new long[] {w.getVersion(TransactionType.EXPENSE)});
     }
 
-    private Map<String, Double> groupByCategory(Wallet w, TransactionType type) {
-        Map<String, Double> map = new TreeMap<>();
+    private static List<ReportWriter.BudgetLine> budgetLines(WalletView w, LocalDate today) {
+        return w.getCategories().values().stream()
+                .sorted(Comparator.comparing(Category::getName))
+                .map(c -> new ReportWriter.BudgetLine(c.getName(), c.getBudget(), c.getBudgetPeriod(),
+                        c.getBudget().minus(budgetSpent(w, c, today))))
+                .toList();
+    }
 
-        w.getTransactions().stream()
-                .filter(t -> t.type() == type)
-                .forEach(t -> map.merge(t.category(), t.amount(), Double::sum));
+    /**
+     * Поиск транзакций по словам описания и категории, см. {@link Wallet#search}.
+     */
+    public SearchResult search(String login, String query, int limit) {
+        if (limit < 1) throw new FinanceAppException("Число строк должно быть положительным.");
+        long start = System.nanoTime();
+        boolean failed = true;
+        var lock = lockFor(login).readLock();
+        lock.lock();
+        try {
+            var result = walletFor(login).search(query, limit);
+            failed = false;
+            return result;
+        } finally {
+            lock.unlock();
+            Metrics.SEARCH.record(start, 0, failed);
+            evictIfNeeded();
+        }
+    }
 
-        return map;
+    public CategoryTotals sumByCategories(String login, List<String> categories) {
+        return sumByCategories(login, categories, DateRange.ALL);
     }
-}
 
+    /**
+     * Сальдо (доходы минус расходы) по существующим категориям из списка, в порядке списка.
+     * Считается по срезу кошелька без блокировки.
+     */
+    public CategoryTotals sumByCategories(String login, List<String> categories, DateRange range) {
+        WalletView w;
+        var lock = lockFor(login).readLock();
+        lock.lock();
+        try {
+            w = walletFor(login).view();
+        } finally {
+            lock.unlock();
+            evictIfNeeded();
+        }
+
+        var names = new String[categories.size()];
+        var sums = new long[categories.size()];
+        int n = 0;
+        for (var c : categories) {
+            if (w.getCategories().containsKey(c)) {
+                long sIn = w.getCategoryTotal(c, TransactionType.INCOME, range).minor();
+                long sEx = w.getCategoryTotal(c, TransactionType.EXPENSE, range).minor();
+                names[n] = c;
+                sums[n++] = sIn - sEx;
+            }
+        }
+        return new CategoryTotals(names, sums, n);
+    }
+
+    public String format(Money m) {
+        return m.toString();
+    }
+
+    /**
+     * Расход категории в текущем периоде её бюджета.
+     */
+    private static Money budgetSpent(WalletView w, Category c, LocalDate today) {
+        return w.getCategoryTotal(c.getName(), TransactionType.EXPENSE, c.getBudgetPeriod().current(today));
+    }
+}
@@ -0,0 +1,561 @@
+package service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Хранилище снимков всех кошельков в нескольких больших файлах-сегментах вместо файла на пользователя.
+ * <pre>
+ * сегмент walletstore.&lt;номер&gt;.dat — записи подряд:
+ *   crc32 (int, по всему, что после него), длина логина (short), длина снимка (int), номер записи (long),
+ *   логин UTF-8, снимок в формате {@link WalletFileFormat}
+ * индекс walletstore.idx: magic "FWIX", ёмкость (int), число логинов (int), покрытый сегмент (int),
+ *   покрытое смещение (long), резерв (long), затем ёмкость ячеек по 32 байта: хеш логина (int),
+ *   сегмент (int, 0 — пусто), смещение (long), длина записи (int), резерв (int), номер записи (long)
+ * </pre>
+ * Новый снимок дописывается в конец последнего сегмента, ячейка индекса переключается на него; прежняя запись
+ * становится мусором. Пакет снимков пишется одной записью в канал и одной синхронизацией с диском ({@link #putAll}).
+ * Когда сегмент дорос до предела, начинается следующий. {@link #compact} переносит живые записи из сегмента,
+ * где мусора больше половины, в конец последнего и удаляет его файл.
+ * <p>
+ * Номер записи растёт с каждым снимком: из двух снимков одного логина в индексе остаётся более поздний,
+ * даже если пакеты записались в другом порядке. Индекс производный, как у {@link UserStore}: записи, дописанные
+ * после его последнего обновления, добавляются при открытии, а потерянный индекс строится просмотром сегментов.
+ */
+final class WalletStore implements Closeable {
+
+    private static final String PREFIX = "walletstore.";
+    private static final String SUFFIX = ".dat";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("walletstore\\.(\\d+)\\.dat");
+
+    private static final int RECORD_HEADER = 18;
+    private static final int MAX_LOGIN_BYTES = Short.MAX_VALUE;
+
+    private static final int INDEX_MAGIC = 0x46574958; // "FWIX"
+    private static final int INDEX_HEADER = 32;
+    private static final int COUNT_OFFSET = 8;
+    private static final int COVERED_SEGMENT_OFFSET = 12;
+    private static final int COVERED_POSITION_OFFSET = 16;
+    private static final int CELL = 32;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 26; // индекс адресуется int-смещениями
+
+    /** Запись в пакете {@link #putAll}. */
+    record Put(String login, long ticket, ByteBuffer snapshot) { }
+
+    /** Итог одного шага уплотнения. */
+    record Compaction(int segment, int moved, long reclaimedBytes) { }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+    private final AtomicLong tickets = new AtomicLong();
+    private long[] live = new long[16];
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+
+    /**
+     * @param segmentBytes размер сегмента, после которого начинается следующий
+     */
+    WalletStore(Path dir, long segmentBytes) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Открывает сегменты и индекс: дописанные после индекса записи добавляются в него, оборванная последняя запись
+     * отбрасывается.
+     */
+    void open() throws IOException {
+        lock.writeLock().lock();
+        try {
+            try (var files = Files.newDirectoryStream(dir.toAbsolutePath(), PREFIX + "*" + SUFFIX)) {
+                for (var f : files) {
+                    var m = SEGMENT_NAME.matcher(f.getFileName().toString());
+                    if (m.matches()) segments.put(Integer.parseInt(m.group(1)), openSegment(f));
+                }
+            }
+            if (segments.isEmpty()) segments.put(1, openSegment(segmentPath(1)));
+
+            int coveredSegment = 0;
+            long coveredPosition = 0;
+            if (!openIndex()) {
+                createIndex(MIN_CAPACITY);
+            } else {
+                coveredSegment = index.getInt(COVERED_SEGMENT_OFFSET);
+                coveredPosition = index.getLong(COVERED_POSITION_OFFSET);
+            }
+
+            for (var e : segments.entrySet()) {
+                int segment = e.getKey();
+                if (segment < coveredSegment) continue;
+                long end = scan(e.getValue(), segment == coveredSegment ? coveredPosition : 0, (login, ticket, offset, length, record) ->
+                        link(login.getBytes(StandardCharsets.UTF_8), ticket, segment, offset, length));
+                if (end < e.getValue().size()) {
+                    if (segment != segments.lastKey()) throw new IOException("Сегмент хранилища кошельков повреждён: " + segmentPath(segment));
+                    e.getValue().truncate(end);
+                }
+            }
+
+            long maxTicket = 0;
+            live = new long[segments.lastKey() + 16];
+            for (int slot = 0; slot < capacity; slot++) {
+                int base = INDEX_HEADER + slot * CELL;
+                int segment = index.getInt(base + 4);
+                if (segment == 0) continue;
+                live[segment] += index.getInt(base + 16);
+                maxTicket = Math.max(maxTicket, index.getLong(base + 24));
+            }
+            tickets.set(maxTicket);
+            markCovered();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Номер для следующего снимка; берётся, пока снимок кошелька кодируется под его блокировкой.
+     */
+    long nextTicket() {
+        return tickets.incrementAndGet();
+    }
+
+    /**
+     * Последний снимок кошелька или null, если его нет.
+     */
+    ByteBuffer get(String login) throws IOException {
+        var loginBytes = login.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            int slot = find(loginBytes, hash(loginBytes));
+            if (slot < 0) return null;
+            int base = INDEX_HEADER + slot * CELL;
+            var record = readRecord(index.getInt(base + 4), index.getLong(base + 8), index.getInt(base + 16));
+            if (record == null) throw new IOException("Запись кошелька повреждена: " + login);
+            return record.position(RECORD_HEADER + (record.getShort(4) & 0xFFFF)).slice();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(String login) {
+        var loginBytes = login.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            return find(loginBytes, hash(loginBytes)) >= 0;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Дописывает пакет снимков одной записью в канал последнего сегмента и одной синхронизацией с диском,
+     * затем переключает на них индекс. Снимок, для которого в индексе уже есть более поздний, пропускается.
+     * Возвращает число записанных байт.
+     */
+    long putAll(List<Put> batch) throws IOException {
+        if (batch.isEmpty()) return 0;
+        lock.writeLock().lock();
+        try {
+            List<Put> accepted = new ArrayList<>(batch.size());
+            List<ByteBuffer> buffers = new ArrayList<>(batch.size() * 2);
+            long bytes = 0;
+            for (var p : batch) {
+                var loginBytes = p.login.getBytes(StandardCharsets.UTF_8);
+                int slot = find(loginBytes, hash(loginBytes));
+                if (slot >= 0 && index.getLong(INDEX_HEADER + slot * CELL + 24) > p.ticket) continue;
+                var snapshot = p.snapshot.duplicate();
+                buffers.add(header(loginBytes, snapshot, p.ticket));
+                buffers.add(snapshot);
+                bytes += RECORD_HEADER + loginBytes.length + snapshot.remaining();
+                accepted.add(p);
+            }
+            if (accepted.isEmpty()) return 0;
+
+            if (active().size() > 0 && active().size() + bytes > segmentBytes) roll();
+            int segment = segments.lastKey();
+            var ch = active();
+            long offset = ch.size();
+            var srcs = buffers.toArray(new ByteBuffer[0]);
+            long written = 0;
+            while (written < bytes) {
+                ch.position(offset + written);
+                written += ch.write(srcs);
+            }
+            ch.force(false);
+
+            for (var p : accepted) {
+                var loginBytes = p.login.getBytes(StandardCharsets.UTF_8);
+                int length = RECORD_HEADER + loginBytes.length + p.snapshot.remaining();
+                link(loginBytes, p.ticket, segment, offset, length);
+                offset += length;
+            }
+            index.force();
+            markCovered();
+            return bytes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Один шаг уплотнения: живые записи сегмента, где мусора больше половины, переносятся в конец последнего
+     * сегмента, а файл удаляется. Последний сегмент не уплотняется. Пока записи переносятся, хранилище доступно:
+     * блокировка берётся только на перенос и на удаление файла. Возвращает null, если уплотнять нечего.
+     */
+    Compaction compact() throws IOException {
+        int victim = -1;
+        FileChannel victimChannel = null;
+        long garbage = 0;
+        lock.readLock().lock();
+        try {
+            for (var e : segments.entrySet()) {
+                if (e.getKey().equals(segments.lastKey())) break;
+                long size = e.getValue().size();
+                long waste = size - live[e.getKey()];
+                if (waste * 2 > size && waste > garbage) {
+                    victim = e.getKey();
+                    victimChannel = e.getValue();
+                    garbage = waste;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (victim < 0) return null;
+
+        // Сегмент, кроме последнего, больше не дописывается, поэтому читается без блокировки. Канал взят под
+        // блокировкой чтения: таблицу сегментов меняет roll() под блокировкой записи, и обращаться к ней без
+        // блокировки нельзя.
+        List<Put> moved = new ArrayList<>();
+        int segment = victim;
+        scan(victimChannel, 0, (login, ticket, offset, length, record) -> {
+            if (isCurrent(login, segment, offset)) {
+                moved.add(new Put(login, ticket, record.position(RECORD_HEADER + (record.getShort(4) & 0xFFFF)).slice()));
+            }
+        });
+        for (int from = 0; from < moved.size(); from += 1000) putAll(moved.subList(from, Math.min(moved.size(), from + 1000)));
+
+        lock.writeLock().lock();
+        try {
+            var ch = segments.get(segment);
+            long size = ch.size();
+            if (live[segment] > 0) return new Compaction(segment, moved.size(), 0); // снимок записан заново во время переноса
+            ch.close();
+            segments.remove(segment);
+            Files.deleteIfExists(segmentPath(segment));
+            syncDirectory();
+            return new Compaction(segment, moved.size(), size);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Число логинов, байт в сегментах и из них живых.
+     */
+    long[] stats() throws IOException {
+        lock.readLock().lock();
+        try {
+            long total = 0, alive = 0;
+            for (var e : segments.entrySet()) {
+                total += e.getValue().size();
+                alive += live[e.getKey()];
+            }
+            return new long[] {count, total, alive};
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (index != null) index.force();
+            for (var ch : segments.values()) ch.close();
+            segments.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean isCurrent(String login, int segment, long offset) {
+        var loginBytes = login.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            int slot = find(loginBytes, hash(loginBytes));
+            if (slot < 0) return false;
+            int base = INDEX_HEADER + slot * CELL;
+            return index.getInt(base + 4) == segment && index.getLong(base + 8) == offset;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Переключает ячейку логина на запись, если она не старше уже проиндексированной. Вызывается под блокировкой записи.
+     */
+    private void link(byte[] login, long ticket, int segment, long offset, int length) throws IOException {
+        int h = hash(login);
+        int slot = find(login, h);
+        if (slot < 0) {
+            if (count + 1 > capacity / 2) {
+                if (capacity >= MAX_CAPACITY) throw new IOException("Достигнут предел числа кошельков.");
+                growIndex();
+            }
+            slot = freeSlot(index, capacity, h);
+            index.putInt(INDEX_HEADER + slot * CELL, h);
+            count++;
+            index.putInt(COUNT_OFFSET, count);
+        } else {
+            int base = INDEX_HEADER + slot * CELL;
+            if (index.getLong(base + 24) > ticket) return;
+            int old = index.getInt(base + 4);
+            if (old < live.length) live[old] -= index.getInt(base + 16);
+        }
+        int base = INDEX_HEADER + slot * CELL;
+        index.putInt(base + 4, segment);
+        index.putLong(base + 8, offset);
+        index.putInt(base + 16, length);
+        index.putLong(base + 24, ticket);
+        if (segment >= live.length) live = Arrays.copyOf(live, segment + 16);
+        live[segment] += length;
+    }
+
+    /**
+     * Ячейка логина или -1. Сравнение идёт по хешу из ячейки, логин записи читается только при совпадении.
+     */
+    private int find(byte[] login, int h) throws IOException {
+        int mask = capacity - 1;
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            int base = INDEX_HEADER + slot * CELL;
+            int segment = index.getInt(base + 4);
+            if (segment == 0) return -1;
+            if (index.getInt(base) != h) continue;
+            if (Arrays.equals(readLogin(segment, index.getLong(base + 8)), login)) return slot;
+        }
+    }
+
+    private static int freeSlot(MappedByteBuffer index, int capacity, int h) {
+        int mask = capacity - 1;
+        int slot = h & mask;
+        while (index.getInt(INDEX_HEADER + slot * CELL + 4) != 0) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private byte[] readLogin(int segment, long offset) throws IOException {
+        var ch = segments.get(segment);
+        if (ch == null) return null;
+        var header = ByteBuffer.allocate(RECORD_HEADER);
+        readFully(ch, header, offset);
+        var login = ByteBuffer.allocate(header.getShort(4) & 0xFFFF);
+        readFully(ch, login, offset + RECORD_HEADER);
+        return login.array();
+    }
+
+    /**
+     * Запись целиком, если её контрольная сумма верна, иначе null.
+     */
+    private ByteBuffer readRecord(int segment, long offset, int length) throws IOException {
+        var ch = segments.get(segment);
+        if (ch == null) return null;
+        var record = ByteBuffer.allocate(length);
+        readFully(ch, record, offset);
+        return validCrc(record) ? record.clear() : null;
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void accept(String login, long ticket, long offset, int length, ByteBuffer record) throws IOException;
+    }
+
+    /**
+     * Просматривает записи канала сегмента с позиции {@code from} до первой оборванной или повреждённой.
+     * Возвращает позицию сразу после последней целой записи.
+     */
+    private long scan(FileChannel ch, long from, RecordVisitor visitor) throws IOException {
+        long size = ch.size();
+        long pos = from;
+        var header = ByteBuffer.allocate(RECORD_HEADER);
+        while (pos + RECORD_HEADER <= size) {
+            header.clear();
+            readFully(ch, header, pos);
+            int loginLength = header.getShort(4) & 0xFFFF;
+            int snapshotLength = header.getInt(6);
+            long length = (long) RECORD_HEADER + loginLength + snapshotLength;
+            if (loginLength == 0 || snapshotLength < 0 || pos + length > size || length > Integer.MAX_VALUE) break;
+
+            var record = ByteBuffer.allocate((int) length);
+            readFully(ch, record, pos);
+            if (!validCrc(record)) break;
+            var login = new String(record.array(), RECORD_HEADER, loginLength, StandardCharsets.UTF_8);
+            visitor.accept(login, record.getLong(10), pos, (int) length, record.clear());
+            pos += length;
+        }
+        return pos;
+    }
+
+    private static ByteBuffer header(byte[] login, ByteBuffer snapshot, long ticket) {
+        if (login.length > MAX_LOGIN_BYTES) throw new IllegalArgumentException("Логин слишком длинный.");
+        var header = ByteBuffer.allocate(RECORD_HEADER + login.length);
+        header.putInt(0).putShort((short) login.length).putInt(snapshot.remaining()).putLong(ticket).put(login);
+        var crc = new CRC32();
+        crc.update(header.array(), 4, header.capacity() - 4);
+        crc.update(snapshot.duplicate());
+        header.putInt(0, (int) crc.getValue());
+        return header.flip();
+    }
+
+    private static boolean validCrc(ByteBuffer record) {
+        var crc = new CRC32();
+        crc.update(record.array(), 4, record.capacity() - 4);
+        return record.getInt(0) == (int) crc.getValue();
+    }
+
+    private FileChannel active() {
+        return segments.lastEntry().getValue();
+    }
+
+    private void roll() throws IOException {
+        int next = segments.lastKey() + 1;
+        segments.put(next, openSegment(segmentPath(next)));
+        if (next >= live.length) live = Arrays.copyOf(live, next + 16);
+        syncDirectory();
+    }
+
+    /**
+     * Фиксирует на диске создание и удаление сегментов. Не все платформы позволяют открыть каталог; там шаг пропускается.
+     */
+    private void syncDirectory() {
+        try (var ch = FileChannel.open(dir.toAbsolutePath(), StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            // синхронизация каталога не поддерживается
+        }
+    }
+
+    private void markCovered() throws IOException {
+        index.putInt(COVERED_SEGMENT_OFFSET, segments.lastKey());
+        index.putLong(COVERED_POSITION_OFFSET, active().size());
+    }
+
+    private Path segmentPath(int segment) {
+        return dir.resolve(PREFIX + segment + SUFFIX);
+    }
+
+    private Path indexPath() {
+        return dir.resolve(PREFIX + "idx");
+    }
+
+    private static FileChannel openSegment(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Открывает существующий индекс, если он цел и указывает на существующий сегмент.
+     */
+    private boolean openIndex() throws IOException {
+        var path = indexPath();
+        if (!Files.exists(path)) return false;
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var header = ByteBuffer.allocate(INDEX_HEADER);
+            while (header.hasRemaining() && ch.read(header) >= 0) { }
+            int cap = header.getInt(4);
+            if (header.hasRemaining() || header.getInt(0) != INDEX_MAGIC || cap < MIN_CAPACITY
+                    || Integer.bitCount(cap) != 1 || ch.size() != indexBytes(cap)
+                    || !segments.containsKey(header.getInt(COVERED_SEGMENT_OFFSET))) return false;
+            index = ch.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes(cap));
+            capacity = cap;
+            count = header.getInt(COUNT_OFFSET);
+            return true;
+        }
+    }
+
+    private void createIndex(int newCapacity) throws IOException {
+        index = mapNew(newCapacity);
+        capacity = newCapacity;
+        count = 0;
+        Files.move(indexPath().resolveSibling(indexPath().getFileName() + ".tmp"), indexPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Переносит ячейки в индекс вдвое большей ёмкости; хеш хранится в ячейке, поэтому записи не читаются.
+     */
+    private void growIndex() throws IOException {
+        int newCapacity = capacity * 2;
+        var rebuilt = mapNew(newCapacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = INDEX_HEADER + slot * CELL;
+            if (index.getInt(base + 4) == 0) continue;
+            int target = INDEX_HEADER + freeSlot(rebuilt, newCapacity, index.getInt(base)) * CELL;
+            for (int k = 0; k < CELL; k += Long.BYTES) rebuilt.putLong(target + k, index.getLong(base + k));
+        }
+        rebuilt.putInt(COUNT_OFFSET, count);
+        rebuilt.putInt(COVERED_SEGMENT_OFFSET, index.getInt(COVERED_SEGMENT_OFFSET));
+        rebuilt.putLong(COVERED_POSITION_OFFSET, index.getLong(COVERED_POSITION_OFFSET));
+        rebuilt.force();
+        Files.move(indexPath().resolveSibling(indexPath().getFileName() + ".tmp"), indexPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index = rebuilt;
+        capacity = newCapacity;
+    }
+
+    private MappedByteBuffer mapNew(int newCapacity) throws IOException {
+        var tmp = indexPath().resolveSibling(indexPath().getFileName() + ".tmp");
+        MappedByteBuffer mapped;
+        try (var ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            mapped = ch.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes(newCapacity));
+        }
+        mapped.putInt(0, INDEX_MAGIC);
+        mapped.putInt(4, newCapacity);
+        return mapped;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) throw new IOException("Неожиданный конец сегмента хранилища");
+        }
+    }
+
+    /**
+     * FNV-1a по байтам логина, как в {@link UserStore}.
+     */
+    private static int hash(byte[] login) {
+        int h = 0x811C9DC5;
+        for (byte b : login) {
+            h ^= b & 0xFF;
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static long indexBytes(int capacity) {
+        return INDEX_HEADER + (long) capacity * CELL;
+    }
+}
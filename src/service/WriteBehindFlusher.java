@@ -0,0 +1,60 @@
+package service;
+
+/**
+ * Фоновая запись изменённых кошельков и таблицы пользователей (write-behind).
+ * Команды только отмечают кошелёк изменённым; поток сбрасывает накопленные изменения пакетом
+ * раз в заданный интервал или раньше, если изменённых кошельков набралось больше порога.
+ * Несколько изменений одного кошелька между сбросами дают одну запись. После каждого сброса выполняется
+ * один шаг уплотнения хранилища кошельков.
+ */
+final class WriteBehindFlusher implements Runnable {
+
+    private final PersistenceService persistence;
+    private final AuthService authService;
+    private final WalletService walletService;
+    private final long intervalMs;
+    private final int maxDirty;
+    private final Object signal = new Object();
+    private boolean wakeRequested;
+
+    WriteBehindFlusher(PersistenceService persistence, AuthService authService, WalletService walletService,
+                       long intervalMs, int maxDirty) {
+        this.persistence = persistence;
+        this.authService = authService;
+        this.walletService = walletService;
+        this.intervalMs = intervalMs;
+        this.maxDirty = maxDirty;
+    }
+
+    int maxDirty() { return maxDirty; }
+
+    /**
+     * Просит сбросить изменения, не дожидаясь конца интервала.
+     */
+    void wake() {
+        synchronized (signal) {
+            wakeRequested = true;
+            signal.notify();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            synchronized (signal) {
+                try {
+                    if (!wakeRequested) signal.wait(intervalMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                wakeRequested = false;
+            }
+            try {
+                persistence.flushDirty(authService, walletService);
+                persistence.compactStore();
+            } catch (RuntimeException e) {
+                System.out.println("Не удалось записать изменения: " + e.getMessage());
+            }
+        }
+    }
+}
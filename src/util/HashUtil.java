@@ -2,6 +2,7 @@ package util;
 
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Утилита для хеширования
@@ -9,16 +10,46 @@ import java.security.MessageDigest;
 public final class HashUtil {
     private HashUtil() {}
 
-    public static String sha256(String input) {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Экземпляр MessageDigest не потокобезопасен, поэтому у каждого потока свой.
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] h = md.digest(input.getBytes(StandardCharsets.UTF_8));
-            var sb = new StringBuilder();
-            for (byte b : h) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (Exception e) {
-            throw new RuntimeException("Не удалось хешировать строку", e);
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
         }
+    });
+
+    public static String sha256(String input) {
+        return toHex(sha256Bytes(input));
+    }
+
+    public static byte[] sha256Bytes(String input) {
+        return SHA256.get().digest(input.getBytes(StandardCharsets.UTF_8));
     }
-}
 
+    public static String toHex(byte[] bytes) {
+        var out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            out[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Разбирает шестнадцатеричную строку из {@code s} с позиции {@code from} до {@code to}. Возвращает null, если это не hex.
+     */
+    public static byte[] fromHex(CharSequence s, int from, int to) {
+        if (from < 0 || to > s.length() || ((to - from) & 1) != 0) return null;
+        var out = new byte[(to - from) / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = Character.digit(s.charAt(from + 2 * i), 16);
+            int lo = Character.digit(s.charAt(from + 2 * i + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,112 @@
+package util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Хеширование паролей PBKDF2-HMAC-SHA256 с солью.
+ * Хеш хранится строкой {@code pbkdf2-sha256$<итерации>$<соль hex>$<ключ hex>}; число итераций хранится вместе
+ * с хешем, поэтому его можно повышать, не ломая старые пароли. Старые хеши — один SHA-256 без соли
+ * (64 hex-символа) — тоже проверяются, но {@link #needsRehash} требует их пересчитать.
+ * Экземпляр Mac у каждого потока свой и переиспользуется между вызовами.
+ */
+public final class PasswordHasher {
+
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BYTES = 32; // один блок HMAC-SHA256
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<Mac> HMAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 недоступен", e);
+        }
+    });
+
+    private final int iterations;
+
+    public PasswordHasher(int iterations) {
+        if (iterations < 1) throw new IllegalArgumentException("Число итераций должно быть положительным.");
+        this.iterations = iterations;
+    }
+
+    public int getIterations() { return iterations; }
+
+    public String hash(String password) {
+        var salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        var key = pbkdf2(password, salt, iterations);
+        return PREFIX + iterations + "$" + HashUtil.toHex(salt) + "$" + HashUtil.toHex(key);
+    }
+
+    public boolean verify(String password, String stored) {
+        if (stored == null) return false;
+        if (!stored.startsWith(PREFIX)) {
+            var legacy = HashUtil.fromHex(stored, 0, stored.length());
+            return legacy != null && MessageDigest.isEqual(legacy, HashUtil.sha256Bytes(password));
+        }
+
+        int iterEnd = stored.indexOf('$', PREFIX.length());
+        int saltEnd = iterEnd < 0 ? -1 : stored.indexOf('$', iterEnd + 1);
+        if (saltEnd < 0) return false;
+        int storedIterations = parseIterations(stored, PREFIX.length(), iterEnd);
+        var salt = HashUtil.fromHex(stored, iterEnd + 1, saltEnd);
+        var expected = HashUtil.fromHex(stored, saltEnd + 1, stored.length());
+        if (storedIterations < 1 || salt == null || expected == null || expected.length != KEY_BYTES) return false;
+
+        return MessageDigest.isEqual(expected, pbkdf2(password, salt, storedIterations));
+    }
+
+    /**
+     * Хеш старого формата или с меньшим числом итераций, чем настроено сейчас.
+     */
+    public boolean needsRehash(String stored) {
+        if (!stored.startsWith(PREFIX)) return true;
+        int iterEnd = stored.indexOf('$', PREFIX.length());
+        return iterEnd < 0 || parseIterations(stored, PREFIX.length(), iterEnd) < iterations;
+    }
+
+    /**
+     * PBKDF2 (RFC 8018) для одного блока: U1 = HMAC(P, S || 1), Uj = HMAC(P, Uj-1), ключ — XOR всех Uj.
+     * Промежуточные значения пишутся в одни и те же массивы.
+     */
+    static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        var mac = HMAC.get();
+        try {
+            mac.init(new SecretKeySpec(password.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            var u = new byte[KEY_BYTES];
+            var t = new byte[KEY_BYTES];
+
+            mac.update(salt);
+            mac.update(new byte[] {0, 0, 0, 1});
+            mac.doFinal(u, 0);
+            System.arraycopy(u, 0, t, 0, KEY_BYTES);
+
+            for (int i = 1; i < iterations; i++) {
+                mac.update(u);
+                mac.doFinal(u, 0);
+                for (int j = 0; j < KEY_BYTES; j++) t[j] ^= u[j];
+            }
+            return t;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Не удалось вычислить PBKDF2", e);
+        }
+    }
+
+    private static int parseIterations(String s, int from, int to) {
+        if (to <= from || to - from > 9) return -1;
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            int d = Character.digit(s.charAt(i), 10);
+            if (d < 0) return -1;
+            n = n * 10 + d;
+        }
+        return n;
+    }
+}
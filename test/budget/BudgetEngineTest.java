@@ -0,0 +1,145 @@
+package budget;
+
+import model.BudgetPeriod;
+import model.Category;
+import model.Money;
+import model.Transaction;
+import model.TransactionType;
+import model.Wallet;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BudgetEngineTest {
+
+    private static final LocalDateTime MARCH = LocalDateTime.of(2025, 3, 10, 12, 0);
+
+    @Test
+    void eachThresholdFiresOncePerPeriod() {
+        var bus = new RecordingBus();
+        var clock = new MutableClock(MARCH);
+        var engine = new BudgetEngine(bus, clock);
+        var w = wallet();
+        engine.track("ann", w);
+
+        for (var amount : new String[] {"300", "300", "100", "250", "10", "100", "10"}) spend(engine, w, amount, MARCH);
+        assertEquals(List.of(50, 80, 100), bus.percents());
+        assertEquals(Money.parse("1060"), bus.alerts.get(2).spent());
+
+        // Новый месяц: расход и пороги начинаются заново, мартовская запись задним числом их не трогает.
+        clock.set(MARCH.plusMonths(1));
+        bus.alerts.clear();
+        spend(engine, w, "400", MARCH);
+        spend(engine, w, "400", MARCH.plusMonths(1));
+        assertEquals(List.of(), bus.percents());
+        spend(engine, w, "100", MARCH.plusMonths(1));
+        assertEquals(List.of(50), bus.percents());
+    }
+
+    @Test
+    void crossingSeveralThresholdsPublishesTheHighest() {
+        var bus = new RecordingBus();
+        var engine = new BudgetEngine(bus, new MutableClock(MARCH));
+        var w = wallet();
+        engine.track("ann", w);
+
+        spend(engine, w, "900", MARCH);
+        assertEquals(List.of(80), bus.percents());
+        spend(engine, w, "50", MARCH);
+        assertEquals(List.of(80), bus.percents());
+    }
+
+    @Test
+    void thresholdsCrossedBeforeTrackingAreNotRepeated() {
+        var bus = new RecordingBus();
+        var engine = new BudgetEngine(bus, new MutableClock(MARCH));
+        var w = wallet();
+        w.addTransaction(expense("600", MARCH));
+        engine.track("ann", w);
+
+        spend(engine, w, "100", MARCH);
+        assertEquals(List.of(), bus.percents());
+        spend(engine, w, "100", MARCH);
+        assertEquals(List.of(80), bus.percents());
+
+        // Новый бюджет пересчитывает пороги и сразу оповещает о превышенном.
+        var food = w.getCategories().get("food");
+        food.setBudget(Money.parse("700"));
+        engine.onBudgetChanged("ann", w, food);
+        assertEquals(List.of(80, 100), bus.percents());
+    }
+
+    @Test
+    void overspendingTheWalletIsReportedOnTransition() {
+        var bus = new RecordingBus();
+        var engine = new BudgetEngine(bus, new MutableClock(MARCH));
+        var w = new Wallet("ann");
+        w.addTransaction(new Transaction(TransactionType.INCOME, Money.parse("100"), "salary", "job", MARCH));
+        engine.track("ann", w);
+
+        spend(engine, w, "80", MARCH);
+        spend(engine, w, "30", MARCH);
+        spend(engine, w, "30", MARCH);
+        assertEquals(1, bus.alerts.size());
+        assertNull(bus.alerts.get(0).category());
+        assertEquals(Money.parse("110"), bus.alerts.get(0).spent());
+    }
+
+    private static Wallet wallet() {
+        var w = new Wallet("ann");
+        w.addTransaction(new Transaction(TransactionType.INCOME, Money.parse("100000"), "salary", "job", MARCH.minusMonths(2)));
+        var food = new Category("food");
+        food.setBudget(Money.parse("1000"));
+        food.setBudgetPeriod(BudgetPeriod.MONTH);
+        food.setAlertThresholds(new int[] {50, 80, 100});
+        w.getCategories().put("food", food);
+        return w;
+    }
+
+    private static void spend(BudgetEngine engine, Wallet w, String amount, LocalDateTime time) {
+        var t = expense(amount, time);
+        w.addTransaction(t);
+        engine.onPosting("ann", w, t);
+    }
+
+    private static Transaction expense(String amount, LocalDateTime time) {
+        return new Transaction(TransactionType.EXPENSE, Money.parse(amount), "food", "lunch", time);
+    }
+
+    /**
+     * Шина, которая запоминает оповещения сразу, без фонового потока.
+     */
+    private static final class RecordingBus extends AlertBus {
+        final List<BudgetAlert> alerts = new ArrayList<>();
+
+        @Override
+        public void publish(BudgetAlert alert) {
+            alerts.add(alert);
+        }
+
+        List<Integer> percents() {
+            return alerts.stream().filter(a -> !a.isOverall()).map(BudgetAlert::percent).toList();
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(LocalDateTime now) { set(now); }
+
+        void set(LocalDateTime time) { now = time.toInstant(ZoneOffset.UTC); }
+
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+        @Override public Instant instant() { return now; }
+    }
+}
@@ -0,0 +1,64 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArchiveSegmentTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 10, 12, 0);
+
+    @Test
+    void searchSkipsSegmentsWithoutQueryWords() {
+        var w = new Wallet("ann");
+        w.addTransaction(new Transaction(TransactionType.EXPENSE, Money.parse("40"), "food", "Ёлочный базар", START));
+        w.addTransaction(new Transaction(TransactionType.EXPENSE, Money.parse("15"), "transport", "metro", START.plusDays(1)));
+        w.addTransaction(new Transaction(TransactionType.INCOME, Money.parse("900"), "salary", "job", START.plusDays(40)));
+
+        var reads = new AtomicInteger();
+        var archived = w.copyRows(2);
+        var segment = ArchiveSegment.summarize(1, archived, s -> {
+            reads.incrementAndGet();
+            return archived;
+        });
+        w.archive(segment, 2);
+        long summaryBytes = segment.estimatedBytes();
+
+        assertEquals(0, w.search("аренда", 10).total());
+        assertEquals(1, w.search("job", 10).total());
+        assertEquals(0, reads.get());
+        assertFalse(segment.isLoaded());
+
+        var found = w.search("елоч баз", 10);
+        assertEquals(1, found.total());
+        assertEquals("Ёлочный базар", found.transactions().get(0).description());
+        assertEquals(2, w.search("met", 10).total() + w.search("food", 10).total());
+        assertEquals(1, reads.get());
+        assertTrue(segment.isLoaded());
+        // Прочитанные строки держатся мягкой ссылкой и в размер сегмента не входят.
+        assertEquals(summaryBytes, segment.estimatedBytes());
+    }
+
+    @Test
+    void segmentWithoutFilterIsSearchedAndGetsOne() {
+        var rows = new TransactionStore();
+        rows.add(new Transaction(TransactionType.EXPENSE, Money.parse("40"), "food", "lunch", START));
+        var summary = ArchiveSegment.summarize(1, rows, s -> rows);
+        var segment = new ArchiveSegment(1, summary.rows(), summary.firstMicros(), summary.lastMicros(),
+                new long[TransactionType.values().length], summary.categoryTotals(), null, s -> rows);
+        var w = new Wallet("ann");
+        w.restoreSegments(List.of(segment));
+
+        assertEquals(0, w.search("rent", 10).total());
+        assertNotNull(segment.words());
+        assertTrue(segment.words().mightContain("lun"));
+        assertFalse(segment.words().mightContain("lunch rent"));
+    }
+}
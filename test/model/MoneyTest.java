@@ -0,0 +1,39 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MoneyTest {
+
+    @Test
+    void parsesBothSeparatorsAndSigns() {
+        assertEquals(12300, Money.parse("123").minor());
+        assertEquals(1050, Money.parse("10.5").minor());
+        assertEquals(1050, Money.parse("10,50").minor());
+        assertEquals(-500, Money.parse("-5").minor());
+        assertEquals(700, Money.parse("+7").minor());
+        assertEquals(50, Money.parse(".5").minor());
+        assertEquals(199, Money.parse("1.9900").minor());
+        assertSame(Money.ZERO, Money.parse("0,00"));
+        assertEquals(99_999_999_999_999_999L, Money.parse("999999999999999.99").minor());
+    }
+
+    @Test
+    void rejectsMalformedAmounts() {
+        for (var s : new String[] {"", "-", ".", "1.234", "12a", "1 000", "1.2.3", "1e3", "1000000000000000"}) {
+            assertThrows(NumberFormatException.class, () -> Money.parse(s), s);
+        }
+    }
+
+    @Test
+    void formatsForPeopleAndMachines() {
+        var m = Money.parse("-1234.5");
+        assertEquals("-1234,50", m.toString());
+        assertEquals("-1234.50", m.toPlainString());
+        assertEquals("0,07", Money.ofMinor(7).toString());
+        assertEquals(m, Money.parse(m.toPlainString()));
+    }
+}
@@ -0,0 +1,80 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SearchIndexTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+    @Test
+    void tokensAreNormalized() {
+        assertEquals(List.of("елка", "зеленая"), SearchIndex.tokens("  Ёлка, ЗЕЛЁНАЯ; ёлка!"));
+        assertEquals(List.of("кафе", "2025"), SearchIndex.tokens("Кафе-2025"));
+        assertEquals(List.of(), SearchIndex.tokens(" -- "));
+    }
+
+    @Test
+    void prefixesAndAllWordsMustMatch() {
+        var index = new SearchIndex();
+        index.add(tx("food", "Кафе у дома"));       // 0
+        index.add(tx("food", "кафетерий"));         // 1
+        index.add(tx("transport", "метро, кафе"));  // 2
+        index.add(tx("salary", "Ёжик и зарплата")); // 3
+
+        assertArrayEquals(new int[] {0, 1, 2}, index.search("каф"));
+        assertArrayEquals(new int[] {0, 1}, index.search("каф fo"));
+        assertArrayEquals(new int[] {2}, index.search("КАФЕ Метро"));
+        assertArrayEquals(new int[] {3}, index.search("ежик"));
+        assertArrayEquals(new int[0], index.search("кафе salary"));
+        assertArrayEquals(new int[0], index.search("такси"));
+        assertArrayEquals(new int[0], index.search("  "));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    void intersectionMatchesBruteForce() {
+        var random = new Random(7);
+        String[] words = {"alpha", "alps", "beta", "bet", "gamma", "delta", "del", "omega"};
+        var rows = new TransactionStore();
+        List<List<String>> texts = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            var sb = new StringBuilder();
+            // «omega» редкое, «alpha» почти везде: проверяются и слияние, и поиск с экспоненциальным шагом.
+            if (random.nextInt(100) < 90) sb.append("alpha ");
+            if (random.nextInt(400) == 0) sb.append("omega ");
+            for (int k = 0; k < 3; k++) sb.append(words[random.nextInt(words.length - 1)]).append(' ');
+            rows.add(tx("misc", sb.toString()));
+            texts.add(SearchIndex.tokens("misc " + sb));
+        }
+        var built = SearchIndex.build(rows);
+        var added = new SearchIndex();
+        for (int i = 0; i < rows.size(); i++) added.add(rows.get(i));
+
+        for (var query : new String[] {"alpha omega", "al de", "bet gam", "omega", "alp bet del", "be ga om"}) {
+            var expected = bruteForce(texts, SearchIndex.tokens(query));
+            assertArrayEquals(expected, built.search(query), query);
+            assertArrayEquals(expected, added.search(query), query);
+        }
+    }
+
+    private static int[] bruteForce(List<List<String>> texts, List<String> terms) {
+        List<Integer> out = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            var words = texts.get(i);
+            if (terms.stream().allMatch(t -> words.stream().anyMatch(w -> w.startsWith(t)))) out.add(i);
+        }
+        return out.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static Transaction tx(String category, String description) {
+        return new Transaction(TransactionType.EXPENSE, Money.parse("1"), category, description, TIME);
+    }
+}
@@ -0,0 +1,93 @@
+package service;
+
+import model.Money;
+import model.TransactionType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImportServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void separatorIsSemicolonOnlyOutsideQuotes() {
+        assertEquals(';', ImportService.detectSeparator("2025-01-05;expense;10,50;food"));
+        assertEquals(',', ImportService.detectSeparator("2025-01-05,expense,10.50,food,\"кофе; булка\""));
+        assertEquals(';', ImportService.detectSeparator("\"a;b\",x;y"));
+        assertEquals(',', ImportService.detectSeparator("date,type,amount,category"));
+    }
+
+    @Test
+    void headerHasNeitherDateNorAmount() {
+        assertTrue(ImportService.isHeader("date,type,amount,category,description", ','));
+        assertTrue(ImportService.isHeader("Дата;Тип;Сумма;Категория", ';'));
+        assertTrue(ImportService.isHeader("заголовок", ','));
+        assertFalse(ImportService.isHeader("2025-01-05,expense,10.50,food", ','));
+        assertFalse(ImportService.isHeader("вчера,expense,10.50,food", ','));
+    }
+
+    @Test
+    void linesAreParsedWithQuotesAndLocalFormats() {
+        var t = ImportService.parseLine("05.01.2025;расход;\"1 234,50\";food;\"кофе; \"\"булка\"\"\"", ';');
+        assertEquals(TransactionType.EXPENSE, t.type());
+        assertEquals(Money.parse("1234.50"), t.amount());
+        assertEquals("food", t.category());
+        assertEquals("кофе; \"булка\"", t.description());
+        assertEquals(LocalDateTime.of(2025, 1, 5, 0, 0), t.time());
+
+        var income = ImportService.parseLine("2025-01-05 09:30,INCOME,100,salary", ',');
+        assertEquals(LocalDateTime.of(2025, 1, 5, 9, 30), income.time());
+        assertEquals("", income.description());
+
+        assertNull(ImportService.parseLine("2025-01-05,expense,-10,food", ','));
+        assertNull(ImportService.parseLine("2025-01-05,transfer,10,food", ','));
+        assertNull(ImportService.parseLine("2025-01-05,expense,10", ','));
+        assertNull(ImportService.parseLine("2025-13-05,expense,10,food", ','));
+        assertNull(ImportService.parseLine("2025-01-05,expense,10,  ", ','));
+    }
+
+    @Test
+    void importCountsMalformedAndUnknownCategoryRows() throws IOException {
+        var auth = new AuthService(dir, false, new CredentialService(1, 1, 16));
+        auth.register("ann", "pass1234");
+        var persistence = new PersistenceService(dir, false);
+        var wallets = new WalletService(persistence, auth);
+        wallets.createCategory("ann", "food");
+
+        var csv = dir.resolve("bank.csv");
+        Files.write(csv, List.of(
+                "",
+                "Дата;Тип;Сумма;Категория;Описание",
+                "2025-01-05;доход;1000;salary;аванс",
+                "2025-01-03;расход;10,50;food;\"кофе; булка\"",
+                "",
+                "Дата;Тип;Сумма;Категория;Описание",
+                "2025-01-06;расход;5;taxi;",
+                "2025-01-07;расход;abc;food;"));
+
+        var result = new ImportService(wallets, persistence).importCsv("ann", csv, s -> { });
+        assertEquals(2, result.imported());
+        assertEquals(2, result.malformed());
+        assertEquals(List.of(6L, 8L), result.malformedLines());
+        assertEquals(1, result.unknownCategory());
+
+        var w = wallets.getWalletIfLoaded("ann");
+        assertEquals(Money.parse("1000"), w.getTotal(TransactionType.INCOME));
+        assertEquals(Money.parse("10.50"), w.getTotal(TransactionType.EXPENSE));
+        // Транзакции упорядочены по времени, а не по строкам файла.
+        assertEquals("кофе; булка", w.getTransactions().get(0).description());
+        assertEquals(Money.parse("10.50"), new PersistenceService(dir, false).loadWallet("ann").getTotal(TransactionType.EXPENSE));
+    }
+}
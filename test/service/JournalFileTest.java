@@ -0,0 +1,91 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JournalFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void tornTailIsDroppedAndTruncated() throws IOException {
+        var path = dir.resolve("j.log");
+        try (var journal = new JournalFile(path)) {
+            for (int i = 0; i < 3; i++) {
+                int n = i;
+                journal.append(out -> out.writeInt(n));
+            }
+        }
+        long intact = Files.size(path);
+        // Заголовок обещает 100 байт, а записаны только 5: запись оборвалась на середине.
+        append(path, ByteBuffer.allocate(13).putInt(100).putInt(0).put(new byte[5]).flip());
+
+        try (var journal = new JournalFile(path)) {
+            assertEquals(List.of(0, 1, 2), replay(journal));
+            assertEquals(intact, Files.size(path));
+
+            journal.append(out -> out.writeInt(3));
+        }
+        try (var journal = new JournalFile(path)) {
+            assertEquals(List.of(0, 1, 2, 3), replay(journal));
+            assertEquals(4, journal.records());
+        }
+    }
+
+    @Test
+    void recordWithBadChecksumEndsReplay() throws IOException {
+        var path = dir.resolve("j.log");
+        try (var journal = new JournalFile(path)) {
+            journal.append(out -> out.writeInt(7));
+            journal.append(out -> out.writeInt(8));
+        }
+        long size = Files.size(path);
+        try (var ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), size - 1);
+        }
+
+        try (var journal = new JournalFile(path)) {
+            assertEquals(List.of(7), replay(journal));
+            assertEquals(size / 2, Files.size(path));
+        }
+    }
+
+    @Test
+    void readSkipsTornTailWithoutTruncating() throws IOException {
+        var path = dir.resolve("j.log");
+        try (var journal = new JournalFile(path)) {
+            journal.append(List.of(out -> out.writeInt(1), out -> out.writeInt(2)));
+        }
+        append(path, ByteBuffer.wrap(new byte[] {0, 0, 0}));
+        long size = Files.size(path);
+
+        List<Integer> seen = new ArrayList<>();
+        assertEquals(2, JournalFile.read(path, in -> seen.add(in.readInt())));
+        assertEquals(List.of(1, 2), seen);
+        assertEquals(size, Files.size(path));
+    }
+
+    private static List<Integer> replay(JournalFile journal) throws IOException {
+        List<Integer> seen = new ArrayList<>();
+        journal.replay(in -> seen.add(in.readInt()));
+        return seen;
+    }
+
+    private static void append(Path path, ByteBuffer bytes) throws IOException {
+        try (var ch = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (bytes.hasRemaining()) ch.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package service;
+
+import exception.FinanceAppException;
+import model.Money;
+import model.Transaction;
+import model.TransactionType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PersistenceServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void savedWalletLoadsBack() {
+        var persistence = new PersistenceService(dir, false);
+        var w = persistence.loadWallet("ann");
+        w.addTransaction(new Transaction(TransactionType.INCOME, Money.parse("250"), "salary", "job", LocalDateTime.now()));
+        assertTrue(persistence.saveWallet("ann", w));
+
+        var loaded = new PersistenceService(dir, false).loadWallet("ann");
+        assertEquals(Money.parse("250"), loaded.getTotal(TransactionType.INCOME));
+        assertEquals(0, new PersistenceService(dir, false).loadWallet("bob").transactionCount());
+    }
+
+    @Test
+    void unreadableSnapshotIsReportedAndKept() throws IOException {
+        var persistence = new PersistenceService(dir, false);
+        var w = persistence.loadWallet("ann");
+        w.addTransaction(new Transaction(TransactionType.INCOME, Money.parse("250"), "salary", "job", LocalDateTime.now()));
+        assertTrue(persistence.saveWallet("ann", w));
+
+        var segment = dir.resolve("walletstore.1.dat");
+        var bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(segment, bytes);
+
+        var reopened = new PersistenceService(dir, false);
+        assertThrows(FinanceAppException.class, () -> reopened.loadWallet("ann"));
+        assertThrows(FinanceAppException.class, () -> reopened.loadWallet("ann"));
+        assertArrayEquals(bytes, Files.readAllBytes(segment));
+    }
+}
@@ -0,0 +1,91 @@
+package service;
+
+import model.DateRange;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SummaryCacheTest {
+
+    private static final SummaryCache.Stamp BASE = new SummaryCache.Stamp(new long[] {1}, 10, new long[] {5});
+
+    @Test
+    void stampDecidesWhatIsStillValid() {
+        var cache = new SummaryCache(1 << 20);
+        var calls = new AtomicInteger();
+
+        assertEquals(1, get(cache, "ann", BASE, calls));
+        assertEquals(1, get(cache, "ann", BASE, calls));
+        // Дописаны строки, не влияющие на раздел: граница строк другая, но версии те же.
+        assertEquals(1, get(cache, "ann", new SummaryCache.Stamp(new long[] {1}, 11, new long[] {5}), calls));
+        // Версии другие, но граница строк прежняя — строки только дописываются, раздел верен.
+        assertEquals(1, get(cache, "ann", new SummaryCache.Stamp(new long[] {1}, 10, new long[] {6}), calls));
+        assertEquals(1, calls.get());
+
+        // Изменились и граница строк, и версии раздела.
+        assertEquals(2, get(cache, "ann", new SummaryCache.Stamp(new long[] {1}, 11, new long[] {6}), calls));
+        // Изменилась неизменяемая часть отметки (например, категории или порядок строк).
+        assertEquals(3, get(cache, "ann", new SummaryCache.Stamp(new long[] {2}, 11, new long[] {6}), calls));
+
+        var stats = cache.stats();
+        assertEquals(3, stats.hits());
+        assertEquals(3, stats.misses());
+        assertEquals(1, stats.entries());
+    }
+
+    @Test
+    void forgetDropsOnlyThatWallet() {
+        var cache = new SummaryCache(1 << 20);
+        var calls = new AtomicInteger();
+        get(cache, "ann", BASE, calls);
+        get(cache, "bob", BASE, calls);
+
+        cache.forget("ann");
+        assertEquals(1, cache.stats().entries());
+        assertEquals(3, get(cache, "ann", BASE, calls));
+        assertEquals(2, get(cache, "bob", BASE, calls));
+        cache.forget("ann");
+        cache.forget("bob");
+        assertEquals(0, cache.stats().entries());
+        assertEquals(0, cache.stats().estimatedBytes());
+    }
+
+    @Test
+    void leastRecentlyUsedWalletsAreEvictedOverLimit() {
+        var cache = new SummaryCache(5000);
+        var calls = new AtomicInteger();
+        for (var login : new String[] {"ann", "bob", "carl", "dave"}) get(cache, login, BASE, calls, 900);
+        get(cache, "ann", BASE, calls, 900); // ann снова свежий
+        get(cache, "eve", BASE, calls, 900);
+
+        var stats = cache.stats();
+        assertEquals(1, stats.evictions());
+        assertEquals(4, stats.entries());
+        assertEquals(4 * 1060, stats.estimatedBytes());
+        int before = calls.get();
+        get(cache, "ann", BASE, calls, 900);
+        assertEquals(before, calls.get());
+        get(cache, "bob", BASE, calls, 900);
+        assertEquals(before + 1, calls.get());
+    }
+
+    @Test
+    void oversizedSectionIsNotKept() {
+        var cache = new SummaryCache(4000);
+        var calls = new AtomicInteger();
+        get(cache, "ann", BASE, calls, 2000);
+        get(cache, "ann", BASE, calls, 2000);
+        assertEquals(2, calls.get());
+        assertEquals(0, cache.stats().entries());
+    }
+
+    private static int get(SummaryCache cache, String login, SummaryCache.Stamp stamp, AtomicInteger calls) {
+        return get(cache, login, stamp, calls, 0);
+    }
+
+    private static int get(SummaryCache cache, String login, SummaryCache.Stamp stamp, AtomicInteger calls, long size) {
+        return cache.get(login, SummaryCache.Section.TOTALS, DateRange.ALL, stamp, calls::incrementAndGet, v -> size);
+    }
+}
@@ -0,0 +1,79 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    @Test
+    void timersCascadeDownAndFireOnTheirTick() {
+        var wheel = new TimingWheel<Long>(10);
+        // По сроку на каждый уровень, на границах ячеек и за пределом старшего уровня.
+        long[] deadlines = {11, 73, 74, 4_106, 4_160, 262_154, 262_208, 16_777_226, 16_777_300, 20_000_000};
+        for (long d : deadlines) wheel.schedule(new TimingWheel.Timer<>(d), d);
+        assertEquals(deadlines.length, wheel.size());
+
+        List<Long> fired = new ArrayList<>();
+        for (long to = 10; fired.size() < deadlines.length; to += 997) {
+            wheel.advance(to, d -> {
+                assertEquals((long) d, wheel.now(), "таймер сработал не на своём тике");
+                fired.add(d);
+            });
+        }
+        assertEquals(List.of(11L, 73L, 74L, 4_106L, 4_160L, 262_154L, 262_208L, 16_777_226L, 16_777_300L, 20_000_000L), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void randomDeadlinesFireInOrder() {
+        var random = new Random(7);
+        var wheel = new TimingWheel<Long>(0);
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            long d = random.nextInt(300_000);
+            expected.add(d);
+            wheel.schedule(new TimingWheel.Timer<>(d), d);
+        }
+        expected.sort(null);
+
+        List<Long> fired = new ArrayList<>();
+        wheel.advance(300_000, fired::add);
+        assertEquals(expected, fired);
+    }
+
+    @Test
+    void cancelledAndRescheduledTimers() {
+        var wheel = new TimingWheel<String>(0);
+        var a = new TimingWheel.Timer<>("a");
+        var b = new TimingWheel.Timer<>("b");
+        wheel.schedule(a, 100);
+        wheel.schedule(b, 5_000);
+        assertTrue(wheel.cancel(b));
+        assertFalse(wheel.cancel(b));
+        assertFalse(b.isScheduled());
+        wheel.schedule(a, 50);
+        assertEquals(1, wheel.size());
+
+        List<String> fired = new ArrayList<>();
+        wheel.advance(49, fired::add);
+        assertEquals(List.of(), fired);
+        wheel.advance(10_000, fired::add);
+        assertEquals(List.of("a"), fired);
+    }
+
+    @Test
+    void pastDeadlineFiresOnNextAdvance() {
+        var wheel = new TimingWheel<String>(1_000);
+        wheel.schedule(new TimingWheel.Timer<>("late"), 10);
+        List<String> fired = new ArrayList<>();
+        wheel.advance(1_000, fired::add);
+        assertEquals(List.of("late"), fired);
+    }
+}
@@ -0,0 +1,126 @@
+package service;
+
+import exception.FinanceAppException;
+import model.Money;
+import model.Transaction;
+import model.TransactionType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TransferSettlementTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void counterTransfersAreNetted() {
+        var flows = TransferSettlement.net(List.of(
+                pending("1", "ann", "bob", "100"),
+                pending("2", "bob", "ann", "30"),
+                pending("3", "carl", "ann", "10"),
+                pending("4", "bob", "ann", "70"),
+                pending("5", "ann", "carl", "10")));
+
+        assertEquals(List.of(
+                new TransferSettlement.NetFlow("ann", "bob", Money.ZERO, 3),
+                new TransferSettlement.NetFlow("ann", "carl", Money.ZERO, 2)), flows);
+    }
+
+    @Test
+    void netFlowTakesDirectionOfLargerSide() {
+        var flows = TransferSettlement.net(List.of(
+                pending("1", "bob", "ann", "25.50"),
+                pending("2", "ann", "bob", "5"),
+                pending("3", "bob", "ann", "0.50")));
+
+        assertEquals(List.of(new TransferSettlement.NetFlow("bob", "ann", Money.parse("21"), 3)), flows);
+    }
+
+    @Test
+    void repeatedKeyIsAcceptedOnce() {
+        var settlement = new TransferSettlement(null, null, null, 1000, 100, 100);
+        var p = pending("k1", "ann", "bob", "10");
+
+        assertEquals(TransferSettlement.Status.ACCEPTED, settlement.submit(p));
+        assertEquals(TransferSettlement.Status.DUPLICATE, settlement.submit(pending("k1", "ann", "bob", "10")));
+        assertEquals(1, settlement.pending());
+
+        // Ключ действует в пределах отправителя.
+        assertEquals(TransferSettlement.Status.ACCEPTED, settlement.submit(pending("k1", "bob", "ann", "10")));
+        assertEquals(2, settlement.pending());
+    }
+
+    @Test
+    void keyReusedForAnotherTransferIsRejected() {
+        var settlement = new TransferSettlement(null, null, null, 1000, 100, 100);
+        settlement.submit(pending("k1", "ann", "bob", "10"));
+
+        assertThrows(FinanceAppException.class, () -> settlement.submit(pending("k1", "ann", "bob", "11")));
+        assertThrows(FinanceAppException.class, () -> settlement.submit(pending("k1", "ann", "carl", "10")));
+        assertEquals(1, settlement.pending());
+    }
+
+    @Test
+    void unappliableTransferIsRejectedAloneAndItsKeyReleased() throws IOException {
+        // Запись кошелька bob повреждена: переводы ему отклоняются, остальные переводы пакета проводятся.
+        var setup = new PersistenceService(dir, false);
+        var bob = setup.loadWallet("bob");
+        bob.addTransaction(new Transaction(TransactionType.INCOME, Money.parse("1"), "salary", "", LocalDateTime.now()));
+        setup.saveWallet("bob", bob);
+        var segment = dir.resolve("walletstore.1.dat");
+        var bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(segment, bytes);
+
+        var auth = new AuthService(dir, false, new CredentialService(1, 1, 16));
+        for (var login : List.of("ann", "bob", "carl")) auth.register(login, "pass1234");
+        var wallets = new WalletService(new PersistenceService(dir, false), auth);
+        wallets.submitTransfer("k1", "ann", "bob", Money.parse("10"), "");
+        wallets.submitTransfer("k2", "ann", "carl", Money.parse("5"), "");
+
+        var batches = wallets.settlePending();
+        assertEquals(1, batches.size());
+        var batch = batches.get(0);
+        assertEquals(1, batch.transfers());
+        assertEquals(List.of("k1"), batch.failed().stream().map(TransferSettlement.Failed::key).toList());
+        assertEquals(0, wallets.pendingTransfers());
+        assertEquals(Money.parse("5"), wallets.getWalletIfLoaded("carl").getTotal(TransactionType.INCOME));
+        assertEquals(Money.parse("5"), wallets.getWalletIfLoaded("ann").getTotal(TransactionType.EXPENSE));
+        assertEquals(bytes.length, Files.size(segment));
+
+        assertEquals(TransferSettlement.Status.ACCEPTED, wallets.submitTransfer("k1", "ann", "bob", Money.parse("10"), ""));
+        assertEquals(TransferSettlement.Status.DUPLICATE, wallets.submitTransfer("k2", "ann", "carl", Money.parse("5"), ""));
+    }
+
+    @Test
+    void failedBatchIsNotRetriedAndKeysStayTaken() {
+        var auth = new AuthService(dir, false, new CredentialService(1, 1, 16));
+        var broken = new WalletService(new PersistenceService(dir, false), auth) {
+            @Override
+            TransferSettlement.Batch applyTransfers(List<TransferSettlement.Pending> batch) {
+                throw new IllegalStateException("сбой");
+            }
+        };
+        var settlement = new TransferSettlement(broken, null, null, 1000, 100, 100);
+        settlement.submit(pending("k1", "ann", "bob", "10"));
+
+        var batches = settlement.settle();
+        assertEquals(1, batches.get(0).failed().size());
+        assertEquals(0, settlement.pending());
+        assertEquals(List.of(), settlement.settle());
+        assertEquals(TransferSettlement.Status.DUPLICATE, settlement.submit(pending("k1", "ann", "bob", "10")));
+    }
+
+    private static TransferSettlement.Pending pending(String key, String from, String to, String amount) {
+        return new TransferSettlement.Pending(key, from, to, Money.parse(amount), "");
+    }
+}
@@ -0,0 +1,93 @@
+package service;
+
+import model.Money;
+import model.Transaction;
+import model.TransactionType;
+import model.Wallet;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WalletCacheTest {
+
+    @Test
+    void leastRecentlyUsedUnpinnedWalletsAreCandidates() {
+        var cache = new WalletCache(10, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) cache.getOrLoad("u" + i, Wallet::new);
+        assertEquals(List.of(), cache.evictionCandidates());
+
+        cache.pin("u0");
+        cache.getOrLoad("u1", Wallet::new); // u1 снова свежий
+        cache.getOrLoad("u10", Wallet::new);
+        // 11 кошельков при лимите 10: вытесняется до 9, то есть двое самых старых, кроме закреплённого u0.
+        assertEquals(List.of("u2", "u3"), cache.evictionCandidates());
+    }
+
+    @Test
+    void skippedEvictionIsRetried() {
+        var cache = new WalletCache(1, Long.MAX_VALUE);
+        cache.getOrLoad("ann", Wallet::new);
+        cache.getOrLoad("bob", Wallet::new);
+
+        assertEquals(List.of("ann", "bob"), cache.evictionCandidates());
+        assertEquals(List.of(), cache.evictionCandidates());
+        cache.evictionSkipped();
+        assertEquals(List.of("ann", "bob"), cache.evictionCandidates());
+
+        var bob = cache.peek("bob");
+        cache.remove("bob", bob);
+        assertNull(cache.peek("bob"));
+        assertEquals(1, cache.stats().evictions());
+    }
+
+    @Test
+    void unpinningRechecksLimits() {
+        var cache = new WalletCache(1, Long.MAX_VALUE);
+        cache.pin("ann");
+        cache.pin("bob");
+        cache.getOrLoad("ann", Wallet::new);
+        cache.getOrLoad("bob", Wallet::new);
+        assertEquals(List.of(), cache.evictionCandidates());
+
+        cache.unpin("ann");
+        assertEquals(List.of("ann"), cache.evictionCandidates());
+    }
+
+    @Test
+    void walletGrowingWithoutMissesTriggersEviction() {
+        var cache = new WalletCache(100, 20_000);
+        var w = cache.getOrLoad("ann", Wallet::new);
+        cache.getOrLoad("bob", Wallet::new);
+        assertEquals(List.of(), cache.evictionCandidates());
+
+        var time = LocalDateTime.of(2025, 1, 1, 0, 0);
+        for (int i = 0; i < 1000; i++) {
+            w.addTransaction(new Transaction(TransactionType.INCOME, Money.parse("1"), "salary", "payment " + i, time.plusMinutes(i)));
+            cache.resized("ann");
+        }
+        assertEquals(List.of("ann"), cache.evictionCandidates());
+    }
+
+    @Test
+    void failedLoadIsNotCachedAndCanBeRetried() {
+        var cache = new WalletCache(10, Long.MAX_VALUE);
+        var calls = new AtomicInteger();
+        assertThrows(IllegalStateException.class, () -> cache.getOrLoad("ann", login -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("диск недоступен");
+        }));
+        assertNull(cache.peek("ann"));
+        assertEquals(0, cache.stats().wallets());
+
+        var w = cache.getOrLoad("ann", Wallet::new);
+        assertSame(w, cache.getOrLoad("ann", login -> { throw new AssertionError("кошелёк уже загружен"); }));
+        assertEquals(1, calls.get());
+    }
+}
@@ -0,0 +1,100 @@
+package service;
+
+import model.ArchiveSegment;
+import model.BudgetPeriod;
+import model.Category;
+import model.DateRange;
+import model.Money;
+import model.RecurringRule;
+import model.Schedule;
+import model.Transaction;
+import model.TransactionType;
+import model.Wallet;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WalletFileFormatTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2025, 3, 1, 9, 30);
+
+    @Test
+    void snapshotRoundTrip() throws IOException {
+        var w = new Wallet("ann");
+        w.setJournalSeq(42);
+        var food = new Category("food");
+        food.setBudget(Money.parse("500"));
+        food.setBudgetPeriod(BudgetPeriod.MONTH);
+        food.setAlertThresholds(new int[] {80, 100});
+        w.getCategories().put("food", food);
+        w.addTransaction(new Transaction(TransactionType.INCOME, Money.parse("1000"), "salary", "job", START));
+        w.addTransaction(new Transaction(TransactionType.EXPENSE, Money.parse("120.50"), "food", "lunch", START.plusHours(3)));
+        w.addTransaction(new Transaction(TransactionType.EXPENSE, Money.parse("30"), "food", "coffee", START.plusDays(1)));
+        w.putRecurringRule(RecurringRule.create(1, TransactionType.EXPENSE, Money.parse("15"), "food", "daily lunch",
+                Schedule.parse("daily"), START));
+
+        var r = WalletFileFormat.read(WalletFileFormat.encode(w), segment -> null);
+
+        assertEquals("ann", r.getOwnerLogin());
+        assertEquals(42, r.getJournalSeq());
+        assertEquals(w.getTransactions(), r.getTransactions());
+        assertEquals(w.getTotal(TransactionType.EXPENSE), r.getTotal(TransactionType.EXPENSE));
+        assertEquals(Money.parse("30"), r.getCategoryTotal("food", TransactionType.EXPENSE,
+                new DateRange(START.toLocalDate().plusDays(1), null)));
+        assertEquals(1, r.search("lunch", 10).total());
+        assertEquals(1, r.search("job", 10).total());
+
+        var c = r.getCategories().get("food");
+        assertEquals(Money.parse("500"), c.getBudget());
+        assertEquals(BudgetPeriod.MONTH, c.getBudgetPeriod());
+        assertArrayEquals(new int[] {80, 100}, c.getAlertThresholds());
+
+        var rule = r.getRecurringRule(1);
+        assertEquals("daily", rule.schedule().spec());
+        assertEquals(START, rule.start());
+        assertEquals(w.getRecurringRule(1).nextDue(), rule.nextDue());
+        assertEquals(Money.parse("15"), rule.amount());
+    }
+
+    @Test
+    void archivedSegmentKeepsWordFilter() throws IOException {
+        var w = new Wallet("ann");
+        w.addTransaction(new Transaction(TransactionType.EXPENSE, Money.parse("40"), "food", "lunch", START));
+        w.addTransaction(new Transaction(TransactionType.INCOME, Money.parse("1000"), "salary", "job", START.plusDays(1)));
+        var rows = w.copyRows(1);
+        w.archive(ArchiveSegment.summarize(1, rows, segment -> rows), 1);
+
+        var reads = new AtomicInteger();
+        var r = WalletFileFormat.read(WalletFileFormat.encode(w), segment -> {
+            reads.incrementAndGet();
+            return rows;
+        });
+        var segment = r.getSegments().get(0);
+        assertArrayEquals(w.getSegments().get(0).words().bits(), segment.words().bits());
+        assertEquals(0, r.search("rent", 10).total());
+        assertEquals(0, reads.get());
+        assertEquals(1, r.search("lun", 10).total());
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    void emptyWalletRoundTrip() throws IOException {
+        var r = WalletFileFormat.read(WalletFileFormat.encode(new Wallet("bob")), segment -> null);
+        assertEquals("bob", r.getOwnerLogin());
+        assertEquals(0, r.transactionCount());
+        assertEquals(0, r.getCategories().size());
+    }
+
+    @Test
+    void rejectsForeignData() throws IOException {
+        var buf = WalletFileFormat.encode(new Wallet("bob"));
+        buf.putInt(0, 0xCAFEBABE);
+        assertThrows(IOException.class, () -> WalletFileFormat.read(buf, segment -> null));
+    }
+}
@@ -0,0 +1,76 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WalletStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void compactionMovesLiveRecordsAndDeletesSegment() throws IOException {
+        try (var store = new WalletStore(dir, 100)) {
+            store.open();
+            store.putAll(List.of(put(store, "ann", "ann-1"), put(store, "bob", "bob-1"), put(store, "carl", "carl-1")));
+            store.putAll(List.of(put(store, "ann", "ann-2"), put(store, "bob", "bob-2")));
+            assertTrue(Files.exists(dir.resolve("walletstore.2.dat")));
+
+            var c = store.compact();
+            assertNotNull(c);
+            assertEquals(1, c.segment());
+            assertEquals(1, c.moved());
+            assertTrue(c.reclaimedBytes() > 0);
+            assertFalse(Files.exists(dir.resolve("walletstore.1.dat")));
+            assertNull(store.compact());
+
+            assertEquals("ann-2", text(store.get("ann")));
+            assertEquals("bob-2", text(store.get("bob")));
+            assertEquals("carl-1", text(store.get("carl")));
+            var stats = store.stats();
+            assertEquals(3, stats[0]);
+            assertEquals(stats[1], stats[2]);
+        }
+
+        try (var store = new WalletStore(dir, 100)) {
+            store.open();
+            assertEquals("ann-2", text(store.get("ann")));
+            assertEquals("carl-1", text(store.get("carl")));
+            assertNull(store.get("dave"));
+        }
+    }
+
+    @Test
+    void olderSnapshotDoesNotReplaceNewer() throws IOException {
+        try (var store = new WalletStore(dir, 1 << 20)) {
+            store.open();
+            var old = put(store, "ann", "old");
+            store.putAll(List.of(put(store, "ann", "new")));
+            assertEquals(0, store.putAll(List.of(old)));
+            assertEquals("new", text(store.get("ann")));
+        }
+    }
+
+    private static WalletStore.Put put(WalletStore store, String login, String snapshot) {
+        return new WalletStore.Put(login, store.nextTicket(), ByteBuffer.wrap(snapshot.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String text(ByteBuffer snapshot) {
+        var bytes = new byte[snapshot.remaining()];
+        snapshot.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,119 @@
+package service;
+
+import model.Money;
+import model.TransactionType;
+import model.WalletView;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WalletViewTest {
+
+    private static final int TYPES = TransactionType.values().length;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void viewDoesNotSeeLaterWrites() {
+        var wallets = walletService();
+        wallets.addTransaction("ann", TransactionType.EXPENSE, Money.parse("10"), "food", "lunch");
+        var view = wallets.readUncached("ann", v -> v);
+
+        wallets.addTransaction("ann", TransactionType.EXPENSE, Money.parse("5"), "food", "coffee");
+        wallets.transfer("ann", "bob", Money.parse("100"), "долг");
+        wallets.createCategory("ann", "rent");
+
+        assertEquals(2, view.transactionCount());
+        assertEquals(2, view.getTransactions().size());
+        assertEquals(Money.parse("10"), view.getTotal(TransactionType.EXPENSE));
+        assertEquals(Money.parse("10"), view.getCategoryTotal("food", TransactionType.EXPENSE));
+        assertFalse(view.getCategories().containsKey("rent"));
+        assertEquals(Money.parse("115"), wallets.readUncached("ann", v -> v.getTotal(TransactionType.EXPENSE)));
+    }
+
+    @Test
+    void viewTotalsMatchItsRowsUnderConcurrentWrites() throws InterruptedException {
+        var wallets = walletService();
+        var done = new AtomicBoolean();
+        var checks = new AtomicLong();
+        var problems = new ConcurrentLinkedQueue<String>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 2; t++) {
+            var random = new Random(t);
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 3000; i++) {
+                    var amount = Money.ofMinor(1 + random.nextInt(100));
+                    switch (random.nextInt(4)) {
+                        case 0 -> wallets.transfer("ann", "bob", amount, "t");
+                        case 1 -> wallets.transfer("bob", "ann", amount, "t");
+                        case 2 -> wallets.addTransaction("ann", TransactionType.EXPENSE, amount, "food", "e");
+                        default -> wallets.addTransaction("ann", TransactionType.INCOME, amount, "cat" + random.nextInt(20), "i");
+                    }
+                }
+            }));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            readers.add(Thread.ofPlatform().start(() -> {
+                while (!done.get()) {
+                    var problem = wallets.readUncached("ann", WalletViewTest::check);
+                    if (problem != null) problems.add(problem);
+                    checks.incrementAndGet();
+                }
+            }));
+        }
+        for (var t : threads) t.join();
+        done.set(true);
+        for (var t : readers) t.join();
+
+        assertEquals(List.of(), List.copyOf(problems));
+        assertTrue(checks.get() > 0);
+    }
+
+    /**
+     * Сверяет итоги среза с его же строками; возвращает описание расхождения или {@code null}.
+     */
+    private static String check(WalletView v) {
+        var totals = new long[TYPES];
+        Map<String, long[]> byCategory = new HashMap<>();
+        var rows = v.getTransactions();
+        for (var t : rows) {
+            totals[t.type().ordinal()] += t.amount().minor();
+            byCategory.computeIfAbsent(t.category(), c -> new long[TYPES])[t.type().ordinal()] += t.amount().minor();
+        }
+        if (v.transactionCount() != rows.size()) return "строк " + rows.size() + ", а в итогах " + v.transactionCount();
+        for (var type : TransactionType.values()) {
+            if (v.getTotal(type).minor() != totals[type.ordinal()]) return "итог " + type + " не совпадает со строками";
+            for (var e : byCategory.entrySet()) {
+                if (v.getCategoryTotal(e.getKey(), type).minor() != e.getValue()[type.ordinal()]) return "итог категории " + e.getKey() + " не совпадает";
+            }
+        }
+        return null;
+    }
+
+    private WalletService walletService() {
+        var auth = new AuthService(dir, false, new CredentialService(1, 1, 16));
+        auth.register("ann", "pass1234");
+        auth.register("bob", "pass1234");
+        var wallets = new WalletService(new PersistenceService(dir, false), auth);
+        wallets.createCategory("ann", "food");
+        wallets.addTransaction("ann", TransactionType.INCOME, Money.ofMinor(1_000_000_000L), "salary", "x");
+        wallets.addTransaction("bob", TransactionType.INCOME, Money.ofMinor(1_000_000_000L), "salary", "x");
+        return wallets;
+    }
+}
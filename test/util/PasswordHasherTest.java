@@ -0,0 +1,64 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PasswordHasherTest {
+
+    @Test
+    void pbkdf2MatchesReferenceVector() {
+        // RFC 7914, раздел 11: PBKDF2-HMAC-SHA256, P = "passwd", S = "salt", c = 1; первые 32 байта ключа.
+        var key = PasswordHasher.pbkdf2("passwd", "salt".getBytes(StandardCharsets.UTF_8), 1);
+        assertEquals("55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc", HashUtil.toHex(key));
+    }
+
+    @Test
+    void verifiesOnlyTheRightPassword() {
+        var hasher = new PasswordHasher(1000);
+        var stored = hasher.hash("pass1234");
+
+        assertTrue(stored.startsWith("pbkdf2-sha256$1000$"));
+        assertTrue(hasher.verify("pass1234", stored));
+        assertFalse(hasher.verify("pass1235", stored));
+        assertNotEquals(stored, hasher.hash("pass1234"), "соль должна быть случайной");
+    }
+
+    @Test
+    void hashFromWeakerSettingsVerifiesButNeedsRehash() {
+        var stored = new PasswordHasher(500).hash("pass1234");
+        var hasher = new PasswordHasher(1000);
+
+        assertTrue(hasher.verify("pass1234", stored));
+        assertTrue(hasher.needsRehash(stored));
+        assertFalse(hasher.needsRehash(hasher.hash("pass1234")));
+        assertFalse(new PasswordHasher(500).needsRehash(stored));
+    }
+
+    @Test
+    void legacySha256HashVerifiesAndNeedsRehash() {
+        var hasher = new PasswordHasher(1000);
+        var legacy = HashUtil.sha256("pass1234");
+
+        assertTrue(hasher.verify("pass1234", legacy));
+        assertFalse(hasher.verify("other", legacy));
+        assertTrue(hasher.needsRehash(legacy));
+    }
+
+    @Test
+    void malformedHashesAreRejected() {
+        var hasher = new PasswordHasher(1000);
+        var stored = hasher.hash("pass1234");
+
+        assertFalse(hasher.verify("pass1234", null));
+        assertFalse(hasher.verify("pass1234", "pbkdf2-sha256$"));
+        assertFalse(hasher.verify("pass1234", "pbkdf2-sha256$x$00$00"));
+        assertFalse(hasher.verify("pass1234", stored.substring(0, stored.length() - 2)));
+        assertFalse(hasher.verify("pass1234", "not-a-hash"));
+    }
+}